@@ -1,15 +1,45 @@
+import fingertable.OffHeapFingerStore;
+import p2p.ActorRuntime;
+import p2p.KeyStore;
+import p2p.LatencyModel;
 import p2p.Network;
 import p2p.NetworkInterface;
+import p2p.Node;
 import p2p.NodeInterface;
 import crypto.ConsistentHashing;
+import crypto.HashAlgorithm;
+import protocol.AsyncLookUps;
+import protocol.ChordActors;
 import protocol.ChordProtocol;
+import protocol.CompactNetwork;
+import protocol.FailureInjector;
 import protocol.LookUpResponse;
+import protocol.LookUpRoute;
+import protocol.LocationCaches;
+import protocol.LookUpMetrics;
+import protocol.LookUpSimulation;
+import protocol.LookUpStatistics;
+import protocol.LookUpWriter;
+import protocol.LoopbackBenchmark;
+import protocol.LoopbackLookUps;
+import protocol.OutputFormat;
+import protocol.OverlaySnapshot;
 import protocol.Protocol;
+import protocol.RingIndex;
+import protocol.Workload;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
 
 /**
  * This class simulates the chord protocol.
@@ -24,8 +54,9 @@ public class ChordProtocolSimulator {
     public int keyCount;
 
     // each key is indexed using consistent hashing. eg:- the tuple (key 1, 123) represents a key with a name
-    //'key 1' and the index value of 123. Each key is assumed to have a unique name.
-    public LinkedHashMap<String, Integer> keyIndexes;
+    //'key 1' and the index value of 123. Each key is assumed to have a unique name. Indexes are longs so that
+    // identifiers longer than 31 bits can be used.
+    public LinkedHashMap<String, Long> keyIndexes;
 
     // protocol denotes the protocol object that is used for simulation.
     public Protocol protocol;
@@ -36,11 +67,36 @@ public class ChordProtocolSimulator {
     // denotes the object of the consistent hashing that is used in hash calculation
     public ConsistentHashing consistentHash;
 
+    // sorted index of the node ids, built once from the network and used to find the peer of each key
+    public RingIndex ringIndex;
+
+    // number of keys from which assignKeys() hashes and places the keys in parallel
+    public static final int PARALLEL_KEY_THRESHOLD = 10000;
+
+    // number of single calls that measure the latency of the loopback transport, and how long the loopback peers
+    // wait for each other and for the results
+    public static final int LOOPBACK_CALLS = 10000;
+    public static final long LOOPBACK_TIMEOUT_MILLIS = 60000;
+
+    // verbosity levels of the console output
+    // QUIET prints nothing, SUMMARY the averages, RESULTS also the ring, the network and each lookup (default),
+    // TRACE also every step of the lookup test
+    public static final int QUIET = 0;
+    public static final int SUMMARY = 1;
+    public static final int RESULTS = 2;
+    public static final int TRACE = 3;
+
+    // how much is printed to the console
+    public int verbosity = RESULTS;
+
     public ChordProtocolSimulator(Protocol protocol, Network network, int m, int nodeCount, int keyCount) {
         this.keyIndexes = new LinkedHashMap<>();
         this.protocol = protocol;
         this.network = network;
-        this.consistentHash = new ConsistentHashing(m);
+        // use the same hash function as the protocol, so that keys and nodes are placed on the same ring
+        this.consistentHash = protocol instanceof ChordProtocol
+                ? ((ChordProtocol) protocol).ch
+                : new ConsistentHashing(m);
         this.m = m;
         this.nodeCount = nodeCount;
         this.keyCount  = keyCount;
@@ -63,7 +119,20 @@ public class ChordProtocolSimulator {
      * @return the chord protocol simulator object
      */
     public static ChordProtocolSimulator getInstance(Network network, int m, int keyCount) {
-        Protocol chordProtocol = new ChordProtocol(m);
+        return getInstance(network, m, keyCount, HashAlgorithm.MD5);
+    }
+
+    /**
+     * This method creates a new object of the chord protocol simulator that uses the given hash function.
+     *
+     * @param network - the network object
+     * @param m - 'm' value used in consistent hashing
+     * @param keyCount - number of keys that needs to be assigned to nodes
+     * @param hashAlgorithm - hash function used for the node and key indexes
+     * @return the chord protocol simulator object
+     */
+    public static ChordProtocolSimulator getInstance(Network network, int m, int keyCount, HashAlgorithm hashAlgorithm) {
+        Protocol chordProtocol = new ChordProtocol(m, hashAlgorithm);
         int nodeCount = network.getSize();
         return new ChordProtocolSimulator(chordProtocol, network, m, nodeCount, keyCount);
     }
@@ -79,13 +148,81 @@ public class ChordProtocolSimulator {
      *         2) add the key index to the node (by calling the peer.add_data() from the network)
      */
     public void assignKeys() {
+        if (keyCount >= PARALLEL_KEY_THRESHOLD) {
+            assignKeysInParallel();
+            return;
+        }
         generateKeys();
-        for (Map.Entry<String, Integer> entry: keyIndexes.entrySet()) {
+        long[] hashes = new long[keyIndexes.size()];
+        int[] owners = new int[hashes.length];
+        int i = 0;
+        for (Map.Entry<String, Long> entry: keyIndexes.entrySet()) {
 //            String keyName =  entry.getKey();
-            int keyIndex =  entry.getValue();
-            String peerName = findPeer(keyIndex);
+            hashes[i] =  entry.getValue();
+            owners[i] = getRingIndex().successorOrdinal(hashes[i]);
 //           System.out.println("key name: "+name +"\t key_index : "+key_index+"\t peer_name : "+peer_name);
-            protocol.getNetwork().getTopology().get(peerName).addData(keyIndex);
+            i++;
+        }
+        loadKeys(hashes, owners);
+    }
+
+    /**
+     * This method is the bulk version of assignKeys(). The key names are hashed in parallel and the responsible peer
+     * of every key is resolved in parallel with the ring index. Only adding the key indexes to the nodes is done
+     * sequentially, since the nodes are not thread safe. The keys are stored in the keyIndexes in the same order as
+     * generateKeys() would store them.
+     */
+    public void assignKeysInParallel() {
+        String[] keyNames = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keyNames[i] = "key " + (i + 1);
+        }
+
+        RingIndex index = getRingIndex();
+        long[] hashes = new long[keyCount];
+        int[] owners = new int[keyCount];
+        IntStream.range(0, keyCount).parallel().forEach(i -> {
+            hashes[i] = consistentHash.hashLong(keyNames[i]);
+            owners[i] = index.successorOrdinal(hashes[i]);
+        });
+
+        for (int i = 0; i < keyCount; i++) {
+            this.keyIndexes.put(keyNames[i], hashes[i]);
+        }
+        loadKeys(hashes, owners);
+    }
+
+    /**
+     * This method adds the key indexes to the nodes that are responsible for them. The keys are grouped by node with a
+     * counting sort on the ring ordinal of the owner, and every node gets its keys in one bulk load of its key store.
+     *
+     * @param hashes key indexes
+     * @param owners ring ordinal of the node that is responsible for each key
+     */
+    private void loadKeys(long[] hashes, int[] owners) {
+        RingIndex index = getRingIndex();
+        int[] offsets = new int[index.size() + 1];
+        for (int owner : owners) {
+            offsets[owner + 1]++;
+        }
+        for (int i = 0; i < index.size(); i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        long[] grouped = new long[hashes.length];
+        int[] next = Arrays.copyOf(offsets, index.size());
+        for (int i = 0; i < hashes.length; i++) {
+            grouped[next[owners[i]]++] = hashes[i];
+        }
+
+        for (int i = 0; i < index.size(); i++) {
+            NodeInterface node = index.getNode(i);
+            if (node.getData() instanceof KeyStore) {
+                ((KeyStore) node.getData()).addAll(grouped, offsets[i], offsets[i + 1]);
+            } else {
+                for (int k = offsets[i]; k < offsets[i + 1]; k++) {
+                    node.addData(grouped[k]);
+                }
+            }
         }
     }
 
@@ -97,80 +234,100 @@ public class ChordProtocolSimulator {
      *         2) store the ("key name", "index") in the keyIndexes hash map
      */
     public void generateKeys() {
+        String[] keyNames = new String[keyCount];
         for (int i = 1; i < keyCount + 1; i++) {
-            String keyName =  "key " + i;
-            int keyIndex = consistentHash.hash(keyName);
-            this.keyIndexes.put(keyName, keyIndex);
+            keyNames[i - 1] = "key " + i;
+        }
+        long[] hashes = consistentHash.hashLong(keyNames);
+        for (int i = 0; i < keyCount; i++) {
+            this.keyIndexes.put(keyNames[i], hashes[i]);
         }
     }
 
+    /**
+     * This method returns the ring index of the network. The index is built the first time it is needed: the name of
+     * every node is hashed once with consistent hashing and the ids are sorted together with the nodes.
+     *
+     * @return sorted index of the node ids
+     */
+    public RingIndex getRingIndex() {
+        if (ringIndex == null) {
+            // with virtual nodes every node is placed at all of its positions
+            int virtualNodes = protocol instanceof ChordProtocol ? ((ChordProtocol) protocol).virtualNodes : 1;
+            ringIndex = RingIndex.build(this.network.getTopology().values(), consistentHash, virtualNodes);
+        }
+        return ringIndex;
+    }
+
     /**
      * This method finds peer that should be responsible for a given key.
-     * It retrieves the set of nodes from the network and for each node calculates the index of the node using
-     * consistent hashing. Then it compares the index of the key with index of all the nodes. It choose a node
-     * that has an index that would be next to the key index in the consistent hash ring.
+     * It uses the ring index, which stores the indexes of all the nodes in ascending order, and searches for the node
+     * that has an index that would be next to the key index in the consistent hash ring. If the key index is larger
+     * than the biggest node index, the key is placed at the first node of the ring.
      *
      * @param key_index index of the key
      * @return the name of the node that should be responsible for the key
      */
-    public String findPeer(int key_index) {
-        List<Integer> sortedIndexes = new ArrayList<Integer>();
-        int peerIndex = -1;
-
-        // calculate the indexes of all the nodes using consistent hashing
-        for (Map.Entry<String, NodeInterface> node: this.network.getTopology().entrySet()) {
-            String nodeName = node.getValue().getName();
-            int nodeIndex = consistentHash.hash(nodeName);
-            sortedIndexes.add(nodeIndex);
-        }
-
-        // sort the node indexes
-        Collections.sort(sortedIndexes);
-
-        // check if the key index is larger than the biggest node index
-        // if it is larger than the key should be placed before the lowest node index (at the start of the ring)
-        if (key_index> sortedIndexes.get(sortedIndexes.size()-1)){
-            peerIndex = sortedIndexes.get(0);
-        } else {
-            // if the key index is not larger than the biggest node index, then choose the node that has index
-            // bigger than the key index. loop through the nodes in the ascending order of the node indexes
-            for (Integer sortedIndex : sortedIndexes) {
-                if (sortedIndex >= key_index) {
-                    peerIndex = sortedIndex;
-                    break;
-                }
-            }
-        }
+    public String findPeer(long key_index) {
+        NodeInterface peer = getRingIndex().findSuccessor(key_index);
 
         // if no node is found then return null. Note: If everything works well then this shouldn't happen.
-        if (peerIndex==-1){
+        if (peer == null) {
             return null;
         }
-        // return the name of the node that corresponds to the index
-        return findPeerName(peerIndex);
+        return peer.getName();
     }
 
     /**
-     * This method returns the peer name based on the peer index
-     * This method uses a hack that the network setup uses the names Peer 1, Peer 2,... etc. It would be nice if this is
-     * automatic. like fetching all the nodes from the network and compare the names with the given node (based on
-     * index). Maybe I can improve it later.
+     * This method returns the peer name based on the peer index. The ring index is searched for a node that has
+     * exactly the given index.
      *
      * @param peerIndex index of the node
      * @return  name of the node
      */
-    public String findPeerName(int peerIndex) {
-        int peerCount = nodeCount;
-        for (int i = 1; i < peerCount + 1; i++) {
-            String name = "Node " + i;
-            int index = consistentHash.hash(name);
-            if (peerIndex==index) {
-                return name;
-            }
+    public String findPeerName(long peerIndex) {
+        RingIndex index = getRingIndex();
+        int ordinal = index.successorOrdinal(peerIndex);
+        if (ordinal >= 0 && index.getId(ordinal) == peerIndex) {
+            return index.getNode(ordinal).getName();
         }
         return null;
     }
 
+    /**
+     * This method summarises how evenly the keys are spread over the nodes: the mean, the largest and smallest number
+     * of keys per node and the standard deviation. With virtual nodes the keys of all positions of a node are counted
+     * together.
+     *
+     * @return output lines of the key load report
+     */
+    public List<String> keyLoadReport() {
+        Collection<NodeInterface> nodes = network.getTopology().values();
+        long total = 0;
+        long max = 0;
+        long min = Long.MAX_VALUE;
+        for (NodeInterface node : nodes) {
+            long load = ((Collection<?>) node.getData()).size();
+            total += load;
+            max = Math.max(max, load);
+            min = Math.min(min, load);
+        }
+        double mean = nodes.isEmpty() ? 0 : (double) total / nodes.size();
+        double squares = 0;
+        for (NodeInterface node : nodes) {
+            double deviation = ((Collection<?>) node.getData()).size() - mean;
+            squares += deviation * deviation;
+        }
+        double deviation = nodes.isEmpty() ? 0 : Math.sqrt(squares / nodes.size());
+        int virtualNodes = protocol instanceof ChordProtocol ? ((ChordProtocol) protocol).virtualNodes : 1;
+
+        List<String> lines = new ArrayList<>();
+        lines.add("\nkey load per node (virtual nodes: " + virtualNodes + ")");
+        lines.add(String.format("mean: %.2f\tmax: %d (%.2f x mean)\tmin: %d\tstandard deviation: %.2f",
+                mean, max, mean == 0 ? 0 : max / mean, nodes.isEmpty() ? 0 : min, deviation));
+        return lines;
+    }
+
     /**
      *  This method prints the network. The network consists of set of nodes. It prints different information contained
      *  in the node such as neighbors, routing table, data.
@@ -196,7 +353,7 @@ public class ChordProtocolSimulator {
         }
         System.out.println("........printing ring..............");
 
-        if (head == null || head.getNeighbors().isEmpty()) {
+        if (head == null || head.getSuccessor() == null) {
             return;
         }
 
@@ -205,7 +362,7 @@ public class ChordProtocolSimulator {
         while (true) {
             System.out.print(" --- " + next.getName());
             next = next.getSuccessor();
-            if (next.getName().equals(head.getName())) {
+            if (next == head) {
                 System.out.print(" --- " + next.getName() + "\n");
                 break;
             }
@@ -216,70 +373,205 @@ public class ChordProtocolSimulator {
     /**
      * This method tests the functioning of the lookup. This is a simple evaluation. For each key index it calls the
      * lookup from the chord protocol and returns the node index. It then compares the node index with the correct node
-     * index (check response) is used for the comparison.
+     * index (check response) is used for the comparison. Each result is written as soon as it is produced.
+     *
+     * @param writer output the results are written to
      */
-    public List<String> testLookUp() {
-        HashMap<String, LookUpResponse> lookUps = new HashMap<>();
-        List<String> output = new ArrayList<>();
-        int totalHops = 0;
+    public void testLookUp(LookUpWriter writer) throws IOException {
+        long totalHops = 0;
         int lookupCount = 0;
 
-        Map<String, Integer> entries = keyIndexes;
-        for (Map.Entry<String, Integer> entry: entries.entrySet()) {
+        for (Map.Entry<String, Long> entry: keyIndexes.entrySet()) {
             // lookup the key index
+            if (verbosity >= TRACE) System.out.println("Looking up EntrySet value " + entry.getValue());
             LookUpResponse response = protocol.lookUp(entry.getValue());
 
             if (response == null) {
-                System.out.println("Key " + entry.getKey() + " not found");
-                return new ArrayList<>();
+                if (verbosity >= SUMMARY) System.out.println("Key " + entry.getKey() + " not found");
+                break;
             }
 
-            System.out.println(response.toString());
             // check whether the returned node index is correct or not
-            if (checkResponse(entry.getValue(), response.node_name)) {
-                System.out.println("lookup successful for " + entry.getKey() + " with value " + entry.getValue());
-                lookUps.put(entry.getKey(), response);
-            } else {
-                System.out.println("lookup failed for " + entry.getKey() + " with value " + entry.getValue());
+            boolean correct = verbosity >= TRACE
+                    ? checkResponse(entry.getValue(), response.node_name)
+                    : storesKey(entry.getValue(), response.node_name);
+            if (!correct) {
+                if (verbosity >= SUMMARY) {
+                    System.out.println("lookup failed for " + entry.getKey() + " with value " + entry.getValue());
+                }
                 break;
             }
-        }
 
-        // Look up all the key, print out as required in the Assignment Description
-        System.out.println("........printing lookups ..............");
-        for (HashMap.Entry<String, LookUpResponse> entry: lookUps.entrySet()) {
-            int hopCount = entry.getValue().peers_looked_up.size();
-            totalHops += hopCount;
+            // print and write the lookup as required in the Assignment Description
+            if (verbosity >= RESULTS) System.out.println(LookUpWriter.format(entry.getKey(), entry.getValue(), response));
+            writer.write(entry.getKey(), entry.getValue(), response);
+            totalHops += response.peers_looked_up.size();
             lookupCount++;
-
-            System.out.print(entry.getKey() + ": " + entries.get(entry.getKey()));
-            System.out.print("\t" + entry.getValue().node_name + ": " + entry.getValue().node_index);
-            System.out.print("\thop count: " + entry.getValue().peers_looked_up.size());
-            System.out.print("\troute: " + entry.getValue().peers_looked_up.toString());
-            System.out.println();
-
-            String outputLine = entry.getKey() + ": " + entries.get(entry.getKey()) +
-                    "\t" + entry.getValue().node_name + ": " + entry.getValue().node_index +
-                    "\thop count: " + hopCount +
-                    "\troute: " + entry.getValue().peers_looked_up.toString();
-            output.add(outputLine);
         }
+
         // calculate average form hopCounts
         double average = lookupCount == 0 ? 0 : (double) totalHops / lookupCount;
-        System.out.println("\naverage hop count: " + average);
-        output.add("\naverage hop count: " + average);
-
         int nodeCount = network.getTopology().size();
         double estimatedAverageHopCount = 0.5 * Math.log(nodeCount) / Math.log(2);
-        System.out.println("estimated average hop count: " + estimatedAverageHopCount);
-        output.add("estimated average hop count: " + estimatedAverageHopCount);
+        writeSummary(writer, "\naverage hop count: " + average);
+        writeSummary(writer, "estimated average hop count: " + estimatedAverageHopCount);
 
         // configurations should be
         // 10: 1.66
         // 100: 3.3
         // 1000: 5
+    }
+
+    // writes a summary line and prints it unless the output is quiet
+    private void writeSummary(LookUpWriter writer, String line) throws IOException {
+        if (verbosity >= SUMMARY) System.out.println(line);
+        writer.writeLine(line);
+    }
+
+    /**
+     * This method is the batch version of testLookUp(). Lookups only read the finger tables, so the keys are split in
+     * contiguous parts and every part is looked up by its own worker thread. Each worker keeps its own statistics,
+     * which are merged when all the workers are done. The output is ordered by key name (key 2 before key 10), so it
+     * does not depend on the number of threads. Lookups that fail are reported in the output instead of stopping the
+     * test.
+     *
+     * @param threads number of worker threads
+     * @param writer  output the results are written to, in the same format as testLookUp()
+     */
+    public void testLookUp(int threads, LookUpWriter writer) throws IOException {
+        String[] names = keyIndexes.keySet().toArray(new String[0]);
+        Arrays.sort(names, Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder()));
+        long[] indexes = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            indexes[i] = keyIndexes.get(names[i]);
+        }
+
+        LookUpResponse[] responses = new LookUpResponse[names.length];
+        LookUpStatistics[] statistics = new LookUpStatistics[threads];
+        int partSize = (names.length + threads - 1) / threads;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> parts = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                LookUpStatistics local = new LookUpStatistics();
+                statistics[t] = local;
+                int from = t * partSize;
+                int to = Math.min(names.length, from + partSize);
+                parts.add(executor.submit(() -> {
+                    for (int i = from; i < to; i++) {
+                        LookUpResponse response = protocol.lookUp(indexes[i]);
+                        if (response != null && storesKey(indexes[i], response.node_name)) {
+                            responses[i] = response;
+                            local.record(response.peers_looked_up.size());
+                        } else {
+                            local.recordFailure();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> part : parts) {
+                part.get();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("batch lookup failed", e);
+        } finally {
+            executor.shutdown();
+        }
+
+        LookUpStatistics total = new LookUpStatistics();
+        for (LookUpStatistics local : statistics) {
+            total.merge(local);
+        }
 
-        return output;
+        for (int i = 0; i < names.length; i++) {
+            LookUpResponse response = responses[i];
+            if (response == null) {
+                if (verbosity >= RESULTS) System.out.println(names[i] + ": " + indexes[i] + "\tlookup failed");
+                writer.writeFailure(names[i], indexes[i]);
+                continue;
+            }
+            if (verbosity >= RESULTS) System.out.println(LookUpWriter.format(names[i], indexes[i], response));
+            writer.write(names[i], indexes[i], response);
+        }
+        writeSummary(writer, "\naverage hop count: " + total.getAverageHops());
+        writeSummary(writer, "estimated average hop count: " + 0.5 * Math.log(network.getTopology().size()) / Math.log(2));
+        writeSummary(writer, "max hop count: " + total.maxHops);
+        writeSummary(writer, "failed lookups: " + total.failures);
+    }
+
+    /**
+     * This method is the batched version of testLookUp(). The keys are ordered by key name like in the parallel test
+     * and looked up from Node 1 in batches of the given size with ChordProtocol.lookUpAll(), which forwards the keys
+     * of a batch that take the same finger together. The results are the same as the ones of single lookups; the
+     * summary also shows how often the finger tables have been searched compared with the hops of the lookups, which
+     * is the number of searches single lookups need.
+     *
+     * @param chordProtocol the protocol the keys are looked up with
+     * @param batchSize     number of keys per batch
+     * @param writer        output the results are written to, in the same format as testLookUp()
+     */
+    public void testLookUp(ChordProtocol chordProtocol, int batchSize, LookUpWriter writer) throws IOException {
+        String[] names = keyIndexes.keySet().toArray(new String[0]);
+        Arrays.sort(names, Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder()));
+
+        // the finger table searches are counted by the metrics, which are collected for this test if they are not set
+        LookUpMetrics previous = chordProtocol.metrics;
+        LookUpMetrics metrics = previous != null ? previous : new LookUpMetrics(m);
+        long readsBefore = metrics.getFingerTableReads();
+        chordProtocol.setMetrics(metrics);
+
+        LookUpStatistics total = new LookUpStatistics();
+        try {
+            for (int from = 0; from < names.length; from += batchSize) {
+                int to = Math.min(names.length, from + batchSize);
+                long[] indexes = new long[to - from];
+                for (int i = from; i < to; i++) {
+                    indexes[i - from] = keyIndexes.get(names[i]);
+                }
+                LookUpResponse[] responses = chordProtocol.lookUpAll(indexes);
+                for (int i = from; i < to; i++) {
+                    LookUpResponse response = responses[i - from];
+                    if (response == null || !storesKey(indexes[i - from], response.node_name)) {
+                        total.recordFailure();
+                        if (verbosity >= RESULTS) System.out.println(names[i] + ": " + indexes[i - from] + "\tlookup failed");
+                        writer.writeFailure(names[i], indexes[i - from]);
+                        continue;
+                    }
+                    total.record(response.peers_looked_up.size());
+                    if (verbosity >= RESULTS) System.out.println(LookUpWriter.format(names[i], indexes[i - from], response));
+                    writer.write(names[i], indexes[i - from], response);
+                }
+            }
+        } finally {
+            chordProtocol.setMetrics(previous);
+        }
+
+        writeSummary(writer, "\naverage hop count: " + total.getAverageHops());
+        writeSummary(writer, "estimated average hop count: " + 0.5 * Math.log(network.getTopology().size()) / Math.log(2));
+        writeSummary(writer, "max hop count: " + total.maxHops);
+        writeSummary(writer, "failed lookups: " + total.failures);
+        writeSummary(writer, "finger table searches: " + (metrics.getFingerTableReads() - readsBefore) +
+                " in batches of " + batchSize + "\thops: " + total.totalHops);
+    }
+
+    /**
+     * This method checks whether the node stores the key index, without printing anything. It is used by the batch
+     * lookup, where the workers run concurrently.
+     *
+     * @param keyIndex index of the key
+     * @param peerName name of the node
+     * @return true if the node stores the key index otherwise return false
+     */
+    public boolean storesKey(long keyIndex, String peerName) {
+        NodeInterface node = this.network.getNode(peerName);
+        if (node == null) {
+            return false;
+        }
+        Object dataItems = node.getData();
+        if (dataItems instanceof KeyStore) {
+            return ((KeyStore) dataItems).contains(keyIndex);
+        }
+        return ((Collection<?>) dataItems).contains(keyIndex);
     }
 
     /**
@@ -289,23 +581,514 @@ public class ChordProtocolSimulator {
      * @param peerName name of the node
      * @return true if the node stores the key index otherwise return false
      */
-    public boolean checkResponse(int keyIndex, String peerName) {
+    public boolean checkResponse(long keyIndex, String peerName) {
         NodeInterface node = this.network.getTopology().get(peerName);
         if (node == null) {
             System.err.println("Node " + peerName + " not found");
             return false;
         }
 
-        LinkedHashSet<Integer> dataItems = (LinkedHashSet<Integer>) this.network.getNode(peerName).getData(); // unchecked cast
-        System.out.println(peerName + " contains data items: " + dataItems + ", keyIndex is " + keyIndex + ", nodeId is " + node.getId());
-        for (Integer data : dataItems) {
-            if (data == keyIndex) {
+        Collection<?> dataItems = (Collection<?>) this.network.getNode(peerName).getData();
+        System.out.println(peerName + " contains data items: " + dataItems + ", keyIndex is " + keyIndex + ", nodeId is " + node.getLongId());
+        if (dataItems instanceof KeyStore) {
+            return ((KeyStore) dataItems).contains(keyIndex);
+        }
+        for (Object data : dataItems) {
+            if (((Number) data).longValue() == keyIndex) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * This method creates a workload over the keys of the simulation.
+     *
+     * @param distribution distribution of the keys: "uniform", "zipf:<s>" or "hotspot:<key fraction>:<request fraction>"
+     * @param requestCount number of requests
+     * @param origin       "random" for a random origin per request, otherwise the name of the node all requests start from
+     * @param seed         seed of the random generator
+     * @return the workload
+     */
+    public Workload createWorkload(String distribution, long requestCount, String origin, long seed) {
+        String[] names = keyIndexes.keySet().toArray(new String[0]);
+        long[] indexes = new long[names.length];
+        int i = 0;
+        for (long keyIndex : keyIndexes.values()) {
+            indexes[i++] = keyIndex;
+        }
+        Workload workload = new Workload(names, indexes, requestCount, seed);
+        workload.setDistribution(distribution);
+        if (origin.equals("random")) {
+            workload.setOrigins(getRingIndex().getNodes());
+        } else {
+            NodeInterface node = network.getNode(origin);
+            if (node == null) {
+                throw new IllegalArgumentException("origin node not found: " + origin);
+            }
+            workload.setOrigin(node);
+        }
+        return workload;
+    }
+
+    /**
+     * This method looks up the requests of a workload one at a time and streams each result to the writer, so the
+     * memory does not depend on the number of requests. Each response is checked against the node that stores the key.
+     *
+     * @param workload the requests
+     * @param writer   output the results are written to
+     */
+    public void runWorkload(Workload workload, LookUpWriter writer) throws IOException {
+        LookUpStatistics statistics = new LookUpStatistics();
+        // the chord protocol writes every route into the same result, the names are only read by the writer
+        LookUpRoute route = protocol instanceof ChordProtocol ? new LookUpRoute(m + 1) : null;
+        while (workload.hasNext()) {
+            Workload.Request request = workload.next();
+            LookUpResponse response = null;
+            boolean found;
+            if (route != null) {
+                found = ((ChordProtocol) protocol).lookUp(request.origin, request.keyIndex, route)
+                        && storesKey(request.keyIndex, route.getOwnerName());
+            } else {
+                response = protocol.lookUp(request.origin, request.keyIndex);
+                found = response != null && storesKey(request.keyIndex, response.node_name);
+            }
+            if (!found) {
+                statistics.recordFailure();
+                if (verbosity >= RESULTS) System.out.println(request.keyName + ": " + request.keyIndex + "\tlookup failed");
+                writer.writeFailure(request.keyName, request.keyIndex);
+                continue;
+            }
+            if (route != null) {
+                statistics.record(route.getHopCount());
+                if (verbosity >= RESULTS) {
+                    System.out.println(LookUpWriter.format(request.keyName, request.keyIndex, route.toResponse()));
+                }
+                writer.write(request.keyName, route);
+            } else {
+                statistics.record(response.peers_looked_up.size());
+                if (verbosity >= RESULTS) System.out.println(LookUpWriter.format(request.keyName, request.keyIndex, response));
+                writer.write(request.keyName, request.keyIndex, response);
+            }
+        }
+        writeSummary(writer, "\nrequests: " + (statistics.lookups + statistics.failures) +
+                "\tdistribution: " + workload.getDistribution().name().toLowerCase());
+        writeSummary(writer, "average hop count: " + statistics.getAverageHops());
+        writeSummary(writer, "max hop count: " + statistics.maxHops);
+        writeSummary(writer, "failed lookups: " + statistics.failures);
+    }
+
+    /**
+     * This method looks up every key as a message exchange between the nodes on the discrete event scheduler. Each
+     * lookup starts at a random node, and the lookups start one after the other with the given interval of virtual
+     * time. No wall clock time is spent on the latencies, so large rings can be simulated on one machine.
+     *
+     * @param latencyModel   latency of the links between the nodes
+     * @param processingTime time in milliseconds a node spends handling a message
+     * @param interval       virtual time in milliseconds between the starts of two lookups
+     * @param seed           seed of the random origins and latencies
+     * @return output lines with the latency percentiles and the message rate
+     */
+    public List<String> simulateLookUps(LatencyModel latencyModel, double processingTime, double interval, long seed) {
+        LookUpSimulation simulation = new LookUpSimulation((ChordProtocol) protocol, latencyModel, seed);
+        simulation.getScheduler().setProcessingTime(processingTime);
+        RingIndex ring = getRingIndex();
+        Random random = new Random(seed);
+        double time = 0;
+        for (long keyIndex : keyIndexes.values()) {
+            simulation.lookUp(ring.getNode(random.nextInt(ring.size())), keyIndex, time);
+            time += interval;
+        }
+        simulation.run();
+        return simulation.report();
+    }
+
+    /**
+     * This method runs the nodes as peers on localhost sockets (see LoopbackLookUps) and looks up every key over
+     * them, from random local peers with a window of lookups in flight. Then single GET_FINGER calls measure the
+     * latency of one remote call. The peers can be spread over several processes that are started with the same
+     * arguments: "loopback:<port>:<first>:<last>" hosts the ring ordinals first to last on port + ordinal, and each
+     * process keeps serving the other processes for the given time after its own lookups.
+     *
+     * @param transport    "loopback" for all peers in this process, or "loopback:<port>:<first>:<last>"
+     * @param window       number of lookups in flight
+     * @param serveSeconds time the peers keep running after the lookups
+     * @param seed         seed of the random origins
+     * @return output lines with the lookup rate and the call latencies
+     */
+    public List<String> loopbackLookUps(String transport, int window, long serveSeconds, long seed) throws IOException {
+        ChordProtocol chordProtocol = (ChordProtocol) protocol;
+        long[] keys = getKeyIndexArray();
+        try (LoopbackLookUps peers = openLoopbackPeers(transport)) {
+            LoopbackBenchmark benchmark = new LoopbackBenchmark(peers, chordProtocol, seed);
+            peers.start(LOOPBACK_TIMEOUT_MILLIS);
+            List<String> lines = new ArrayList<>();
+            if (!benchmark.runLookUps(keys, window, LOOPBACK_TIMEOUT_MILLIS)) {
+                lines.add("\nloopback lookups did not complete in " + LOOPBACK_TIMEOUT_MILLIS + " ms");
+            }
+            if (!benchmark.runCalls(LOOPBACK_CALLS, LOOPBACK_TIMEOUT_MILLIS)) {
+                lines.add("\nloopback calls did not complete in " + LOOPBACK_TIMEOUT_MILLIS + " ms");
+            }
+            lines.addAll(benchmark.report());
+            Thread.sleep(serveSeconds * 1000);
+            return lines;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while running the loopback peers", e);
+        }
+    }
+
+    // opens the loopback peers of a --transport option, see loopbackLookUps()
+    private LoopbackLookUps openLoopbackPeers(String transport) throws IOException {
+        String[] parts = transport.split(":");
+        if (!parts[0].equals("loopback") || (parts.length != 1 && parts.length != 4)) {
+            throw new IllegalArgumentException("unknown transport: " + transport);
+        }
+        int peerCount = getRingIndex().size();
+        int basePort = parts.length == 1 ? 0 : Integer.parseInt(parts[1]);
+        int first = parts.length == 1 ? 0 : Integer.parseInt(parts[2]);
+        int last = parts.length == 1 ? peerCount - 1 : Math.min(peerCount - 1, Integer.parseInt(parts[3]));
+        return new LoopbackLookUps((ChordProtocol) protocol, basePort, first, last - first + 1);
+    }
+
+    // indexes of all keys, in the order of the key names
+    private long[] getKeyIndexArray() {
+        long[] keys = new long[keyIndexes.size()];
+        int k = 0;
+        for (long keyIndex : keyIndexes.values()) {
+            keys[k++] = keyIndex;
+        }
+        return keys;
+    }
+
+    /**
+     * This method looks up every key with lookUpAsync() from a random node, without waiting for the single lookups:
+     * the caller is only held back when the window of lookups in flight is full. Without a transport the lookups run
+     * on the common fork join pool; with a --transport option (see loopbackLookUps()) they are forwarded between the
+     * loopback peers and start at the peers of this process.
+     *
+     * @param transport    null, "loopback" or "loopback:<port>:<first>:<last>"
+     * @param window       number of lookups in flight
+     * @param timeoutMillis time after which a lookup fails
+     * @param serveSeconds time the loopback peers keep running after the lookups
+     * @param seed         seed of the random origins
+     * @return output lines with the lookup rate, the failures and the timeouts
+     */
+    public List<String> asyncLookUps(String transport, int window, long timeoutMillis, long serveSeconds, long seed)
+            throws IOException {
+        ChordProtocol chordProtocol = (ChordProtocol) protocol;
+        RingIndex ring = getRingIndex();
+        long[] keys = getKeyIndexArray();
+        Random random = new Random(seed);
+        LoopbackLookUps peers = transport == null ? null : openLoopbackPeers(transport);
+        try {
+            int first = 0;
+            int count = ring.size();
+            if (peers != null) {
+                peers.start(LOOPBACK_TIMEOUT_MILLIS);
+                first = peers.getTransport().getFirstLocal();
+                count = peers.getTransport().getLocalCount();
+            }
+            AsyncLookUps pipeline = new AsyncLookUps(peers != null ? peers
+                    : chordProtocol.lookUpService(ForkJoinPool.commonPool()), window, timeoutMillis);
+            chordProtocol.setAsyncLookUps(pipeline);
+            long start = System.nanoTime();
+            for (long keyIndex : keys) {
+                chordProtocol.lookUpAsync(ring.getNode(first + random.nextInt(count)), keyIndex);
+            }
+            List<String> lines = new ArrayList<>();
+            // every lookup completes by its own timeout, this only guards against a service that hangs
+            if (!pipeline.awaitCompletion(timeoutMillis + LOOPBACK_TIMEOUT_MILLIS)) {
+                lines.add("\nasync lookups did not complete in " + (timeoutMillis + LOOPBACK_TIMEOUT_MILLIS) + " ms");
+            }
+            lines.addAll(pipeline.report(System.nanoTime() - start));
+            if (peers != null) {
+                Thread.sleep(serveSeconds * 1000);
+            }
+            return lines;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while running the async lookups", e);
+        } finally {
+            chordProtocol.setAsyncLookUps(null);
+            if (peers != null) {
+                peers.close();
+            }
+        }
+    }
+
+    /**
+     * This method compares the actor runtime (see ChordActors) with the sequential traversal of lookUp().
+     *     1) every key is looked up from a random node with lookUp(), one after the other on this thread
+     *     2) the same lookups are sent to the actors through an AsyncLookUps pipeline with the given window, so every
+     *        node forwards the lookups on its own thread while the others are in flight
+     *     3) the given number of new nodes join through random nodes of the ring, all at the same time, and a
+     *        stabilization round runs. then the new nodes leave again and a second round runs
+     * The report has the lookups per second of both, the queueing in the mailboxes and the time of the joins, the
+     * leaves and the stabilization rounds.
+     *
+     * @param window        number of lookups in flight
+     * @param timeoutMillis time after which a lookup fails
+     * @param threads       number of platform threads if the JVM has no virtual threads
+     * @param churn         number of nodes that join and leave
+     * @param seed          seed of the random origins
+     * @return output lines with the results
+     */
+    public List<String> actorLookUps(int window, long timeoutMillis, int threads, int churn, long seed)
+            throws IOException {
+        ChordProtocol chordProtocol = (ChordProtocol) protocol;
+        RingIndex ring = getRingIndex();
+        long[] keys = getKeyIndexArray();
+        Random random = new Random(seed);
+        NodeInterface[] origins = new NodeInterface[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            origins[i] = ring.getNode(random.nextInt(ring.size()));
+        }
+
+        long start = System.nanoTime();
+        LookUpStatistics sequential = new LookUpStatistics();
+        for (int i = 0; i < keys.length; i++) {
+            LookUpResponse response = chordProtocol.lookUp(origins[i], keys[i]);
+            if (response == null) {
+                sequential.recordFailure();
+            } else {
+                sequential.record(response.peers_looked_up.size());
+            }
+        }
+        long sequentialTime = System.nanoTime() - start;
+
+        List<String> lines = new ArrayList<>();
+        try (ChordActors actors = new ChordActors(chordProtocol, true, threads)) {
+            ActorRuntime runtime = actors.getRuntime();
+            AsyncLookUps pipeline = new AsyncLookUps(actors, window, timeoutMillis);
+            start = System.nanoTime();
+            for (int i = 0; i < keys.length; i++) {
+                pipeline.lookUp(origins[i], keys[i]);
+            }
+            if (!pipeline.awaitCompletion(timeoutMillis + LOOPBACK_TIMEOUT_MILLIS)) {
+                lines.add("\nactor lookups did not complete in " + (timeoutMillis + LOOPBACK_TIMEOUT_MILLIS) + " ms");
+            }
+            long actorTime = System.nanoTime() - start;
+
+            lines.add("\nactors: " + runtime.getActorCount() + "\tthreads: " +
+                    (runtime.usesVirtualThreads() ? "virtual" : "pool of " + threads));
+            lines.addAll(pipeline.report("actor", actorTime));
+            lines.add(String.format("sequential lookups: %d\tfailed: %d\taverage hop count: %s\t" +
+                    "lookups per second: %.0f", sequential.lookups, sequential.failures, sequential.getAverageHops(),
+                    sequentialTime == 0 ? 0 : keys.length * 1e9 / sequentialTime));
+            lines.add(String.format("actor messages: %d\tmax mailbox: %d\tqueueing delay (ms): mean %.3f\tmax %.3f",
+                    runtime.getMessagesHandled(), runtime.getMaxMailbox(), runtime.getAverageQueueingDelay(),
+                    runtime.getMaxQueueingDelay()));
+
+            if (churn > 0 && chordProtocol.virtualNodes == 1) {
+                NodeInterface[] joining = new NodeInterface[churn];
+                List<CompletableFuture<Integer>> joins = new ArrayList<>();
+                start = System.nanoTime();
+                for (int i = 0; i < churn; i++) {
+                    joining[i] = new Node("Node " + (ring.size() + 1 + i));
+                    joins.add(actors.join(ring.getNode(random.nextInt(ring.size())), joining[i]));
+                }
+                CompletableFuture.allOf(joins.toArray(new CompletableFuture<?>[0])).join();
+                long joinTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                actors.stabilize().join();
+                long stabilizeTime = System.nanoTime() - start;
+
+                List<CompletableFuture<Integer>> leaves = new ArrayList<>();
+                start = System.nanoTime();
+                for (NodeInterface node : joining) {
+                    leaves.add(actors.leave(node));
+                }
+                CompletableFuture.allOf(leaves.toArray(new CompletableFuture<?>[0])).join();
+                long leaveTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                actors.stabilize().join();
+                stabilizeTime += System.nanoTime() - start;
+                lines.add(String.format("actor joins: %d in %.3f ms\tleaves in %.3f ms\tstabilization rounds in " +
+                        "%.3f ms\tsuccessors changed: %d\tpredecessors changed: %d", churn, joinTime / 1e6,
+                        leaveTime / 1e6, stabilizeTime / 1e6, actors.getSuccessorsChanged(),
+                        actors.getPredecessorsChanged()));
+            }
+            return lines;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while running the actors", e);
+        }
+    }
+
+    /**
+     * This method measures how the lookups cope with failed nodes.
+     *     1) a fraction of the nodes is chosen to fail, and every key gets an origin among the other nodes
+     *     2) every key is looked up from its origin before the failure, after it with plain lookups (which fail at the
+     *        first failed node on their route) and after it with lookups that route around failed nodes
+     *     3) for each run the success rate and the average hop count are reported. with a latency model the lookups
+     *        are also simulated as messages, and the latency percentiles are reported
+     * A lookup succeeds when it ends at a node that has not failed and stores the key or a replica of it. The failed
+     * nodes are recovered at the end, and the metrics are not collected for these lookups.
+     *
+     * @param fraction     fraction of the nodes that fail
+     * @param latencyModel latency of the links, or null to only count the hops
+     * @param seed         seed of the failures and the origins
+     * @return output lines with the results
+     */
+    public List<String> failureReport(double fraction, LatencyModel latencyModel, long seed) {
+        ChordProtocol chordProtocol = (ChordProtocol) protocol;
+        LookUpMetrics metrics = chordProtocol.metrics;
+        boolean routeAroundFailures = chordProtocol.routeAroundFailures;
+        chordProtocol.setMetrics(null);
+
+        FailureInjector injector = new FailureInjector(seed);
+        Collection<NodeInterface> nodes = network.getTopology().values();
+        List<NodeInterface> failing = injector.choose(nodes, fraction);
+        Set<NodeInterface> failingSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        failingSet.addAll(failing);
+        List<NodeInterface> survivors = new ArrayList<>();
+        for (NodeInterface node : nodes) {
+            if (!failingSet.contains(node)) survivors.add(node);
+        }
+
+        long[] keys = new long[keyIndexes.size()];
+        NodeInterface[] origins = new NodeInterface[keys.length];
+        Random random = new Random(seed);
+        int k = 0;
+        for (long keyIndex : keyIndexes.values()) {
+            keys[k] = keyIndex;
+            origins[k++] = survivors.isEmpty() ? null : survivors.get(random.nextInt(survivors.size()));
+        }
+
+        List<String> lines = new ArrayList<>();
+        lines.add("\nfailed nodes: " + failing.size() + " of " + nodes.size() + "\treplicas per key: " +
+                chordProtocol.replicas);
+        try {
+            chordProtocol.setRouteAroundFailures(false);
+            LookUpStatistics before = failureRun(keys, origins, null);
+            LookUpSimulation beforeSimulation = failureSimulation(keys, origins, latencyModel, seed);
+            injector.fail(failing);
+            LookUpStatistics plain = failureRun(keys, origins, null);
+            chordProtocol.setRouteAroundFailures(true);
+            boolean[] lost = new boolean[keys.length];
+            LookUpStatistics routed = failureRun(keys, origins, lost);
+            LookUpSimulation routedSimulation = failureSimulation(keys, origins, latencyModel, seed);
+            // without failed nodes there is nothing to route around, so the lookups must take the same routes
+            if (failing.isEmpty() && (routed.lookups != plain.lookups || routed.failures != plain.failures
+                    || routed.totalHops != plain.totalHops)) {
+                throw new IllegalStateException("lookups that route around failures differ without failed nodes: " +
+                        routed.totalHops + " hops instead of " + plain.totalHops);
+            }
+            // a lookup that routes around failures must find every key that a successor list can still reach
+            if (chordProtocol.replicas > 0) {
+                int missed = 0;
+                for (int i = 0; i < keys.length; i++) {
+                    if (lost[i] && isReachable(chordProtocol, origins[i], keys[i])) missed++;
+                }
+                if (missed > 0) {
+                    throw new IllegalStateException(missed + " lookups that route around failures have not found " +
+                            "a live replica of their key");
+                }
+            }
+
+            lines.add(failureLine("before the failure", before, before));
+            lines.add(failureLine("plain lookups", plain, before));
+            lines.add(failureLine("routed around failures", routed, before));
+            if (latencyModel != null) {
+                lines.add(String.format("lookup latency (ms) before the failure: p50 %.3f\tp99 %.3f" +
+                                "\trouted around failures: p50 %.3f\tp99 %.3f",
+                        beforeSimulation.getLatencyPercentile(50), beforeSimulation.getLatencyPercentile(99),
+                        routedSimulation.getLatencyPercentile(50), routedSimulation.getLatencyPercentile(99)));
+            }
+        } finally {
+            injector.recover();
+            chordProtocol.setRouteAroundFailures(routeAroundFailures);
+            chordProtocol.setMetrics(metrics);
+        }
+        return lines;
+    }
+
+    // looks up every key from its origin and counts the lookups that end at a node holding the key. lost, if not null,
+    // marks the lookups that have failed
+    private LookUpStatistics failureRun(long[] keys, NodeInterface[] origins, boolean[] lost) {
+        LookUpStatistics statistics = new LookUpStatistics();
+        for (int i = 0; i < keys.length; i++) {
+            LookUpResponse response = origins[i] == null ? null : protocol.lookUp(origins[i], keys[i]);
+            if (response != null && holdsKey(keys[i], response.node_name)) {
+                statistics.record(response.peers_looked_up.size());
+            } else {
+                statistics.recordFailure();
+                if (lost != null) lost[i] = true;
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * This method decides whether a lookup that routes around failures has to find the key from the origin. It is the
+     * case when the owner or one of its r successors is alive, and fewer than r + 1 nodes in a row have failed on the
+     * way from the origin to it: the successor lists are r + 1 long, so every detour then still reaches a live node
+     * that is the owner or holds a replica.
+     *
+     * @param chordProtocol protocol with the ring
+     * @param origin        node the lookup starts from
+     * @param keyIndex      index of the key
+     * @return true if the lookup must succeed
+     */
+    private static boolean isReachable(ChordProtocol chordProtocol, NodeInterface origin, long keyIndex) {
+        RingIndex ring = chordProtocol.ringIndex;
+        int size = ring.size();
+        int start = origin == null ? -1 : ring.ordinalOf(origin);
+        if (start < 0 || size <= chordProtocol.replicas + 1) {
+            return false;
+        }
+        // nodes with the same id as the owner come before it in the ring
+        int owner = ring.successorOrdinal(keyIndex);
+        for (int i = 0; i < size && !chordProtocol.isResponsible(ring.getNode(owner), keyIndex); i++) {
+            owner = (owner + 1) % size;
+        }
+        int toOwner = Math.floorMod(owner - start, size);
+        if (toOwner == 0) {
+            return true;
+        }
+        int failedInARow = 0;
+        for (int d = 1; d <= toOwner + chordProtocol.replicas; d++) {
+            if (ring.getNode((start + d) % size).isAlive()) {
+                if (d >= toOwner) return true;
+                failedInARow = 0;
+            } else if (++failedInARow > chordProtocol.replicas) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // simulates the lookups of a failure run as messages, or returns null without a latency model
+    private LookUpSimulation failureSimulation(long[] keys, NodeInterface[] origins, LatencyModel latencyModel,
+                                               long seed) {
+        if (latencyModel == null) return null;
+        LookUpSimulation simulation = new LookUpSimulation((ChordProtocol) protocol, latencyModel, seed);
+        for (int i = 0; i < keys.length; i++) {
+            if (origins[i] != null) simulation.lookUp(origins[i], keys[i], 0);
+        }
+        simulation.run();
+        return simulation;
+    }
+
+    // success rate and average hop count of a failure run, with the hop penalty compared to the run before
+    private static String failureLine(String name, LookUpStatistics statistics, LookUpStatistics before) {
+        long total = statistics.lookups + statistics.failures;
+        return String.format("%s: success rate %.4f\taverage hop count %.3f\thop penalty %+.3f", name,
+                total == 0 ? 0 : (double) statistics.lookups / total, statistics.getAverageHops(),
+                statistics.getAverageHops() - before.getAverageHops());
+    }
+
+    // true if the node has not failed and stores the key, either as its owner or as a replica
+    private boolean holdsKey(long keyIndex, String peerName) {
+        NodeInterface node = network.getNode(peerName);
+        if (node == null || !node.isAlive()) {
+            return false;
+        }
+        return storesKey(keyIndex, peerName)
+                || (node.getReplicas() instanceof KeyStore && ((KeyStore) node.getReplicas()).contains(keyIndex));
+    }
+
     /**
      * This method builds the chord protocol.
     1) sets the network
@@ -315,10 +1098,164 @@ public class ChordProtocolSimulator {
 
     public void buildProtocol() {
         protocol.setNetwork(network);
+        long startTime = System.nanoTime();
         assignKeys();
+        if (protocol instanceof ChordProtocol && ((ChordProtocol) protocol).metrics != null) {
+            ((ChordProtocol) protocol).metrics.recordPhase("assignKeys", System.nanoTime() - startTime);
+        }
         protocol.setKeys(keyIndexes);
         protocol.buildOverlayNetwork();
         protocol.buildFingerTable();
+        if (protocol instanceof ChordProtocol && ((ChordProtocol) protocol).replicas > 0) {
+            ((ChordProtocol) protocol).replicateKeys();
+        }
+    }
+
+    /**
+     * This method builds the chord protocol from a snapshot file (see protocol.OverlaySnapshot).
+     *     1) if the file exists and holds a ring of the same nodes, m, hash function and number of keys, the ring,
+     *        the finger tables and the key placement are restored from it
+     *     2) otherwise the protocol is built with buildProtocol() and the snapshot is written to the file, so the
+     *        next run with the same configuration starts from it
+     *
+     * @param snapshotFile the snapshot file
+     * @return true if the protocol was restored from the snapshot, false if it was built
+     */
+    public boolean buildProtocol(Path snapshotFile) throws IOException {
+        ChordProtocol chordProtocol = (ChordProtocol) protocol;
+        if (Files.exists(snapshotFile)) {
+            long startTime = System.nanoTime();
+            OverlaySnapshot snapshot = OverlaySnapshot.read(snapshotFile);
+            String mismatch = checkSnapshot(snapshot);
+            if (mismatch == null) {
+                restoreProtocol(snapshot);
+                if (chordProtocol.metrics != null) {
+                    chordProtocol.metrics.recordPhase("restoreProtocol", System.nanoTime() - startTime);
+                }
+                return true;
+            }
+            if (verbosity >= SUMMARY) {
+                System.out.println("\tThe snapshot " + snapshotFile + " is not used: " + mismatch);
+            }
+        }
+        buildProtocol();
+        OverlaySnapshot.of(chordProtocol, keyIndexes).write(snapshotFile);
+        return false;
+    }
+
+    /**
+     * @return the reason the snapshot does not fit this simulation, or null if it can be restored
+     */
+    private String checkSnapshot(OverlaySnapshot snapshot) {
+        if (snapshot.m != m) {
+            return "it was built for m = " + snapshot.m;
+        }
+        if (snapshot.hashAlgorithm != consistentHash.algorithm) {
+            return "it was built with " + snapshot.hashAlgorithm;
+        }
+        if (snapshot.keyNames.length != keyCount) {
+            return "it holds " + snapshot.keyNames.length + " keys";
+        }
+        if (snapshot.nodeNames.length != network.getSize()) {
+            return "it holds " + snapshot.nodeNames.length + " nodes";
+        }
+        for (String name : snapshot.nodeNames) {
+            if (network.getNode(name) == null) {
+                return name + " is not in the network";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method restores the keys and the ring of a snapshot. The keys are stored at their saved owners and the
+     * protocol restores the overlay network and the finger tables (see ChordProtocol.restoreOverlayNetwork()).
+     */
+    private void restoreProtocol(OverlaySnapshot snapshot) {
+        protocol.setNetwork(network);
+        NodeInterface[] ring = new NodeInterface[snapshot.nodeNames.length];
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = network.getNode(snapshot.nodeNames[i]);
+        }
+        // the simulator keeps its own index, the one of the protocol changes when nodes join or leave
+        ringIndex = new RingIndex(snapshot.nodeIds.clone(), ring.clone());
+
+        keyIndexes.clear();
+        for (int k = 0; k < snapshot.keyNames.length; k++) {
+            keyIndexes.put(snapshot.keyNames[k], snapshot.keyIndexes[k]);
+        }
+        loadKeys(snapshot.keyIndexes, snapshot.keyOwners);
+        protocol.setKeys(keyIndexes);
+        ((ChordProtocol) protocol).restoreOverlayNetwork(ring, snapshot.nodeIds, snapshot.fingers);
+        if (((ChordProtocol) protocol).replicas > 0) {
+            ((ChordProtocol) protocol).replicateKeys();
+        }
+    }
+
+    /**
+     * This method runs the simulation on a CompactNetwork instead of Node objects, for rings that are too large for
+     * the normal simulation. The keys "key 1" to "key keyCount" are hashed and stored, and every key is looked up from
+     * "Node 1" directly on the arrays of the ring (split over --threads=N workers). Only the summary is written to
+     * output/output_<nodes>_<m>[_<hash>]_compact.<ext>, together with the size of the ring in bytes per node.
+     *
+     * @param args          command line arguments
+     * @param nodeCount     number of nodes
+     * @param m             length of the identifiers
+     * @param keyCount      number of keys
+     * @param hashAlgorithm hash function used for the node and key indexes
+     */
+    public static void startCompact(String[] args, int nodeCount, int m, int keyCount, HashAlgorithm hashAlgorithm) {
+        int verbosity = Integer.parseInt(Simulator.getOption(args, "verbose", String.valueOf(RESULTS)));
+        int threads = Math.max(1, Integer.parseInt(Simulator.getOption(args, "threads", "1")));
+        OutputFormat format = OutputFormat.parse(Simulator.getOption(args, "format", "text"));
+        ConsistentHashing ch = new ConsistentHashing(m, hashAlgorithm);
+
+        long startTime = System.nanoTime();
+        CompactNetwork network = CompactNetwork.build(nodeCount, ch);
+        long[] keys = new long[keyCount];
+        IntStream.range(0, keyCount).parallel().forEach(i -> keys[i] = ch.hashLong("key " + (i + 1)));
+        network.assignKeys(keys);
+        double buildMillis = (System.nanoTime() - startTime) / 1e6;
+        if (verbosity >= TRACE) network.printTopology();
+
+        // every worker looks up a contiguous part of the keys with its own route buffer and statistics
+        int origin = network.ordinalOf("Node 1");
+        int partSize = (keyCount + threads - 1) / threads;
+        LookUpStatistics total = IntStream.range(0, threads).parallel().mapToObj(t -> {
+            LookUpStatistics local = new LookUpStatistics();
+            int[] route = new int[m + 2];
+            for (int i = t * partSize; i < Math.min(keyCount, (t + 1) * partSize); i++) {
+                int hops = network.lookUp(origin, keys[i], route);
+                if (hops >= 0 && network.storesKey(route[hops], keys[i])) {
+                    local.record(hops);
+                } else {
+                    local.recordFailure();
+                }
+            }
+            return local;
+        }).reduce(new LookUpStatistics(), (a, b) -> {
+            a.merge(b);
+            return a;
+        });
+
+        String suffix = hashAlgorithm != HashAlgorithm.MD5 ? "_" + hashAlgorithm.name().toLowerCase() : "";
+        Path outputFile = Paths.get(System.getProperty("user.dir"), "output",
+                "output_" + args[0] + "_" + args[1] + suffix + "_compact" + format.extension);
+        List<String> summary = new ArrayList<>();
+        summary.add("compact network: " + nodeCount + " nodes, " + keyCount + " keys, built in " + buildMillis + " ms");
+        summary.add("bytes per node: " + network.getBytesPerNode());
+        summary.add("\naverage hop count: " + total.getAverageHops());
+        summary.add("estimated average hop count: " + 0.5 * Math.log(nodeCount) / Math.log(2));
+        summary.add("max hop count: " + total.maxHops);
+        summary.add("failed lookups: " + total.failures);
+        try (LookUpWriter writer = new LookUpWriter(outputFile, format)) {
+            for (String line : summary) {
+                if (verbosity >= SUMMARY) System.out.println(line);
+                writer.writeLine(line);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -329,27 +1266,197 @@ public class ChordProtocolSimulator {
      *     3) tests the lookup operation (only if necessary)
      */
     public void start(String[] args) {
-        // builds the protocol
-        buildProtocol();
-        printRing();
-        printNetwork();
-
-        // tests the lookup operation
-        List<String> output = testLookUp();
-
-        // output
-        BufferedWriter bufferedWriter;
-        String outputFile = System.getProperty("user.dir") + "/output/output_" + args[0] + "_" + args[1] + ".txt";
-        try (FileWriter fileWriter = new FileWriter(outputFile, false)) {
-            // Opening the file in write mode without appending clears the file
-            bufferedWriter = new BufferedWriter(new FileWriter(outputFile, true));
-            for (String outputLine : output) {
-                bufferedWriter.write(outputLine);
-                bufferedWriter.newLine();
-                bufferedWriter.flush();
+        // --verbose=<0-3> sets how much is printed to the console, --format=<text|csv|binary> the output format
+        verbosity = Integer.parseInt(Simulator.getOption(args, "verbose", String.valueOf(verbosity)));
+        OutputFormat format = OutputFormat.parse(Simulator.getOption(args, "format", "text"));
+
+        // with --vnodes=<v> every node is placed at v positions of the ring, and the key load is reported
+        String virtualNodes = Simulator.getOption(args, "vnodes", null);
+        if (virtualNodes != null && protocol instanceof ChordProtocol) {
+            ((ChordProtocol) protocol).setVirtualNodes(Integer.parseInt(virtualNodes));
+        }
+
+        // with --cache=<n> every node caches the owners of up to n ranges it has seen in lookups
+        int cacheSize = Integer.parseInt(Simulator.getOption(args, "cache", "0"));
+        LocationCaches caches = null;
+        if (cacheSize > 0 && protocol instanceof ChordProtocol) {
+            caches = new LocationCaches(cacheSize, m);
+            ((ChordProtocol) protocol).setLocationCaches(caches);
+        }
+
+        // with --metrics=<file> the routing metrics are collected and written to the file as JSON
+        String metricsFile = Simulator.getOption(args, "metrics", null);
+        LookUpMetrics metrics = null;
+        if (metricsFile != null && protocol instanceof ChordProtocol) {
+            metrics = new LookUpMetrics(m);
+            ((ChordProtocol) protocol).setMetrics(metrics);
+        }
+
+        // with --fingers=direct the finger tables are kept in direct buffers outside the heap, with
+        // --fingers=mapped:<file> in a file that is mapped into memory
+        String fingers = Simulator.getOption(args, "fingers", "heap");
+        OffHeapFingerStore fingerStore = null;
+        if (!fingers.equals("heap") && protocol instanceof ChordProtocol) {
+            try {
+                int rows = network.getSize() * ((ChordProtocol) protocol).virtualNodes;
+                if (fingers.equals("direct")) {
+                    fingerStore = new OffHeapFingerStore(m, rows);
+                } else if (fingers.startsWith("mapped:")) {
+                    fingerStore = new OffHeapFingerStore(m, rows, Paths.get(fingers.substring("mapped:".length())));
+                } else {
+                    throw new IllegalArgumentException("unknown finger store: " + fingers);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            ((ChordProtocol) protocol).setFingerStore(fingerStore);
+        }
+
+        // with --replicas=<r> the keys of every node are copied to its r successors
+        int replicas = Integer.parseInt(Simulator.getOption(args, "replicas", "0"));
+        if (replicas > 0 && protocol instanceof ChordProtocol) {
+            ((ChordProtocol) protocol).setReplicas(replicas);
+        }
+
+        // builds the protocol. with --snapshot=<file> it is restored from the file, or built and saved to it
+        String snapshotFile = Simulator.getOption(args, "snapshot", null);
+        if (snapshotFile != null && protocol instanceof ChordProtocol) {
+            try {
+                long startTime = System.nanoTime();
+                boolean restored = buildProtocol(Paths.get(snapshotFile));
+                if (verbosity >= SUMMARY) {
+                    System.out.println("\t" + (restored ? "Restored the ring from " : "Saved the ring to ") + snapshotFile +
+                            " in " + (System.nanoTime() - startTime) / 1000000 + " ms");
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            buildProtocol();
+        }
+        if (verbosity >= RESULTS) {
+            printRing();
+            printNetwork();
+        }
+
+        // runs with another hash function than the default get their own output file
+        HashAlgorithm hashAlgorithm = consistentHash.algorithm;
+        String suffix = hashAlgorithm != HashAlgorithm.MD5 ? "_" + hashAlgorithm.name().toLowerCase() : "";
+        Path outputFile = Paths.get(System.getProperty("user.dir"), "output",
+                "output_" + args[0] + "_" + args[1] + suffix + format.extension);
+        try (LookUpWriter writer = new LookUpWriter(outputFile, format)) {
+            // tests the lookup operation. with --threads=N the keys are looked up in parallel by N workers
+            // with --workload=<distribution> a generated stream of requests is looked up instead of every key once
+            // with --batch=<size> the keys are looked up in batches that share the routing steps
+            int threads = Integer.parseInt(Simulator.getOption(args, "threads", "1"));
+            String distribution = Simulator.getOption(args, "workload", null);
+            String batch = Simulator.getOption(args, "batch", null);
+            if (distribution != null) {
+                runWorkload(createWorkload(distribution,
+                        Long.parseLong(Simulator.getOption(args, "requests", String.valueOf(keyIndexes.size()))),
+                        Simulator.getOption(args, "origin", "random"),
+                        Long.parseLong(Simulator.getOption(args, "seed", "1"))), writer);
+            } else if (batch != null && protocol instanceof ChordProtocol) {
+                testLookUp((ChordProtocol) protocol, Math.max(1, Integer.parseInt(batch)), writer);
+            } else if (threads > 1) {
+                testLookUp(threads, writer);
+            } else {
+                testLookUp(writer);
+            }
+
+            // with --latency=<model> the lookups are also simulated as message exchanges with link latencies
+            String latency = Simulator.getOption(args, "latency", null);
+            if (latency != null && protocol instanceof ChordProtocol) {
+                List<String> report = simulateLookUps(LatencyModel.parse(latency),
+                        Double.parseDouble(Simulator.getOption(args, "processing", "0")),
+                        Double.parseDouble(Simulator.getOption(args, "interval", "0")),
+                        Long.parseLong(Simulator.getOption(args, "seed", "1")));
+                for (String line : report) {
+                    writeSummary(writer, line);
+                }
+            }
+
+            // with --transport=loopback the lookups are also run over localhost sockets, --window=<n> sets how many
+            // are in flight and --serve=<seconds> how long the peers keep running for other processes. with --async the
+            // peers only run the async lookups below
+            String transport = Simulator.getOption(args, "transport", null);
+            String async = Simulator.getOption(args, "async", null);
+            if (transport != null && async == null && protocol instanceof ChordProtocol) {
+                List<String> report = loopbackLookUps(transport,
+                        Integer.parseInt(Simulator.getOption(args, "window", "64")),
+                        Long.parseLong(Simulator.getOption(args, "serve", "0")),
+                        Long.parseLong(Simulator.getOption(args, "seed", "1")));
+                for (String line : report) {
+                    writeSummary(writer, line);
+                }
+            }
+
+            // with --async=<window> the keys are looked up again with lookUpAsync() and up to <window> lookups in flight,
+            // each failing after --timeout=<ms>. with --transport they run on the loopback peers
+            if (async != null && protocol instanceof ChordProtocol) {
+                List<String> report = asyncLookUps(transport, Integer.parseInt(async),
+                        Long.parseLong(Simulator.getOption(args, "timeout",
+                                String.valueOf(AsyncLookUps.DEFAULT_TIMEOUT_MILLIS))),
+                        Long.parseLong(Simulator.getOption(args, "serve", "0")),
+                        Long.parseLong(Simulator.getOption(args, "seed", "1")));
+                for (String line : report) {
+                    writeSummary(writer, line);
+                }
+            }
+
+            // with --actors=<window> every node runs as an actor and the keys are looked up again through the actors,
+            // compared with the sequential lookups. --churn=<n> nodes join and leave through the actors
+            String actorWindow = Simulator.getOption(args, "actors", null);
+            if (actorWindow != null && protocol instanceof ChordProtocol) {
+                List<String> report = actorLookUps(Integer.parseInt(actorWindow),
+                        Long.parseLong(Simulator.getOption(args, "timeout",
+                                String.valueOf(AsyncLookUps.DEFAULT_TIMEOUT_MILLIS))),
+                        Integer.parseInt(Simulator.getOption(args, "threads",
+                                String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                        Integer.parseInt(Simulator.getOption(args, "churn", "10")),
+                        Long.parseLong(Simulator.getOption(args, "seed", "1")));
+                for (String line : report) {
+                    writeSummary(writer, line);
+                }
+            }
+
+            // with --fail=<fraction> a fraction of the nodes fails and the lookups are repeated
+            String failures = Simulator.getOption(args, "fail", null);
+            if (failures != null && protocol instanceof ChordProtocol) {
+                List<String> report = failureReport(Double.parseDouble(failures),
+                        latency == null ? null : LatencyModel.parse(latency),
+                        Long.parseLong(Simulator.getOption(args, "seed", "1")));
+                for (String line : report) {
+                    writeSummary(writer, line);
+                }
+            }
+
+            if (virtualNodes != null) {
+                for (String line : keyLoadReport()) {
+                    writeSummary(writer, line);
+                }
+            }
+
+            if (caches != null) {
+                writeSummary(writer, "location cache hits: " + caches.getHits() + "\tmisses: " + caches.getMisses() +
+                        "\thit rate: " + caches.getHitRate());
+            }
+
+            if (metrics != null) {
+                metrics.writeSnapshot(Paths.get(metricsFile));
+                if (verbosity >= SUMMARY) {
+                    System.out.println("hop count p50: " + metrics.getHopPercentile(50) + "\tp99: " +
+                            metrics.getHopPercentile(99) + "\tmax: " + metrics.getMaxHops() +
+                            "\tmetrics written to " + metricsFile);
+                }
+            }
+
+            if (fingerStore != null) {
+                writeSummary(writer, "finger tables outside the heap: " + fingerStore.getBytes() + " bytes");
+                fingerStore.close();
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
@@ -1,3 +1,4 @@
+import crypto.HashAlgorithm;
 import p2p.Network;
 
 /**
@@ -40,6 +41,8 @@ public class Simulator{
      *             For chord protocol, it takes two arguments.
      *             arg[0] - node count : number of nodes in the network
      *             arg[1] - 'm' value: The length of the indexes generated using consistent hashing
+     *             arg[2] - (optional) hash function: md5 (default), murmur3 or xxhash64
+     *             options of the form --name=value can follow, eg:- --hash=xxhash64 --threads=8 --keys=100000
      */
     public void start(String[] args){
         // number of nodes in the network
@@ -48,9 +51,9 @@ public class Simulator{
         // length of the indexes generated using consistent hashing
         int m = Integer.parseInt(args[1]);
 
-//        System.out.println("node count : "+nodeCount+"\t m : "+m);
-        Network myNetwork = createNetwork("test network", nodeCount);
-//       System.out.println("network size: "+myNetwork.getSize());
+        // hash function used by the consistent hashing
+        HashAlgorithm hashAlgorithm = HashAlgorithm.parse(getOption(args, "hash",
+                args.length > 2 && !args[2].startsWith("--") ? args[2] : "md5"));
 
         // assigns random number of keys to test
         int keyCount = 0;
@@ -59,13 +62,43 @@ public class Simulator{
         } else {
             keyCount = nodeCount * 3;
         }
+        // --keys=<n> overrides the number of keys
+        keyCount = Integer.parseInt(getOption(args, "keys", String.valueOf(keyCount)));
+
+        // --network=compact simulates the ring in flat arrays instead of Node objects
+        if (getOption(args, "network", "nodes").equals("compact")) {
+            ChordProtocolSimulator.startCompact(args, nodeCount, m, keyCount, hashAlgorithm);
+            return;
+        }
+
+//        System.out.println("node count : "+nodeCount+"\t m : "+m);
+        Network myNetwork = createNetwork("test network", nodeCount);
+//       System.out.println("network size: "+myNetwork.getSize());
         // creates the chord protocol simulator object
-        ChordProtocolSimulator chordProtocolSimulator = ChordProtocolSimulator.getInstance(myNetwork, m, keyCount);
+        ChordProtocolSimulator chordProtocolSimulator = ChordProtocolSimulator.getInstance(myNetwork, m, keyCount, hashAlgorithm);
 
         // stars the chord protocol
         chordProtocolSimulator.start(args);
     }
 
+    /**
+     * This method reads an option of the form --name=value from the command line arguments.
+     *
+     * @param args command line arguments
+     * @param name name of the option
+     * @param defaultValue value that is returned if the option is not given
+     * @return value of the option
+     */
+    public static String getOption(String[] args, String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
+            }
+        }
+        return defaultValue;
+    }
+
     /**
      * This is the starting point of the simulator.
      * The start() method in the protocol simulator is invoked to start the simulation.
@@ -0,0 +1,69 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import p2p.Network;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of ChordProtocolSimulator.assignKeys with the key count the simulator uses (3 keys per node). Every
+ * invocation gets a new network and simulator, since assigning keys adds data to the nodes.
+ *
+ * ChordProtocolSimulator is in the default package, which cannot be imported from a named package (and JMH does not
+ * allow benchmarks in the default package), so it is called through method handles.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+@State(Scope.Thread)
+public class AssignKeysBenchmark {
+    private static final MethodHandle GET_INSTANCE;
+    private static final MethodHandle ASSIGN_KEYS;
+
+    static {
+        try {
+            Class<?> simulator = Class.forName("ChordProtocolSimulator");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            GET_INSTANCE = lookup.findStatic(simulator, "getInstance",
+                    MethodType.methodType(simulator, Network.class, int.class, int.class));
+            ASSIGN_KEYS = lookup.findVirtual(simulator, "assignKeys", MethodType.methodType(void.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int nodeCount;
+
+    @Param({"10", "20", "32"})
+    public int m;
+
+    private Object simulator;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws Throwable {
+        simulator = GET_INSTANCE.invoke(Network.createNetwork("benchmark network", nodeCount), m, nodeCount * 3);
+    }
+
+    @Benchmark
+    public Object assignKeys() throws Throwable {
+        ASSIGN_KEYS.invoke(simulator);
+        return simulator;
+    }
+}
@@ -0,0 +1,55 @@
+package benchmarks;
+
+import p2p.Network;
+import protocol.ChordProtocol;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Helpers shared by the benchmarks. The protocol prints progress messages while it builds the finger tables, so the
+ * benchmarks run with System.out silenced to measure the protocol and not the console.
+ */
+final class BenchmarkSupport {
+    private static final PrintStream NULL_STREAM = new PrintStream(OutputStream.nullOutputStream());
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * replaces System.out with a stream that discards everything
+     * @return the original System.out, to be restored with restore()
+     */
+    static PrintStream silence() {
+        PrintStream original = System.out;
+        System.setOut(NULL_STREAM);
+        return original;
+    }
+
+    /**
+     * restores System.out after silence()
+     * @param original the stream returned by silence()
+     */
+    static void restore(PrintStream original) {
+        if (original != null) {
+            System.setOut(original);
+        }
+    }
+
+    /**
+     * creates a chord protocol on a new network of "Node 1".."Node n"
+     * @param nodeCount number of nodes
+     * @param m length of the identifier
+     * @param withFingers whether the overlay and the finger tables should be built as well
+     * @return the protocol
+     */
+    static ChordProtocol newProtocol(int nodeCount, int m, boolean withFingers) {
+        ChordProtocol protocol = new ChordProtocol(m);
+        protocol.setNetwork(Network.createNetwork("benchmark network", nodeCount));
+        if (withFingers) {
+            protocol.buildOverlayNetwork();
+            protocol.buildFingerTable();
+        }
+        return protocol;
+    }
+}
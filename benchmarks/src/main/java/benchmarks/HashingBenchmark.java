@@ -0,0 +1,65 @@
+package benchmarks;
+
+import crypto.ConsistentHashing;
+import crypto.HashAlgorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of ConsistentHashing.hash for node and key names, for every hash function.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class HashingBenchmark {
+
+    @Param({"10", "20", "32"})
+    public int m;
+
+    @Param({"MD5", "MURMUR3", "XXHASH64"})
+    public HashAlgorithm algorithm;
+
+    private ConsistentHashing ch;
+    private String[] names;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        ch = new ConsistentHashing(m, algorithm);
+        names = new String[1024];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "key " + (i + 1);
+        }
+    }
+
+    @Benchmark
+    public int hash() {
+        next = (next + 1) & (names.length - 1);
+        return ch.hash(names[next]);
+    }
+
+    @Benchmark
+    public long hashLong() {
+        next = (next + 1) & (names.length - 1);
+        return ch.hashLong(names[next]);
+    }
+
+    @Benchmark
+    public long[] hashBatch() {
+        return ch.hashLong(names);
+    }
+}
@@ -0,0 +1,89 @@
+package benchmarks;
+
+import crypto.ConsistentHashing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import protocol.AsyncLookUps;
+import protocol.ChordProtocol;
+import protocol.LookUpResponse;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of ChordProtocol.lookUp over a fixed set of key indexes, on a ring that is built once per trial, of
+ * ChordProtocol.lookUpAll over the whole set as one batch, and of ChordProtocol.lookUpAsync over the whole set with the
+ * default window of lookups in flight.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+@State(Scope.Benchmark)
+public class LookUpBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int nodeCount;
+
+    @Param({"10", "20", "32"})
+    public int m;
+
+    private ChordProtocol protocol;
+    private long[] keys;
+    private PrintStream out;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        out = BenchmarkSupport.silence();
+        protocol = BenchmarkSupport.newProtocol(nodeCount, m, true);
+        ConsistentHashing ch = new ConsistentHashing(m);
+        keys = new long[4096];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ch.hashLong("key " + (i + 1));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.restore(out);
+    }
+
+    @Benchmark
+    public LookUpResponse lookUp(Cursor cursor) {
+        cursor.next = (cursor.next + 1) & (keys.length - 1);
+        return protocol.lookUp(keys[cursor.next]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(4096)
+    public LookUpResponse[] lookUpAll() {
+        return protocol.lookUpAll(keys);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(4096)
+    public boolean lookUpAsync() throws InterruptedException {
+        for (long key : keys) {
+            protocol.lookUpAsync(key);
+        }
+        return protocol.getAsyncLookUps().awaitCompletion(AsyncLookUps.DEFAULT_TIMEOUT_MILLIS);
+    }
+}
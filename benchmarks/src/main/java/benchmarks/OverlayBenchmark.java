@@ -0,0 +1,71 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import protocol.ChordProtocol;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of ChordProtocol.buildOverlayNetwork and ChordProtocol.buildFingerTable. The overlay benchmark gets a
+ * new network for every invocation, since building the overlay reorders the topology. The finger table benchmark
+ * rebuilds the tables of an overlay that is built once per trial.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+@State(Scope.Thread)
+public class OverlayBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int nodeCount;
+
+    @Param({"10", "20", "32"})
+    public int m;
+
+    private ChordProtocol fresh;
+    private ChordProtocol built;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        out = BenchmarkSupport.silence();
+        built = BenchmarkSupport.newProtocol(nodeCount, m, true);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        fresh = BenchmarkSupport.newProtocol(nodeCount, m, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.restore(out);
+    }
+
+    @Benchmark
+    public ChordProtocol buildOverlayNetwork() {
+        fresh.buildOverlayNetwork();
+        return fresh;
+    }
+
+    @Benchmark
+    public ChordProtocol buildFingerTable() {
+        built.buildFingerTable();
+        return built;
+    }
+}
@@ -1,8 +1,5 @@
 package crypto;
 
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -14,51 +11,115 @@ import java.util.Set;
  * A hash ring is constructed with the value from 0 to 2^m. Whenever a data item needs a hash value
  * the hash function assigns the data to one point in the hash ring (eg:- each data item would be assigned to the
  * value of 0 to 2^m. It uses sha,md5 hash functions to ensure that the assignment is random.
+ *
+ * The hash function is pluggable (see HashAlgorithm). MD5 is the default. The index is the lowest m bits of the hash
+ * value, which is the same as hash mod 2^m. Each thread reuses its own buffer to encode the data, so hashing does not
+ * allocate for ascii data.
  */
 public class ConsistentHashing {
 
     // length of the identifier
     public int m;
 
+    // the hash function that is used to calculate the hash value
+    public final HashAlgorithm algorithm;
+
+    private final HashFunction function;
+
+    // 2^m - 1, keeps the lowest m bits of the hash value
+    private final long mask;
+
+    // buffer used to encode the data before hashing, one per thread
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[64]);
+
     /**
      *
      * @param m the length of the hash value in bits
      */
     public ConsistentHashing(int m){
-        this.m=m;
+        this(m, HashAlgorithm.MD5);
     }
 
-    /*
-    @param data
-    @return returns
+    /**
+     *
+     * @param m the length of the hash value in bits (1 to 63)
+     * @param algorithm the hash function that is used to calculate the hash value
      */
+    public ConsistentHashing(int m, HashAlgorithm algorithm){
+        if (m < 1 || m > 63) {
+            throw new IllegalArgumentException("m must be between 1 and 63, was " + m);
+        }
+        this.m=m;
+        this.algorithm = algorithm;
+        this.function = algorithm.create();
+        this.mask = (1L << m) - 1;
+    }
 
     /**
-     * Calculates hash value for the data
+     * Calculates hash value for the data. The value only fits in an int when m <= 31, hashLong() should be used for
+     * longer identifiers.
      * @param data the data can be any String object that needs to get hash value
      * @return hash value (the integer value from 0 to 2^m that indicates the placement of data in the ring).
      */
     public int hash(String data) {
-        MessageDigest md = null;
-        try {
-            md = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        // digest() method is called to calculate message digest
-        // of an input digest() return array of byte
-        assert md != null;
-        byte[] messageDigest = md.digest(data.getBytes());
+        return (int) (hashValue(data) & mask);
+    }
 
-        // Convert byte array into signum representation
-        BigInteger res = new BigInteger(1, messageDigest);
+    /**
+     * Calculates the m-bit hash value for the data, for any m up to 63
+     * @param data the data can be any String object that needs to get hash value
+     * @return hash value (the value from 0 to 2^m that indicates the placement of data in the ring).
+     */
+    public long hashLong(String data) {
+        return hashValue(data) & mask;
+    }
 
-        // consistent hashing function - hash mod 2^m
-        BigInteger length = BigInteger.valueOf((long) Math.pow(2, m));
-        res = res.mod(length);
+    /**
+     * Calculates the m-bit hash values for a batch of data, for any m up to 63
+     * @param data the data items that need hash values
+     * @return hash values in the same order as the data
+     */
+    public long[] hashLong(String[] data) {
+        long[] result = new long[data.length];
+        for (int i = 0; i < data.length; i++) {
+            result[i] = hashLong(data[i]);
+        }
+        return result;
+    }
 
-        return res.intValue();
+    /**
+     * Calculates the hash values for a batch of data
+     * @param data the data items that need hash values
+     * @return hash values in the same order as the data
+     */
+    public int[] hash(String[] data) {
+        int[] result = new int[data.length];
+        for (int i = 0; i < data.length; i++) {
+            result[i] = hash(data[i]);
+        }
+        return result;
+    }
 
+    /**
+     * encodes the data in the thread local buffer and hashes it. ascii characters are copied directly, other strings
+     * are encoded with String.getBytes() so that the bytes are the same as before.
+     */
+    private long hashValue(String data) {
+        int length = data.length();
+        byte[] buffer = BUFFER.get();
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+            BUFFER.set(buffer);
+        }
+        for (int i = 0; i < length; i++) {
+            char c = data.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = data.getBytes();
+                return function.hash(bytes, bytes.length);
+            }
+            buffer[i] = (byte) c;
+        }
+        return function.hash(buffer, length);
     }
 
     public static void test1() {
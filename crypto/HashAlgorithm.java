@@ -0,0 +1,35 @@
+package crypto;
+
+/**
+ * The hash functions that the consistent hashing can use. MD5 is the default and gives the same indexes as the
+ * original implementation. MURMUR3 and XXHASH64 are much faster non-cryptographic functions, but they place the nodes
+ * and keys at different positions on the ring.
+ */
+public enum HashAlgorithm {
+    MD5,
+    MURMUR3,
+    XXHASH64;
+
+    /**
+     * @return a new instance of the hash function
+     */
+    public HashFunction create() {
+        switch (this) {
+            case MURMUR3:
+                return new Murmur3Hash();
+            case XXHASH64:
+                return new XxHash64();
+            default:
+                return new Md5Hash();
+        }
+    }
+
+    /**
+     * parses the name of the algorithm, eg:- "md5", "murmur3", "xxhash64"
+     * @param name name of the algorithm (case insensitive)
+     * @return the algorithm
+     */
+    public static HashAlgorithm parse(String name) {
+        return HashAlgorithm.valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,18 @@
+package crypto;
+
+/**
+ * A hash function that can be used by the consistent hashing. The function hashes the first 'length' bytes of the
+ * buffer and returns 64 bits of the hash value. The consistent hashing keeps the lowest m bits as the index on the
+ * ring, so the low bits of the result must be well distributed.
+ *
+ * Implementations must be safe to call from several threads at the same time.
+ */
+public interface HashFunction {
+
+    /**
+     * @param data   buffer that holds the bytes to hash
+     * @param length number of bytes to hash, starting at offset 0
+     * @return 64 bits of the hash value
+     */
+    long hash(byte[] data, int length);
+}
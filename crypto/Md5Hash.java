@@ -0,0 +1,48 @@
+package crypto;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * MD5 hash function. The digest is a 128 bit big endian number, and the index on the ring is that number mod 2^m,
+ * which are the lowest m bits. So this function returns the last 8 bytes of the digest, which gives exactly the same
+ * indexes as converting the whole digest to a BigInteger for any m up to 64.
+ *
+ * Each thread reuses its own MessageDigest and output buffer, so hashing does not allocate.
+ */
+public class Md5Hash implements HashFunction {
+    // length of the md5 digest in bytes
+    private static final int DIGEST_LENGTH = 16;
+
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(Md5Hash::newDigest);
+    private final ThreadLocal<byte[]> outputs = ThreadLocal.withInitial(() -> new byte[DIGEST_LENGTH]);
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform is required to support md5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public long hash(byte[] data, int length) {
+        MessageDigest md = digests.get();
+        byte[] output = outputs.get();
+        md.update(data, 0, length);
+        try {
+            md.digest(output, 0, DIGEST_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+
+        // lowest 64 bits of the big endian digest
+        long result = 0;
+        for (int i = DIGEST_LENGTH - 8; i < DIGEST_LENGTH; i++) {
+            result = (result << 8) | (output[i] & 0xff);
+        }
+        return result;
+    }
+}
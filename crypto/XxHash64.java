@@ -0,0 +1,86 @@
+package crypto;
+
+/**
+ * xxHash (64 bit variant) with seed 0. The function is stateless, so one instance can be shared by all threads.
+ */
+public class XxHash64 implements HashFunction {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    @Override
+    public long hash(byte[] data, int length) {
+        int offset = 0;
+        long h;
+
+        if (length >= 32) {
+            long v1 = P1 + P2;
+            long v2 = P2;
+            long v3 = 0;
+            long v4 = -P1;
+            int limit = length - 32;
+            do {
+                v1 = round(v1, Murmur3Hash.getLong(data, offset));
+                v2 = round(v2, Murmur3Hash.getLong(data, offset + 8));
+                v3 = round(v3, Murmur3Hash.getLong(data, offset + 16));
+                v4 = round(v4, Murmur3Hash.getLong(data, offset + 24));
+                offset += 32;
+            } while (offset <= limit);
+
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = P5;
+        }
+
+        h += length;
+
+        while (offset + 8 <= length) {
+            h ^= round(0, Murmur3Hash.getLong(data, offset));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+            offset += 8;
+        }
+        if (offset + 4 <= length) {
+            h ^= (getInt(data, offset) & 0xffffffffL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            offset += 4;
+        }
+        while (offset < length) {
+            h ^= (data[offset] & 0xffL) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+            offset++;
+        }
+
+        // avalanche
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long mergeRound(long acc, long val) {
+        acc ^= round(0, val);
+        return acc * P1 + P4;
+    }
+
+    // reads 4 bytes in little endian order
+    private static int getInt(byte[] data, int offset) {
+        return (data[offset] & 0xff)
+                | (data[offset + 1] & 0xff) << 8
+                | (data[offset + 2] & 0xff) << 16
+                | (data[offset + 3] & 0xff) << 24;
+    }
+}
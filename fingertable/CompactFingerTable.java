@@ -0,0 +1,146 @@
+package fingertable;
+
+import p2p.NodeInterface;
+
+/**
+ * Finger table that stores the fingers in parallel primitive arrays instead of a list of entry objects.
+ *
+ * For the ith finger it keeps the start value, the end of the interval and the slot of the successor node (see
+ * NodeSlots). The starts grow monotonically when measured as an offset from the owning node (2^0, 2^1, ..., 2^m-1),
+ * so the finger responsible for an id is found with a binary search on the ring offset of the id instead of testing
+ * every interval.
+ *
+ * The values are stored as ints, so this table is used for identifiers up to 31 bits. LongFingerTable is used for
+ * longer identifiers.
+ */
+public class CompactFingerTable implements RoutingTable {
+    // id of the node that owns the table
+    private final int nodeId;
+    // 2^m - 1, used to calculate offsets on the ring
+    private final int mask;
+    // start values of the fingers
+    private final int[] starts;
+    // end values of the finger intervals
+    private final int[] ends;
+    // slots of the successor nodes (see NodeSlots)
+    private final int[] successors;
+    // nodes the successor slots point to. shared by all the finger tables of the same overlay
+    private final NodeSlots nodes;
+    // number of fingers that have been set
+    private int size;
+
+    /**
+     * @param nodeId id of the node that owns the table
+     * @param m      length of the identifier, which is also the number of fingers
+     * @param nodes  nodes of the ring. the successor slots point into this table
+     */
+    public CompactFingerTable(int nodeId, int m, NodeSlots nodes) {
+        this.nodeId = nodeId;
+        this.mask = (int) ((1L << m) - 1);
+        this.starts = new int[m];
+        this.ends = new int[m];
+        this.successors = new int[m];
+        this.nodes = nodes;
+    }
+
+    /**
+     * adds the next finger to the table. fingers must be added in order (i = 1,...,m)
+     * @param start            start value of the finger
+     * @param end              end value of the finger interval
+     * @param successorSlot    slot of the successor node
+     */
+    public void addEntry(int start, int end, int successorSlot) {
+        starts[size] = start;
+        ends[size] = end;
+        successors[size] = successorSlot;
+        size++;
+    }
+
+    public int getStart(int i) {
+        return starts[i];
+    }
+
+    public int getEnd(int i) {
+        return ends[i];
+    }
+
+    public int getSuccessorSlot(int i) {
+        return successors[i];
+    }
+
+    /**
+     * points the ith finger to another successor node. used to repair the table when nodes join or leave
+     * @param i             index of the finger (0 based)
+     * @param successorSlot slot of the new successor node
+     */
+    public void setSuccessorSlot(int i, int successorSlot) {
+        successors[i] = successorSlot;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the index of the finger whose interval contains the id.
+     * The last finger wraps around to the node itself, so an id that lies before the first start (only the node id
+     * itself) belongs to the last finger.
+     *
+     * @param id index on the ring
+     * @return index of the finger (0 based), or -1 if the table is empty
+     */
+    public int indexOf(int id) {
+        if (size == 0) {
+            return -1;
+        }
+        int offset = (id - nodeId) & mask;
+        int low = 0;
+        int high = size - 1;
+        int found = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (((starts[mid] - nodeId) & mask) <= offset) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public NodeInterface findSuccessor(long id) {
+        // ids are smaller than 2^m <= 2^31, so the cast does not lose any bits
+        int i = indexOf((int) id);
+        return i < 0 ? null : nodes.get(successors[i]);
+    }
+
+    @Override
+    public int fingerIndex(long id) {
+        return indexOf((int) id);
+    }
+
+    @Override
+    public NodeInterface getSuccessor(int i) {
+        return nodes.get(successors[i]);
+    }
+
+    /**
+     * prints the fingers in the same format as FingerTable so that the topology output does not change
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append("FingerTableEntry: {start: ").append(starts[i])
+                    .append(", interval: (").append(starts[i]).append(',').append(ends[i])
+                    .append("), successor: ").append(nodes.get(successors[i]).getLongId()).append('}');
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -1,9 +1,11 @@
 package fingertable;
 
+import p2p.NodeInterface;
+
 import java.util.ArrayList;
 import java.util.List;
 
-public class FingerTable {
+public class FingerTable implements RoutingTable {
     private final List<FingerTableEntry> entries;
 
     public FingerTable(int size) {
@@ -18,6 +20,48 @@ public class FingerTable {
         return entries;
     }
 
+    /**
+     * replaces the ith entry. used to repair the table when nodes join or leave
+     * @param i     index of the entry (0 based)
+     * @param entry new entry
+     */
+    public void setEntry(int i, FingerTableEntry entry) {
+        entries.set(i, entry);
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Scans the entries in order and returns the successor of the first interval that contains the id.
+     */
+    @Override
+    public NodeInterface findSuccessor(long id) {
+        for (FingerTableEntry entry : entries) {
+            if (entry.interval().contains(id)) {
+                return entry.successor();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int fingerIndex(long id) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).interval().contains(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public NodeInterface getSuccessor(int i) {
+        return entries.get(i).successor();
+    }
+
     @Override
     public String toString() {
         return entries.toString();
@@ -2,10 +2,10 @@ package fingertable;
 
 import p2p.NodeInterface;
 
-public record FingerTableEntry(int start, Interval interval, NodeInterface successor) {
+public record FingerTableEntry(long start, Interval interval, NodeInterface successor) {
 
     @Override
     public String toString() {
-        return "FingerTableEntry: {" + "start: " + start + ", interval: (" + interval.start() + "," + interval.end() + "), successor: " + successor.getId() + '}';
+        return "FingerTableEntry: {" + "start: " + start + ", interval: (" + interval.start() + "," + interval.end() + "), successor: " + successor.getLongId() + '}';
     }
 }
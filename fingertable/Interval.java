@@ -1,8 +1,8 @@
 package fingertable;
 
-public record Interval(int start, int end) {
+public record Interval(long start, long end) {
 
-    public boolean contains(int id) {
+    public boolean contains(long id) {
         if (start <= end) { // continuous interval (non-wrapping)
             // check if id falls within the range [start, end]
             return id >= start && id <= end;
@@ -0,0 +1,133 @@
+package fingertable;
+
+import p2p.NodeInterface;
+
+/**
+ * Finger table for identifiers longer than 31 bits (m up to 63). It works in the same way as CompactFingerTable, but
+ * the start and end values of the fingers are stored as longs. The successors are still slots in NodeSlots.
+ */
+public class LongFingerTable implements RoutingTable {
+    // id of the node that owns the table
+    private final long nodeId;
+    // 2^m - 1, used to calculate offsets on the ring
+    private final long mask;
+    // start values of the fingers
+    private final long[] starts;
+    // end values of the finger intervals
+    private final long[] ends;
+    // slots of the successor nodes (see NodeSlots)
+    private final int[] successors;
+    // nodes the successor slots point to. shared by all the finger tables of the same overlay
+    private final NodeSlots nodes;
+    // number of fingers that have been set
+    private int size;
+
+    /**
+     * @param nodeId id of the node that owns the table
+     * @param m      length of the identifier (at most 63), which is also the number of fingers
+     * @param nodes  nodes of the ring. the successor slots point into this table
+     */
+    public LongFingerTable(long nodeId, int m, NodeSlots nodes) {
+        this.nodeId = nodeId;
+        this.mask = (1L << m) - 1;
+        this.starts = new long[m];
+        this.ends = new long[m];
+        this.successors = new int[m];
+        this.nodes = nodes;
+    }
+
+    /**
+     * adds the next finger to the table. fingers must be added in order (i = 1,...,m)
+     * @param start            start value of the finger
+     * @param end              end value of the finger interval
+     * @param successorSlot    slot of the successor node
+     */
+    public void addEntry(long start, long end, int successorSlot) {
+        starts[size] = start;
+        ends[size] = end;
+        successors[size] = successorSlot;
+        size++;
+    }
+
+    public long getStart(int i) {
+        return starts[i];
+    }
+
+    public long getEnd(int i) {
+        return ends[i];
+    }
+
+    public int getSuccessorSlot(int i) {
+        return successors[i];
+    }
+
+    /**
+     * points the ith finger to another successor node. used to repair the table when nodes join or leave
+     * @param i             index of the finger (0 based)
+     * @param successorSlot slot of the new successor node
+     */
+    public void setSuccessorSlot(int i, int successorSlot) {
+        successors[i] = successorSlot;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the index of the finger whose interval contains the id (see CompactFingerTable.indexOf).
+     *
+     * @param id index on the ring
+     * @return index of the finger (0 based), or -1 if the table is empty
+     */
+    public int indexOf(long id) {
+        if (size == 0) {
+            return -1;
+        }
+        long offset = (id - nodeId) & mask;
+        int low = 0;
+        int high = size - 1;
+        int found = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (((starts[mid] - nodeId) & mask) <= offset) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public NodeInterface findSuccessor(long id) {
+        int i = indexOf(id);
+        return i < 0 ? null : nodes.get(successors[i]);
+    }
+
+    @Override
+    public int fingerIndex(long id) {
+        return indexOf(id);
+    }
+
+    @Override
+    public NodeInterface getSuccessor(int i) {
+        return nodes.get(successors[i]);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append("FingerTableEntry: {start: ").append(starts[i])
+                    .append(", interval: (").append(starts[i]).append(',').append(ends[i])
+                    .append("), successor: ").append(nodes.get(successors[i]).getLongId()).append('}');
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,77 @@
+package fingertable;
+
+import p2p.NodeInterface;
+
+import java.util.Arrays;
+
+/**
+ * Table of the nodes that the compact finger tables point to. Each node gets a slot number, and the finger tables
+ * store the slot of their successor nodes instead of a reference. Slots do not change when other nodes join or leave
+ * the ring, so finger tables only have to be updated for the fingers whose successor really changes. Slots of nodes
+ * that have left are reused by the nodes that join later.
+ */
+public class NodeSlots {
+    // node in each slot, null for a free slot
+    private NodeInterface[] nodes;
+    // number of slots in use or freed (the next new slot)
+    private int size;
+    // stack of freed slots
+    private int[] free;
+    private int freeCount;
+
+    /**
+     * creates the table with the given nodes. node i gets slot i.
+     * @param initial nodes of the ring
+     */
+    public NodeSlots(NodeInterface[] initial) {
+        this.nodes = Arrays.copyOf(initial, Math.max(initial.length, 4));
+        this.size = initial.length;
+        this.free = new int[4];
+    }
+
+    /**
+     * gives the node a slot
+     * @param node node object
+     * @return slot of the node
+     */
+    public int add(NodeInterface node) {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+            }
+            slot = size++;
+        }
+        nodes[slot] = node;
+        return slot;
+    }
+
+    /**
+     * frees the slot of a node that has left the ring
+     * @param slot slot of the node
+     */
+    public void remove(int slot) {
+        nodes[slot] = null;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = slot;
+    }
+
+    /**
+     * @param slot slot of the node
+     * @return node object in the slot
+     */
+    public NodeInterface get(int slot) {
+        return nodes[slot];
+    }
+
+    /**
+     * @return number of slots that have been handed out, including freed ones
+     */
+    public int capacity() {
+        return size;
+    }
+}
@@ -0,0 +1,124 @@
+package fingertable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage for the finger tables of all nodes outside the Java heap. Every node has a row of m ints, the slots (see
+ * NodeSlots) of the successors of its fingers, and row r belongs to the node in slot r. The rows are kept in direct
+ * buffers or in buffers mapped from a file, so the garbage collector never has to scan or copy them.
+ *
+ * A single buffer can only hold 2 GB, so the rows are split over segments of at most 1 GB. The store grows by adding
+ * segments, the existing rows never move.
+ */
+public class OffHeapFingerStore implements Closeable {
+    // largest size of one segment in bytes
+    private static final int MAX_SEGMENT_BYTES = 1 << 30;
+
+    // number of fingers per row (m)
+    private final int fingers;
+    // bytes per row
+    private final int stride;
+    // rows per segment
+    private final int segmentRows;
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    // file the segments are mapped from, null for direct buffers
+    private final FileChannel channel;
+
+    /**
+     * creates a store in direct buffers
+     * @param fingers number of fingers per node (m)
+     * @param rows    number of rows to allocate, more are added when needed
+     */
+    public OffHeapFingerStore(int fingers, int rows) throws IOException {
+        this(fingers, rows, null);
+    }
+
+    /**
+     * creates a store in direct buffers, or in buffers mapped from a file
+     * @param fingers number of fingers per node (m)
+     * @param rows    number of rows to allocate, more are added when needed
+     * @param file    file the rows are mapped from (it is cleared), or null for direct buffers
+     */
+    public OffHeapFingerStore(int fingers, int rows, Path file) throws IOException {
+        this.fingers = fingers;
+        this.stride = fingers * Integer.BYTES;
+        this.segmentRows = Math.max(1, Math.min(MAX_SEGMENT_BYTES / stride, Math.max(rows, 64)));
+        this.channel = file == null ? null : FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ensureRows(rows);
+    }
+
+    /**
+     * makes sure the store has at least the given number of rows
+     * @param rows number of rows
+     * @throws UncheckedIOException if the file cannot be mapped
+     */
+    public synchronized void ensureRows(int rows) {
+        while ((long) segments.size() * segmentRows < rows) {
+            long bytes = (long) segmentRows * stride;
+            ByteBuffer segment;
+            if (channel == null) {
+                segment = ByteBuffer.allocateDirect((int) bytes);
+            } else {
+                try {
+                    segment = channel.map(FileChannel.MapMode.READ_WRITE, segments.size() * bytes, bytes);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            segments.add(segment.order(ByteOrder.nativeOrder()));
+        }
+    }
+
+    /**
+     * @param row row of the node (its slot)
+     * @param i   index of the finger (0 based)
+     * @return slot of the successor of the finger, read straight from the buffer
+     */
+    public int get(int row, int i) {
+        return segments.get(row / segmentRows).getInt((row % segmentRows) * stride + i * Integer.BYTES);
+    }
+
+    /**
+     * @param row  row of the node (its slot)
+     * @param i    index of the finger (0 based)
+     * @param slot slot of the successor of the finger
+     */
+    public void set(int row, int i, int slot) {
+        segments.get(row / segmentRows).putInt((row % segmentRows) * stride + i * Integer.BYTES, slot);
+    }
+
+    /**
+     * @return number of fingers per row (m)
+     */
+    public int getFingers() {
+        return fingers;
+    }
+
+    /**
+     * @return number of bytes held outside the heap
+     */
+    public long getBytes() {
+        return (long) segments.size() * segmentRows * stride;
+    }
+
+    /**
+     * closes the mapped file. The mapped buffers stay valid until they are garbage collected, so the store must not
+     * be used after it has been closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package fingertable;
+
+import p2p.NodeInterface;
+
+/**
+ * Finger table of one node whose successors are kept in a row of an OffHeapFingerStore. The table itself only holds
+ * the id of the node and its row, the start and the end of each finger interval are calculated from the id.
+ *
+ * The ith finger starts at id + 2^i, so the finger responsible for an id is the highest set bit of the ring offset of
+ * the id (the same finger CompactFingerTable finds with a binary search).
+ */
+public class OffHeapFingerTable implements RoutingTable {
+    // id of the node that owns the table
+    private final long nodeId;
+    // row of the node in the store (its slot)
+    private final int row;
+    // 2^m - 1, used to calculate offsets on the ring
+    private final long mask;
+    private final OffHeapFingerStore store;
+    // nodes the successor slots point to
+    private final NodeSlots nodes;
+
+    /**
+     * @param nodeId id of the node that owns the table
+     * @param row    row of the node in the store, which is its slot
+     * @param store  store of the successor slots
+     * @param nodes  nodes of the ring. the successor slots point into this table
+     */
+    public OffHeapFingerTable(long nodeId, int row, OffHeapFingerStore store, NodeSlots nodes) {
+        this.nodeId = nodeId;
+        this.row = row;
+        this.mask = (1L << store.getFingers()) - 1;
+        this.store = store;
+        this.nodes = nodes;
+    }
+
+    public long getStart(int i) {
+        return (nodeId + (1L << i)) & mask;
+    }
+
+    public long getEnd(int i) {
+        return i == store.getFingers() - 1 ? nodeId : (nodeId - 1 + (1L << (i + 1))) & mask;
+    }
+
+    public int getSuccessorSlot(int i) {
+        return store.get(row, i);
+    }
+
+    /**
+     * points the ith finger to another node
+     * @param i             index of the finger (0 based)
+     * @param successorSlot slot of the new successor node
+     */
+    public void setSuccessorSlot(int i, int successorSlot) {
+        store.set(row, i, successorSlot);
+    }
+
+    @Override
+    public int size() {
+        return store.getFingers();
+    }
+
+    @Override
+    public int fingerIndex(long id) {
+        long offset = (id - nodeId) & mask;
+        return offset == 0 ? store.getFingers() - 1 : 63 - Long.numberOfLeadingZeros(offset);
+    }
+
+    @Override
+    public NodeInterface getSuccessor(int i) {
+        return nodes.get(store.get(row, i));
+    }
+
+    @Override
+    public NodeInterface findSuccessor(long id) {
+        return getSuccessor(fingerIndex(id));
+    }
+
+    /**
+     * prints the fingers in the same format as FingerTable so that the topology output does not change
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size(); i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append("FingerTableEntry: {start: ").append(getStart(i))
+                    .append(", interval: (").append(getStart(i)).append(',').append(getEnd(i))
+                    .append("), successor: ").append(getSuccessor(i).getLongId()).append('}');
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,39 @@
+package fingertable;
+
+import p2p.NodeInterface;
+
+/**
+ * Common view of a chord routing table. The lookup only needs to know which finger is responsible for a given id, so
+ * the different finger table implementations (list of entries, compact primitive arrays) are used through this
+ * interface and can be stored interchangeably with Node.setRoutingTable().
+ */
+public interface RoutingTable {
+
+    /**
+     * @return number of fingers in the table (m)
+     */
+    int size();
+
+    /**
+     * Finds the finger whose interval contains the given id and returns its successor node.
+     *
+     * @param id index on the ring (eg:- key index)
+     * @return successor node of the finger responsible for the id, or null if no finger covers it
+     */
+    NodeInterface findSuccessor(long id);
+
+    /**
+     * Finds the finger whose interval contains the given id, like findSuccessor(), but returns its index. It lets the
+     * lookup record which fingers are used.
+     *
+     * @param id index on the ring (eg:- key index)
+     * @return index of the finger (0 based), or -1 if no finger covers the id
+     */
+    int fingerIndex(long id);
+
+    /**
+     * @param i index of the finger (0 based)
+     * @return successor node of the ith finger
+     */
+    NodeInterface getSuccessor(int i);
+}
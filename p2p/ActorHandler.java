@@ -0,0 +1,16 @@
+package p2p;
+
+/**
+ * Receives the messages that the actor runtime delivers to the nodes. Like MessageHandler, the protocol implements it
+ * and decides what a node does with a message. The handler is called on the thread of the receiving node, which
+ * handles one message at a time.
+ */
+public interface ActorHandler {
+
+    /**
+     * handles a message that has arrived at message.to
+     * @param message the message
+     * @param runtime the runtime, used to send new messages
+     */
+    void receive(Message message, ActorRuntime runtime);
+}
@@ -0,0 +1,260 @@
+package p2p;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class runs every node as an actor. A node has its own mailbox, and its messages are handled one at a time on a
+ * thread of its own, so a node only touches its own state and messages to a busy node wait in its mailbox. Unlike the
+ * event scheduler, the messages are delivered in wall clock time by many threads at once, so the contention and the
+ * queueing at busy nodes are real.
+ *
+ * An actor only holds a thread while its mailbox is not empty: the first message that arrives at an idle actor
+ * starts a task that handles up to BATCH_SIZE messages and starts itself again if more are waiting. When the JVM has
+ * virtual threads (Java 21), every task runs on a virtual thread, otherwise on a work-stealing pool of platform
+ * threads; the build targets Java 17, so the virtual thread executor is looked up by reflection. Either way 10^6
+ * actors cost only their mailboxes while they are idle.
+ *
+ * Changes to state that all nodes share (eg:- the ring index and the fingers that a join repairs) run with
+ * exclusive(), which waits until no actor is handling messages.
+ */
+public class ActorRuntime implements Closeable {
+    // messages an actor handles before it gives its thread to the other actors
+    public static final int BATCH_SIZE = 64;
+
+    // a message in a mailbox. Message.sendTime is the virtual time of the event scheduler, so the wall clock time
+    // the queueing delay is measured from is kept here
+    private static final class Envelope {
+        final Message message;
+        // System.nanoTime() when the message has been put into the mailbox
+        final long enqueuedNanos;
+
+        Envelope(Message message, long enqueuedNanos) {
+            this.message = message;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    // mailbox of a node and the task that empties it
+    private final class Actor implements Runnable {
+        final ConcurrentLinkedQueue<Envelope> mailbox = new ConcurrentLinkedQueue<>();
+        // messages that have been sent to the actor and not handled yet. the actor is started when it goes from 0 to 1
+        final AtomicInteger pending = new AtomicInteger();
+
+        @Override
+        public void run() {
+            int handled = 0;
+            ring.readLock().lock();
+            try {
+                Envelope envelope;
+                while (handled < BATCH_SIZE && (envelope = mailbox.poll()) != null) {
+                    deliver(envelope);
+                    handled++;
+                }
+            } finally {
+                ring.readLock().unlock();
+            }
+            if (pending.addAndGet(-handled) > 0) {
+                execute(this);
+            }
+        }
+    }
+
+    private final ActorHandler handler;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final ConcurrentHashMap<NodeInterface, Actor> actors = new ConcurrentHashMap<>();
+    // actors hold the read lock while they handle messages, exclusive() tasks hold the write lock
+    private final ReentrantReadWriteLock ring = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder messagesHandled = new LongAdder();
+    private final LongAdder messagesDropped = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder queueingNanos = new LongAdder();
+    private final AtomicLong maxQueueingNanos = new AtomicLong();
+    private final AtomicInteger maxMailbox = new AtomicInteger();
+
+    /**
+     * @param handler        handles the messages that arrive at the nodes
+     * @param virtualThreads true to run the actors on virtual threads if the JVM supports them
+     * @param parallelism    number of platform threads when the actors do not run on virtual threads
+     */
+    public ActorRuntime(ActorHandler handler, boolean virtualThreads, int parallelism) {
+        ExecutorService virtual = virtualThreads ? newVirtualThreadExecutor() : null;
+        this.handler = handler;
+        this.virtualThreads = virtual != null;
+        // asynchronous (FIFO) mode, actors that have been waiting longest run first
+        this.executor = virtual != null ? virtual
+                : new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    /**
+     * @return an executor that starts a virtual thread for every task, or null if the JVM has no virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * gives a node a mailbox, so it can receive messages
+     * @param node the node
+     */
+    public void register(NodeInterface node) {
+        actors.putIfAbsent(node, new Actor());
+    }
+
+    /**
+     * removes the mailbox of a node. messages that are still in it are not handled
+     * @param node the node
+     */
+    public void unregister(NodeInterface node) {
+        actors.remove(node);
+    }
+
+    /**
+     * @return number of nodes with a mailbox
+     */
+    public int getActorCount() {
+        return actors.size();
+    }
+
+    /**
+     * This method puts a message into the mailbox of message.to. It can be called on any thread.
+     *
+     * @param message the message
+     * @return false if the node has no mailbox, the message is then dropped
+     */
+    public boolean send(Message message) {
+        Actor actor = actors.get(message.to);
+        if (actor == null || closed) {
+            messagesDropped.increment();
+            return false;
+        }
+        actor.mailbox.add(new Envelope(message, System.nanoTime()));
+        messagesSent.increment();
+        int depth = actor.pending.getAndIncrement() + 1;
+        if (depth == 1) {
+            execute(actor);
+        } else if (depth > maxMailbox.get()) {
+            maxMailbox.accumulateAndGet(depth, Math::max);
+        }
+        return true;
+    }
+
+    /**
+     * This method runs a task that changes state shared by all nodes. It runs on its own thread, once no actor is
+     * handling messages, and the actors wait until it is done. It can be called from an actor.
+     *
+     * @param task the task
+     */
+    public void exclusive(Runnable task) {
+        execute(() -> {
+            ring.writeLock().lock();
+            try {
+                task.run();
+            } finally {
+                ring.writeLock().unlock();
+            }
+        });
+    }
+
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            if (!closed) {
+                throw e;
+            }
+        }
+    }
+
+    private void deliver(Envelope envelope) {
+        long waited = System.nanoTime() - envelope.enqueuedNanos;
+        queueingNanos.add(waited);
+        if (waited > maxQueueingNanos.get()) {
+            maxQueueingNanos.accumulateAndGet(waited, Math::max);
+        }
+        try {
+            handler.receive(envelope.message, this);
+        } catch (RuntimeException e) {
+            // a failing message must not stop the actor, its other messages are still handled
+            errors.increment();
+        }
+        messagesHandled.increment();
+    }
+
+    /**
+     * @return true if the actors run on virtual threads
+     */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    public long getMessagesHandled() {
+        return messagesHandled.sum();
+    }
+
+    /**
+     * @return number of messages to nodes without a mailbox
+     */
+    public long getMessagesDropped() {
+        return messagesDropped.sum();
+    }
+
+    /**
+     * @return number of messages whose handler has thrown an exception
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * @return average time in milliseconds a message has waited in a mailbox
+     */
+    public double getAverageQueueingDelay() {
+        long handled = messagesHandled.sum();
+        return handled == 0 ? 0 : queueingNanos.sum() / 1e6 / handled;
+    }
+
+    /**
+     * @return longest time in milliseconds a message has waited in a mailbox
+     */
+    public double getMaxQueueingDelay() {
+        return maxQueueingNanos.get() / 1e6;
+    }
+
+    /**
+     * @return largest number of messages that have been waiting in one mailbox
+     */
+    public int getMaxMailbox() {
+        return maxMailbox.get();
+    }
+
+    /**
+     * stops the threads. messages that are still in the mailboxes are not handled
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+    }
+}
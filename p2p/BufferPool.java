@@ -0,0 +1,57 @@
+package p2p;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of direct byte buffers of one size. The loopback transport takes its read and write buffers from the pool
+ * and gives them back when they are written out or the connection is closed, so the buffers are allocated once and
+ * the sockets read and write them without copying them through the heap.
+ */
+public class BufferPool {
+    private final int bufferSize;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private int allocated;
+
+    /**
+     * @param bufferSize size of each buffer in bytes
+     */
+    public BufferPool(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @return an empty buffer in write mode, allocated if the pool is empty
+     */
+    public synchronized ByteBuffer acquire() {
+        ByteBuffer buffer = free.pollFirst();
+        if (buffer == null) {
+            allocated++;
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        return buffer;
+    }
+
+    /**
+     * gives a buffer back to the pool
+     * @param buffer buffer that has been taken from this pool
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        buffer.clear();
+        free.addFirst(buffer);
+    }
+
+    /**
+     * @return size of each buffer in bytes
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return number of buffers that have been allocated
+     */
+    public synchronized int getAllocated() {
+        return allocated;
+    }
+}
@@ -0,0 +1,143 @@
+package p2p;
+
+import java.util.IdentityHashMap;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * This class is a discrete event scheduler for simulating message exchanges between nodes. Messages are kept in a
+ * priority queue ordered by their delivery time on a virtual clock, and the clock jumps from one delivery to the next,
+ * so no wall clock time is spent waiting for the latency of the links.
+ *
+ * Every node handles one message at a time. If a processing time is set, a message that arrives while the node is
+ * busy waits until the node is free, which models the queueing delay at busy nodes.
+ */
+public class EventScheduler {
+    // a message together with the time it is delivered
+    private static final class Event implements Comparable<Event> {
+        final double time;
+        // order in which the events have been scheduled, keeps events at the same time in a fixed order
+        final long sequence;
+        final Message message;
+
+        Event(double time, long sequence, Message message) {
+            this.time = time;
+            this.sequence = sequence;
+            this.message = message;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int order = Double.compare(time, other.time);
+            return order != 0 ? order : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final PriorityQueue<Event> queue = new PriorityQueue<>();
+
+    // time at which each node has handled all messages it has received so far
+    private final IdentityHashMap<NodeInterface, Double> busyUntil = new IdentityHashMap<>();
+
+    private final LatencyModel latencyModel;
+
+    private final MessageHandler handler;
+
+    private final Random random;
+
+    // time in milliseconds a node spends handling a message
+    private double processingTime;
+
+    // current virtual time in milliseconds
+    private double now;
+
+    private long sequence;
+
+    // number of messages that have been sent and delivered
+    public long messagesSent;
+    public long messagesDelivered;
+
+    public EventScheduler(LatencyModel latencyModel, MessageHandler handler, long seed) {
+        this.latencyModel = latencyModel;
+        this.handler = handler;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param processingTime time in milliseconds a node spends handling a message (0 by default)
+     */
+    public void setProcessingTime(double processingTime) {
+        this.processingTime = processingTime;
+    }
+
+    /**
+     * @return current virtual time in milliseconds
+     */
+    public double now() {
+        return now;
+    }
+
+    /**
+     * sends a message now. It is delivered after the latency of the link from message.from to message.to, and a
+     * message a node sends to itself is delivered without latency.
+     * @param message the message
+     */
+    public void send(Message message) {
+        double latency = message.from == message.to ? 0 : latencyModel.latency(message.from, message.to, random);
+        sendAt(now + latency, message);
+    }
+
+    /**
+     * schedules a message to arrive at the given virtual time, eg:- to start a lookup at a later time
+     * @param time    arrival time in milliseconds
+     * @param message the message
+     */
+    public void sendAt(double time, Message message) {
+        if (time < now) {
+            throw new IllegalArgumentException("cannot send a message into the past: " + time + " < " + now);
+        }
+        message.sendTime = now;
+        queue.add(new Event(time, sequence++, message));
+        messagesSent++;
+    }
+
+    /**
+     * @return true if there are messages that have not been delivered yet
+     */
+    public boolean hasPending() {
+        return !queue.isEmpty();
+    }
+
+    /**
+     * delivers the next message, advancing the clock to the time at which its node handles it
+     * @return false if there was no message to deliver
+     */
+    public boolean step() {
+        Event event = queue.poll();
+        if (event == null) return false;
+        double time = event.time;
+        if (processingTime > 0) {
+            NodeInterface node = event.message.to;
+            Double free = busyUntil.get(node);
+            if (free != null && free > time) {
+                // the node is still busy, the message waits in its queue
+                queue.add(new Event(free, event.sequence, event.message));
+                return true;
+            }
+            busyUntil.put(node, time + processingTime);
+            time += processingTime;
+        }
+        now = time;
+        messagesDelivered++;
+        handler.handle(event.message, this);
+        return true;
+    }
+
+    /**
+     * delivers messages until there are none left
+     */
+    public void run() {
+        while (step()) {
+            // the handler schedules the next messages
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package p2p;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This class stores the key indexes held by a node. The keys are kept in a sorted primitive array without
+ * duplicates, so checking whether the node holds a key is a binary search and does not box the key.
+ *
+ * The store can also know the range of the ring the node is responsible for: the ids after the predecessor up to and
+ * including the node id. When the range is set, owns() decides with arithmetic on the ids whether a key belongs to the
+ * node, without looking at the stored keys at all.
+ *
+ * It extends AbstractCollection so that it can still be iterated and printed like the set that was used before
+ * (eg:- "[12, 345]"). Iterating boxes the keys, so it should not be used on the lookup path.
+ */
+public class KeyStore extends AbstractCollection<Long> {
+    // sorted key indexes. only the first 'size' entries are used
+    private long[] keys;
+    private int size;
+
+    // start of the range (exclusive), usually the id of the predecessor
+    private long rangeStart;
+    // number of ids in the range (unsigned, 2^m when the node owns the whole ring)
+    private long rangeLength;
+    // 2^m - 1, used for the wrap around of the ring
+    private long mask;
+    // whether the range has been set
+    private boolean hasRange;
+
+    public KeyStore() {
+        this.keys = new long[4];
+    }
+
+    /**
+     * adds one key index. the key is inserted at its sorted position, for many keys addAll() is faster.
+     * @param key key index
+     * @return true if the key was not stored yet
+     */
+    public boolean add(long key) {
+        int position = Arrays.binarySearch(keys, 0, size, key);
+        if (position >= 0) {
+            return false;
+        }
+        position = -position - 1;
+        ensureCapacity(size + 1);
+        System.arraycopy(keys, position, keys, position + 1, size - position);
+        keys[position] = key;
+        size++;
+        return true;
+    }
+
+    @Override
+    public boolean add(Long key) {
+        return add(key.longValue());
+    }
+
+    /**
+     * bulk loads key indexes. the new keys are appended, then the whole array is sorted once and duplicates are
+     * removed.
+     * @param newKeys array that holds the keys
+     * @param from    first position to add (inclusive)
+     * @param to      last position to add (exclusive)
+     */
+    public void addAll(long[] newKeys, int from, int to) {
+        int count = to - from;
+        if (count <= 0) {
+            return;
+        }
+        ensureCapacity(size + count);
+        System.arraycopy(newKeys, from, keys, size, count);
+        size += count;
+        Arrays.sort(keys, 0, size);
+
+        // remove duplicates
+        int unique = 1;
+        for (int i = 1; i < size; i++) {
+            if (keys[i] != keys[unique - 1]) {
+                keys[unique++] = keys[i];
+            }
+        }
+        size = unique;
+    }
+
+    /**
+     * adds all keys of another key store
+     * @param other the other store
+     */
+    public void addAll(KeyStore other) {
+        addAll(Arrays.copyOf(other.keys, other.size), 0, other.size);
+    }
+
+    /**
+     * @param key key index
+     * @return true if the key is stored
+     */
+    public boolean contains(long key) {
+        return Arrays.binarySearch(keys, 0, size, key) >= 0;
+    }
+
+    @Override
+    public boolean contains(Object key) {
+        return key instanceof Number && contains(((Number) key).longValue());
+    }
+
+    /**
+     * removes a key index
+     * @param key key index
+     * @return true if the key was stored
+     */
+    public boolean remove(long key) {
+        int position = Arrays.binarySearch(keys, 0, size, key);
+        if (position < 0) {
+            return false;
+        }
+        System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+        size--;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object key) {
+        return key instanceof Number && remove(((Number) key).longValue());
+    }
+
+    /**
+     * moves the keys in the range (start, start + length] mod 2^m to another key store. used to hand over keys when
+     * nodes join or leave the ring.
+     * @param target store that receives the keys
+     * @param start  start of the range (exclusive)
+     * @param length number of ids in the range (unsigned)
+     * @param mask   2^m - 1
+     * @return number of keys that have been moved
+     */
+    public int moveRange(KeyStore target, long start, long length, long mask) {
+        long[] moved = new long[size];
+        int movedCount = 0;
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (Long.compareUnsigned((keys[i] - start - 1) & mask, length) < 0) {
+                moved[movedCount++] = keys[i];
+            } else {
+                keys[kept++] = keys[i];
+            }
+        }
+        size = kept;
+        target.addAll(moved, 0, movedCount);
+        return movedCount;
+    }
+
+    /**
+     * @param i position in the sorted order
+     * @return the ith smallest key index
+     */
+    public long get(int i) {
+        return keys[i];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * sets the range of the ring that the node is responsible for: (start, start + length] mod 2^m
+     * @param start  start of the range (exclusive), usually the id of the predecessor
+     * @param length number of ids in the range as an unsigned value. 0 means the node owns nothing, 2^m (which is
+     *               Long.MIN_VALUE when m = 63) means it owns the whole ring
+     * @param mask   2^m - 1
+     */
+    public void setRange(long start, long length, long mask) {
+        this.rangeStart = start;
+        this.rangeLength = length;
+        this.mask = mask;
+        this.hasRange = true;
+    }
+
+    /**
+     * @return true if the range of the node has been set with setRange()
+     */
+    public boolean hasRange() {
+        return hasRange;
+    }
+
+    /**
+     * @return start of the range (exclusive), see setRange()
+     */
+    public long getRangeStart() {
+        return rangeStart;
+    }
+
+    /**
+     * @return number of ids in the range as an unsigned value, see setRange()
+     */
+    public long getRangeLength() {
+        return rangeLength;
+    }
+
+    /**
+     * Decides whether the node is responsible for the key. If the range is known it is checked arithmetically,
+     * otherwise the stored keys are searched.
+     *
+     * @param key key index
+     * @return true if the key belongs to this node
+     */
+    public boolean owns(long key) {
+        if (!hasRange) {
+            return contains(key);
+        }
+        return Long.compareUnsigned((key - rangeStart - 1) & mask, rangeLength) < 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(capacity, keys.length * 2));
+        }
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+        return new Iterator<Long>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Long next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return keys[next++];
+            }
+        };
+    }
+}
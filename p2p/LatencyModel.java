@@ -0,0 +1,85 @@
+package p2p;
+
+import java.util.Random;
+
+/**
+ * The latency of a link between two nodes in the discrete event simulation, in milliseconds of virtual time.
+ * The model is asked for a new value for every message, so it can add jitter to the links.
+ */
+public interface LatencyModel {
+
+    /**
+     * @param from   node that sends the message
+     * @param to     node that receives the message
+     * @param random random generator of the scheduler
+     * @return latency of the message in milliseconds
+     */
+    double latency(NodeInterface from, NodeInterface to, Random random);
+
+    /**
+     * @param millis latency of every message
+     * @return model where every message takes the same time
+     */
+    static LatencyModel constant(double millis) {
+        return (from, to, random) -> millis;
+    }
+
+    /**
+     * @param min smallest latency
+     * @param max largest latency
+     * @return model where the latency of every message is uniformly distributed in [min, max)
+     */
+    static LatencyModel uniform(double min, double max) {
+        return (from, to, random) -> min + random.nextDouble() * (max - min);
+    }
+
+    /**
+     * @param median median latency
+     * @param sigma  standard deviation of the logarithm of the latency, larger values give a longer tail
+     * @return model where the latency of every message is log-normally distributed
+     */
+    static LatencyModel logNormal(double median, double sigma) {
+        double mu = Math.log(median);
+        return (from, to, random) -> Math.exp(mu + sigma * random.nextGaussian());
+    }
+
+    /**
+     * Gives every link its own base latency and adds jitter to every message. The base latency of a link is drawn
+     * from the given model with a random generator seeded by the names of the two nodes, so it is the same every time
+     * the link is used and does not need to be stored.
+     *
+     * @param base   model the base latencies of the links are drawn from
+     * @param jitter largest extra latency added to every message, as a fraction of the base latency of the link
+     * @return per-link model
+     */
+    static LatencyModel perLink(LatencyModel base, double jitter) {
+        return (from, to, random) -> {
+            long seed = from.getName().hashCode() * 31L + to.getName().hashCode();
+            return base.latency(from, to, new Random(seed)) * (1 + random.nextDouble() * jitter);
+        };
+    }
+
+    /**
+     * parses a model from a string, eg:- "constant:10", "uniform:5:50", "lognormal:20:0.5". "link:" in front of a
+     * model (eg:- "link:uniform:5:50") gives every link its own base latency with 10% jitter.
+     *
+     * @param spec description of the model
+     * @return the model
+     */
+    static LatencyModel parse(String spec) {
+        if (spec.startsWith("link:")) {
+            return perLink(parse(spec.substring("link:".length())), 0.1);
+        }
+        String[] parts = spec.split(":");
+        switch (parts[0]) {
+            case "constant":
+                return constant(Double.parseDouble(parts[1]));
+            case "uniform":
+                return uniform(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+            case "lognormal":
+                return logNormal(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+            default:
+                throw new IllegalArgumentException("unknown latency model: " + spec);
+        }
+    }
+}
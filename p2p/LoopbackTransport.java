@@ -0,0 +1,520 @@
+package p2p;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * This class runs peers on localhost TCP sockets. Every local peer listens on its own port, and messages between
+ * peers are written to the sockets as frames of PeerMessage, so a lookup pays for the encoding, the system calls and
+ * the loopback network like it would between real hosts. The peers of a ring can be spread over several processes:
+ * with a base port, peer i listens on base port + i and each process hosts a range of the peers.
+ *
+ * One thread runs all local peers with a non-blocking NIO selector. It accepts connections, reads the frames and
+ * passes them to the PeerHandler, which sends its messages back through the transport. A process keeps one outgoing
+ * connection per destination peer. Messages are appended to pooled direct buffers and written out once per round of
+ * the selector, so messages that are sent in the same round share a system call.
+ *
+ * send() may only be called on the transport thread (eg:- by the handler). Other threads hand their work to the
+ * transport thread with execute().
+ *
+ * A frame that cannot be decoded (eg:- a message type of a later version) closes the connection it has arrived on,
+ * and an exception of the handler only loses its message, so neither stops the transport thread.
+ */
+public class LoopbackTransport implements Closeable {
+    // size of the pooled read and write buffers
+    public static final int BUFFER_SIZE = 16 * 1024;
+
+    // time between two attempts to reach the peers of another process
+    private static final long RETRY_MILLIS = 100;
+
+    // a socket of the transport with its buffers
+    private static final class Connection {
+        final SocketChannel channel;
+        // destination peer of an outgoing connection, receiving peer of an accepted one
+        final int peer;
+        // buffers waiting to be written, the last one is still being filled
+        final ArrayDeque<ByteBuffer> writes = new ArrayDeque<>();
+        ByteBuffer read;
+        boolean connected;
+        boolean dirty;
+
+        Connection(SocketChannel channel, int peer) {
+            this.channel = channel;
+            this.peer = peer;
+        }
+    }
+
+    private final int peerCount;
+    private final int firstLocal;
+    private final int localCount;
+    private final PeerHandler handler;
+
+    private final Selector selector;
+    private final ServerSocketChannel[] servers;
+    private final int[] ports;
+    private final BufferPool pool = new BufferPool(BUFFER_SIZE);
+
+    // outgoing connection per destination peer, opened when the first message is sent
+    private final Connection[] connections;
+    // connections with messages that have not been written yet
+    private final ArrayList<Connection> dirty = new ArrayList<>();
+    private final ArrayList<Connection> accepted = new ArrayList<>();
+
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PeerMessage incoming = new PeerMessage();
+    private Thread thread;
+    private volatile boolean running;
+
+    // counters, written by the transport thread only
+    private volatile long messagesSent;
+    private volatile long messagesReceived;
+    private volatile long messagesDropped;
+    private volatile long framesRejected;
+    private volatile long handlerErrors;
+    private volatile long bytesSent;
+    private volatile long writeCalls;
+
+    /**
+     * This method opens the listening sockets of all peers in one process, on ports chosen by the system.
+     *
+     * @param peerCount number of peers
+     * @param handler   handles the messages that arrive at the peers
+     */
+    public LoopbackTransport(int peerCount, PeerHandler handler) throws IOException {
+        this(peerCount, 0, 0, peerCount, handler);
+    }
+
+    /**
+     * This method opens the listening sockets of the local peers.
+     *
+     * @param peerCount  number of peers in the ring
+     * @param basePort   peer i listens on basePort + i. 0 lets the system choose the ports, which only works if all
+     *                   peers are local
+     * @param firstLocal first peer hosted by this process
+     * @param localCount number of peers hosted by this process
+     * @param handler    handles the messages that arrive at the local peers
+     */
+    public LoopbackTransport(int peerCount, int basePort, int firstLocal, int localCount, PeerHandler handler)
+            throws IOException {
+        if (firstLocal < 0 || localCount < 1 || firstLocal + localCount > peerCount) {
+            throw new IllegalArgumentException("local peers " + firstLocal + " to " + (firstLocal + localCount - 1) +
+                    " are not in the ring of " + peerCount + " peers");
+        }
+        if (basePort == 0 && localCount != peerCount) {
+            throw new IllegalArgumentException("peers in other processes need a base port");
+        }
+        if (basePort != 0 && basePort + peerCount - 1 > 0xFFFF) {
+            throw new IllegalArgumentException("the ports of " + peerCount + " peers from " + basePort +
+                    " do not fit in the port range");
+        }
+        this.peerCount = peerCount;
+        this.firstLocal = firstLocal;
+        this.localCount = localCount;
+        this.handler = handler;
+        this.connections = new Connection[peerCount];
+        this.ports = new int[peerCount];
+        this.servers = new ServerSocketChannel[localCount];
+        this.selector = Selector.open();
+        try {
+            for (int i = 0; i < peerCount; i++) {
+                ports[i] = basePort == 0 ? 0 : basePort + i;
+            }
+            for (int i = 0; i < localCount; i++) {
+                int peer = firstLocal + i;
+                ServerSocketChannel server = ServerSocketChannel.open();
+                servers[i] = server;
+                server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), ports[peer]), 1024);
+                server.configureBlocking(false);
+                server.register(selector, SelectionKey.OP_ACCEPT, peer);
+                ports[peer] = ((InetSocketAddress) server.getLocalAddress()).getPort();
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+    }
+
+    /**
+     * starts the transport thread
+     */
+    public void start() {
+        running = true;
+        thread = new Thread(this::run, "loopback-transport");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * This method waits until the peers of the other processes accept connections.
+     *
+     * @param timeoutMillis how long to wait at most
+     * @throws IOException if a peer cannot be reached in time
+     */
+    public void awaitPeers(long timeoutMillis) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (int peer = 0; peer < peerCount; peer++) {
+            if (isLocal(peer)) continue;
+            while (true) {
+                try {
+                    SocketChannel.open(address(peer)).close();
+                    break;
+                } catch (IOException e) {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw new IOException("peer " + peer + " does not accept connections on port " + ports[peer], e);
+                    }
+                    try {
+                        Thread.sleep(RETRY_MILLIS);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("interrupted while waiting for peer " + peer, interrupted);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * runs a task on the transport thread
+     * @param task the task, eg:- sending the first message of a lookup
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * @return true if the calling thread is the transport thread
+     */
+    public boolean inTransportThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * This method sends a message to a peer. The message is encoded right away, so it can be changed after the call.
+     * It must be called on the transport thread.
+     *
+     * @param to      ring ordinal of the destination peer
+     * @param message the message
+     */
+    public void send(int to, PeerMessage message) {
+        Connection connection = connections[to];
+        if (connection == null) {
+            connection = connect(to);
+            if (connection == null) {
+                messagesDropped++;
+                return;
+            }
+        }
+        ByteBuffer tail = connection.writes.peekLast();
+        if (tail == null || tail.remaining() < PeerMessage.MAX_FRAME_SIZE) {
+            tail = pool.acquire();
+            connection.writes.addLast(tail);
+        }
+        bytesSent += message.encode(tail);
+        messagesSent++;
+        if (!connection.dirty) {
+            connection.dirty = true;
+            dirty.add(connection);
+        }
+    }
+
+    private Connection connect(int to) {
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel, to);
+            connection.connected = channel.connect(address(to));
+            channel.register(selector, connection.connected ? 0 : SelectionKey.OP_CONNECT, connection);
+            connections[to] = connection;
+            return connection;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private InetSocketAddress address(int peer) {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), ports[peer]);
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept((ServerSocketChannel) key.channel(), (Integer) key.attachment());
+                    } else if (key.isConnectable()) {
+                        finishConnect((Connection) key.attachment());
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable()) read(connection);
+                        if (key.isValid() && key.isWritable()) write(connection);
+                    }
+                }
+                selector.selectedKeys().clear();
+                flush();
+            }
+        } catch (IOException e) {
+            if (running) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel server, int peer) throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel, peer);
+            connection.connected = true;
+            connection.read = pool.acquire();
+            channel.register(selector, SelectionKey.OP_READ, connection);
+            accepted.add(connection);
+        }
+    }
+
+    private void finishConnect(Connection connection) {
+        try {
+            if (connection.channel.finishConnect()) {
+                connection.connected = true;
+                connection.channel.register(selector, 0, connection);
+                if (!connection.dirty && !connection.writes.isEmpty()) {
+                    connection.dirty = true;
+                    dirty.add(connection);
+                }
+            }
+        } catch (IOException e) {
+            // the peer is gone, its messages are lost like the messages to a failed node
+            drop(connection);
+        }
+    }
+
+    // reads the frames that have arrived and hands them to the handler
+    private void read(Connection connection) {
+        ByteBuffer buffer = connection.read;
+        int count;
+        try {
+            count = connection.channel.read(buffer);
+        } catch (IOException e) {
+            count = -1;
+        }
+        if (count < 0) {
+            close(connection);
+            accepted.remove(connection);
+            return;
+        }
+        buffer.flip();
+        try {
+            while (incoming.decode(buffer)) {
+                messagesReceived++;
+                receive(connection.peer);
+            }
+        } catch (IllegalArgumentException e) {
+            // the rest of the stream cannot be framed any more, so the sender has to connect again
+            framesRejected++;
+            close(connection);
+            accepted.remove(connection);
+            return;
+        }
+        buffer.compact();
+    }
+
+    // hands the decoded message to the handler. a failing message must not stop the other peers
+    private void receive(int peer) {
+        try {
+            handler.receive(peer, incoming, this);
+        } catch (RuntimeException e) {
+            handlerErrors++;
+        }
+    }
+
+    private void flush() {
+        for (int i = 0; i < dirty.size(); i++) {
+            Connection connection = dirty.get(i);
+            connection.dirty = false;
+            if (connection.connected) {
+                write(connection);
+            }
+        }
+        dirty.clear();
+    }
+
+    // writes the waiting buffers until the socket does not take more, then waits for OP_WRITE
+    private void write(Connection connection) {
+        try {
+            while (!connection.writes.isEmpty()) {
+                ByteBuffer buffer = connection.writes.peekFirst();
+                buffer.flip();
+                connection.channel.write(buffer);
+                writeCalls++;
+                if (buffer.hasRemaining()) {
+                    buffer.compact();
+                    connection.channel.register(selector, SelectionKey.OP_WRITE, connection);
+                    return;
+                }
+                pool.release(connection.writes.pollFirst());
+            }
+            connection.channel.register(selector, 0, connection);
+        } catch (IOException e) {
+            drop(connection);
+        }
+    }
+
+    // closes an outgoing connection and drops its messages. the next message to the peer opens a new connection
+    private void drop(Connection connection) {
+        for (ByteBuffer buffer : connection.writes) {
+            pool.release(buffer);
+        }
+        connection.writes.clear();
+        messagesDropped++;
+        close(connection);
+        if (connections[connection.peer] == connection) {
+            connections[connection.peer] = null;
+        }
+    }
+
+    private void close(Connection connection) {
+        try {
+            connection.channel.close();
+        } catch (IOException ignored) {
+            // the connection is given up anyway
+        }
+        if (connection.read != null) {
+            pool.release(connection.read);
+            connection.read = null;
+        }
+    }
+
+    /**
+     * @param peer ring ordinal of a peer
+     * @return true if the peer is hosted by this process
+     */
+    public boolean isLocal(int peer) {
+        return peer >= firstLocal && peer < firstLocal + localCount;
+    }
+
+    /**
+     * @return ring ordinal of the first peer hosted by this process
+     */
+    public int getFirstLocal() {
+        return firstLocal;
+    }
+
+    /**
+     * @return number of peers hosted by this process
+     */
+    public int getLocalCount() {
+        return localCount;
+    }
+
+    /**
+     * @return number of peers in the ring
+     */
+    public int getPeerCount() {
+        return peerCount;
+    }
+
+    /**
+     * @param peer ring ordinal of a peer
+     * @return port the peer listens on, 0 if it is hosted by another process and no base port is set
+     */
+    public int getPort(int peer) {
+        return ports[peer];
+    }
+
+    public long getMessagesSent() {
+        return messagesSent;
+    }
+
+    public long getMessagesReceived() {
+        return messagesReceived;
+    }
+
+    /**
+     * @return number of messages that could not be sent, because the connection to the peer failed
+     */
+    public long getMessagesDropped() {
+        return messagesDropped;
+    }
+
+    /**
+     * @return number of frames that could not be decoded. each of them has closed its connection
+     */
+    public long getFramesRejected() {
+        return framesRejected;
+    }
+
+    /**
+     * @return number of messages whose handler has thrown an exception
+     */
+    public long getHandlerErrors() {
+        return handlerErrors;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return number of write system calls, lower than the number of messages when messages share a write
+     */
+    public long getWriteCalls() {
+        return writeCalls;
+    }
+
+    /**
+     * @return number of direct buffers the transport has allocated
+     */
+    public int getBuffersAllocated() {
+        return pool.getAllocated();
+    }
+
+    /**
+     * stops the transport thread and closes all sockets
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        closeChannels();
+    }
+
+    private void closeChannels() throws IOException {
+        for (Connection connection : connections) {
+            if (connection != null) close(connection);
+        }
+        for (Connection connection : accepted) {
+            close(connection);
+        }
+        for (ServerSocketChannel server : servers) {
+            if (server != null) server.close();
+        }
+        selector.close();
+    }
+}
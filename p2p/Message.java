@@ -0,0 +1,25 @@
+package p2p;
+
+/**
+ * A message sent between two nodes in the discrete event simulation. The payload is defined by the protocol that
+ * sends the message (eg:- a chord lookup request).
+ */
+public class Message {
+    // what the message is for. the meaning of the values is defined by the protocol
+    public final int type;
+    // node that sends the message
+    public final NodeInterface from;
+    // node that receives the message
+    public final NodeInterface to;
+    // protocol specific content of the message
+    public final Object payload;
+    // virtual time at which the message has been sent
+    public double sendTime;
+
+    public Message(int type, NodeInterface from, NodeInterface to, Object payload) {
+        this.type = type;
+        this.from = from;
+        this.to = to;
+        this.payload = payload;
+    }
+}
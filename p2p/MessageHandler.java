@@ -0,0 +1,15 @@
+package p2p;
+
+/**
+ * Receives the messages that the event scheduler delivers to the nodes. The protocol implements the handler, so it
+ * decides what a node does when a message arrives (eg:- forward a lookup to the next node).
+ */
+public interface MessageHandler {
+
+    /**
+     * handles a message that has arrived at message.to
+     * @param message   the message
+     * @param scheduler the scheduler, used to send new messages and to read the virtual clock
+     */
+    void handle(Message message, EventScheduler scheduler);
+}
@@ -2,7 +2,6 @@ package p2p;
 
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
 /**
  * This class simulates the nodes in the network. Each node has a name, id, neighbors (set of other nodes), routing
  * table and data.
@@ -12,22 +11,36 @@ public class Node implements NodeInterface{
     public String name;
 
     // id of the node. example: chord uses node indexes. this can represent node index.
-    public int id;
+    public long id;
 
     public HashMap<String, NodeInterface> neighbors;
 
+    // next and previous node in the ring. set by the protocol when it builds the overlay
+    public NodeInterface successor;
+    public NodeInterface predecessor;
+
+    // the next r nodes in the ring, starting with the successor
+    public NodeInterface[] successorList;
+
     // this routing table can be used to implement different routing tables used in the protocol
     // for example finger table used by chord protocol can be populated in the routing table
     public Object routingTable;
 
-    // this data can store set of objects. For example, key indexes used in the chord protocol can be stored here
-    public LinkedHashSet<Object> data;
+    // this data stores the key indexes used in the chord protocol in a sorted primitive key store
+    public KeyStore data;
+
+    // copies of the keys of other nodes, created when the first replica is stored
+    public KeyStore replicas;
+
+    // false when the node has failed
+    public boolean alive = true;
 
     public Node(String name) {
         this.id = -1;
         this.name = name;
-        this.data = new LinkedHashSet<>();
+        this.data = new KeyStore();
         this.neighbors= new HashMap<String, NodeInterface>();
+        this.successorList = new NodeInterface[0];
     }
 
     public String getName() {
@@ -39,6 +52,14 @@ public class Node implements NodeInterface{
     }
 
     public int getId(){
+        return (int) this.id;
+    }
+
+    public void setLongId(long id){
+        this.id = id;
+    }
+
+    public long getLongId(){
         return this.id;
     }
 
@@ -47,13 +68,31 @@ public class Node implements NodeInterface{
     }
 
     public void addData(Object data) {
-        this.data.add(data);
+        if (!(data instanceof Number)) {
+            throw new IllegalArgumentException("node data must be a key index, was " + data);
+        }
+        this.data.add(((Number) data).longValue());
     }
 
     public void removeData(Object data){
         this.data.remove(data);
     }
 
+    public Object getReplicas() {
+        if (this.replicas == null) {
+            this.replicas = new KeyStore();
+        }
+        return this.replicas;
+    }
+
+    public boolean isAlive() {
+        return this.alive;
+    }
+
+    public void setAlive(boolean alive) {
+        this.alive = alive;
+    }
+
     public Collection<NodeInterface> getNeighbors(){
         return  this.neighbors.values();
     }
@@ -79,12 +118,38 @@ public class Node implements NodeInterface{
     }
 
     public NodeInterface getSuccessor(){
-        return this.neighbors.entrySet().iterator().next().getValue();
+        if (this.successor != null) {
+            return this.successor;
+        }
+        if (this.neighbors.isEmpty()) {
+            return null;
+        }
+        return this.neighbors.values().iterator().next();
+    }
+
+    public void setSuccessor(NodeInterface node){
+        this.successor = node;
+    }
+
+    public NodeInterface getPredecessor(){
+        return this.predecessor;
+    }
+
+    public void setPredecessor(NodeInterface node){
+        this.predecessor = node;
+    }
+
+    public NodeInterface[] getSuccessorList(){
+        return this.successorList;
+    }
+
+    public void setSuccessorList(NodeInterface[] successors){
+        this.successorList = successors;
     }
 
     public void print() {
         System.out.print("Node : " + this.getName());
-        System.out.print("\tIndex: " + this.getId());
+        System.out.print("\tIndex: " + this.getLongId());
         Collection<NodeInterface> neighbors = this.getNeighbors();
         System.out.print("\tNeighbors: ");
         for (NodeInterface node : neighbors) {
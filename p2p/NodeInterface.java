@@ -10,7 +10,8 @@ public interface NodeInterface {
 
     /**
      *
-     * @return the id of the node (eg:-  chord uses node indexes. this can represent node index.)
+     * @return the id of the node (eg:-  chord uses node indexes. this can represent node index.) Ids that do not fit
+     * in an int (m > 31) are truncated, getLongId() should be used for them.
      */
     int getId();
 
@@ -20,6 +21,18 @@ public interface NodeInterface {
      */
     void setId(int id);
 
+    /**
+     *
+     * @return the full 64 bit id of the node
+     */
+    long getLongId();
+
+    /**
+     * sets the 64 bit id of the node. used when the identifier is longer than 31 bits.
+     * @param id node id
+     */
+    void setLongId(long id);
+
     /**
      * Node consists of set of neighbors. It returns the corresponding neighbor given the name of the neighbor.
      * @param name name of the neighbor
@@ -34,6 +47,12 @@ public interface NodeInterface {
      */
     void addNeighbor(String name, NodeInterface node);
 
+    /**
+     * removes a neighbor from the node.
+     * @param name name of the neighbor
+     */
+    void removeNeighbor(String name);
+
     /**
      * @return all the neighbors of the node
      */
@@ -59,13 +78,44 @@ public interface NodeInterface {
     Object getRoutingTable();
 
     /**
-     * It returns the successor of the node. The successor is the first neighbor that's added to it. Neighbors are
-     * ordered based on the order in which they have connected with this node.
+     * It returns the successor of the node. If the successor has been set with setSuccessor() it is returned directly,
+     * otherwise the successor is the first neighbor that's added to it. Neighbors are ordered based on the order in
+     * which they have connected with this node.
      *
      * @return nighbor node object
      */
     NodeInterface getSuccessor();
 
+    /**
+     * sets the successor of the node (the next node in the ring)
+     * @param node successor node object
+     */
+    void setSuccessor(NodeInterface node);
+
+    /**
+     * @return the predecessor of the node (the previous node in the ring), or null if it has not been set
+     */
+    NodeInterface getPredecessor();
+
+    /**
+     * sets the predecessor of the node (the previous node in the ring)
+     * @param node predecessor node object
+     */
+    void setPredecessor(NodeInterface node);
+
+    /**
+     * It returns the successor list of the node: the next r nodes in the ring, starting with the successor.
+     *
+     * @return successor list, or an empty array if it has not been set
+     */
+    NodeInterface[] getSuccessorList();
+
+    /**
+     * sets the successor list of the node
+     * @param successors the next r nodes in the ring, starting with the successor
+     */
+    void setSuccessorList(NodeInterface[] successors);
+
     /**
      * This method adds data to the node. Nodes can store different data depending on the usage. Different protocols
      * might use nodes to store and retrieve different amount of node. (eg:- in chord protocol, node stores the data
@@ -83,10 +133,29 @@ public interface NodeInterface {
      * the data items which are indexed using consistent hashing). Generic object is used to represent data. so parsing
      * the data should be done at the protocol's side which provides implementation of the data.
      *
-     * @return data object
+     * @return data object (Node returns its KeyStore)
      */
     Object getData();
 
+    /**
+     * This method returns the keys the node stores as copies of the keys of other nodes (eg:- in chord protocol, the
+     * keys of the nodes it follows in the ring), so they can still be found when those nodes fail.
+     *
+     * @return replica object (Node returns a KeyStore)
+     */
+    Object getReplicas();
+
+    /**
+     * @return false if the node has failed. a failed node keeps its place in the ring, but it does not answer messages
+     */
+    boolean isAlive();
+
+    /**
+     * marks the node as failed or recovered
+     * @param alive false to make the node fail, true to recover it
+     */
+    void setAlive(boolean alive);
+
     /**
      * This method prints the following information of the nodes
      * 1) name - name of the node
@@ -0,0 +1,17 @@
+package p2p;
+
+/**
+ * Receives the messages that the loopback transport reads from the sockets of the local peers. Like MessageHandler,
+ * the protocol implements it and decides what a peer does with a message. The handler is called on the thread of the
+ * transport.
+ */
+public interface PeerHandler {
+
+    /**
+     * handles a message that has arrived at a local peer
+     * @param peer      ring ordinal of the peer that has received the message
+     * @param message   the message. it is reused for the next message, so it must not be kept
+     * @param transport the transport, used to send new messages
+     */
+    void receive(int peer, PeerMessage message, LoopbackTransport transport);
+}
@@ -0,0 +1,175 @@
+package p2p;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A message between two peers that run on the loopback transport (see LoopbackTransport). Unlike Message, which is
+ * passed by reference inside the event scheduler, a peer message is written to a socket, so it only holds primitive
+ * fields and peers are identified by their ring ordinal. The object is mutable: the transport decodes every incoming
+ * frame into the same object, and a handler may change it and send it on.
+ *
+ * A frame is an unsigned short with the length of the rest of the frame, followed by the type (byte), the request id
+ * (long) and the fields of the type, all big endian:
+ *      LOOKUP          origin peer (int), key index (long), hops (short), route (int per hop) - forwarded until it
+ *                      reaches the owner, every peer on the way appends itself to the route
+ *      LOOKUP_RESULT   owner peer (int), key index (long), hops (short), route (int per hop)  - sent to the origin,
+ *                      owner -1 if it failed
+ *      FIND_SUCCESSOR  sender peer (int), id (long)                        - asks a peer for the next node of the id
+ *      SUCCESSOR       peer (int), index (byte)                            - answer, index 1 if the peer owns the id
+ *      GET_FINGER      sender peer (int), index (byte)                     - asks a peer for a finger successor
+ *      FINGER          peer (int), index (byte)                            - answer with the successor of the finger
+ * Fields that a later version appends to a type are skipped. A frame of an unknown type or longer than MAX_FRAME_SIZE
+ * cannot be read, and decode() rejects it.
+ */
+public class PeerMessage {
+    // message types
+    public static final byte LOOKUP = 0;
+    public static final byte LOOKUP_RESULT = 1;
+    public static final byte FIND_SUCCESSOR = 2;
+    public static final byte SUCCESSOR = 3;
+    public static final byte GET_FINGER = 4;
+    public static final byte FINGER = 5;
+
+    // longest route a lookup can take, a lookup that needs more hops fails
+    public static final int MAX_ROUTE = 64;
+
+    // largest frame, including the length
+    public static final int MAX_FRAME_SIZE = 2 + 1 + 8 + 4 + 8 + 2 + 4 * MAX_ROUTE;
+
+    public byte type;
+    // chosen by the peer that starts a request and copied into the answer
+    public long requestId;
+    // origin, sender, owner or answered peer, depending on the type
+    public int peer;
+    // key index or id
+    public long key;
+    public int hops;
+    // ring ordinals of the peers that forwarded a lookup. only the first 'hops' entries are used
+    public final int[] route = new int[MAX_ROUTE];
+    // finger index, or 1 if the answered peer owns the id
+    public int index;
+
+    /**
+     * sets all fields of the message
+     * @return the message
+     */
+    public PeerMessage set(byte type, long requestId, int peer, long key, int hops, int index) {
+        this.type = type;
+        this.requestId = requestId;
+        this.peer = peer;
+        this.key = key;
+        this.hops = hops;
+        this.index = index;
+        return this;
+    }
+
+    /**
+     * This method writes the message as one frame.
+     *
+     * @param buffer buffer with at least MAX_FRAME_SIZE bytes remaining
+     * @return number of bytes written
+     */
+    public int encode(ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.position(start + 2);
+        buffer.put(type).putLong(requestId).putInt(peer);
+        switch (type) {
+            case LOOKUP:
+            case LOOKUP_RESULT:
+                buffer.putLong(key).putShort((short) hops);
+                for (int i = 0; i < hops; i++) {
+                    buffer.putInt(route[i]);
+                }
+                break;
+            case FIND_SUCCESSOR:
+                buffer.putLong(key);
+                break;
+            case SUCCESSOR:
+            case GET_FINGER:
+            case FINGER:
+                buffer.put((byte) index);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown message type " + type);
+        }
+        int length = buffer.position() - start;
+        buffer.putShort(start, (short) (length - 2));
+        return length;
+    }
+
+    /**
+     * This method reads the next frame from the buffer into this message. If the buffer does not hold the whole frame
+     * yet, nothing is read.
+     *
+     * @param buffer buffer in read mode
+     * @return true if a frame has been read
+     * @throws IllegalArgumentException if the frame is longer than MAX_FRAME_SIZE, has an unknown type or is too short
+     *                                  for the fields of its type. the buffer is then left at an undefined position
+     */
+    public boolean decode(ByteBuffer buffer) {
+        if (buffer.remaining() < 2) {
+            return false;
+        }
+        int length = buffer.getShort(buffer.position()) & 0xFFFF;
+        if (2 + length > MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("frame of " + (2 + length) + " bytes is longer than " + MAX_FRAME_SIZE);
+        }
+        if (buffer.remaining() < 2 + length) {
+            return false;
+        }
+        int end = buffer.position() + 2 + length;
+        int limit = buffer.limit();
+        buffer.position(buffer.position() + 2);
+        // the fields are read up to the end of the frame only
+        buffer.limit(end);
+        try {
+            readFields(buffer);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("frame of " + (2 + length) + " bytes is too short for its fields");
+        } finally {
+            buffer.limit(limit);
+        }
+        // fields that a later version appends to a known type are skipped
+        buffer.position(end);
+        return true;
+    }
+
+    private void readFields(ByteBuffer buffer) {
+        type = buffer.get();
+        requestId = buffer.getLong();
+        peer = buffer.getInt();
+        key = 0;
+        hops = 0;
+        index = 0;
+        switch (type) {
+            case LOOKUP:
+            case LOOKUP_RESULT:
+                key = buffer.getLong();
+                hops = buffer.getShort() & 0xFFFF;
+                if (hops > MAX_ROUTE) {
+                    throw new IllegalArgumentException("route of " + hops + " hops is longer than " + MAX_ROUTE);
+                }
+                for (int i = 0; i < hops; i++) {
+                    route[i] = buffer.getInt();
+                }
+                break;
+            case FIND_SUCCESSOR:
+                key = buffer.getLong();
+                break;
+            case SUCCESSOR:
+            case GET_FINGER:
+            case FINGER:
+                index = buffer.get() & 0xFF;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown message type " + type);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "type: " + type + "\trequest: " + requestId + "\tpeer: " + peer + "\tkey: " + key +
+                "\thops: " + hops + "\tindex: " + index;
+    }
+}
@@ -0,0 +1,59 @@
+package p2p;
+
+/**
+ * One of the ring positions of a physical node when the overlay uses virtual nodes. Each virtual node has its own id,
+ * finger table, ring links and range of the ring, but it has the name of its physical node and its keys are stored in
+ * the physical node, so lookups that end at a virtual node resolve to the physical node.
+ *
+ * The data of a virtual node is a key store that only holds its range (see KeyStore.setRange()), so the lookup can
+ * decide which virtual node owns a key.
+ */
+public class VirtualNode extends Node {
+    // node that holds the keys of this position
+    public final NodeInterface physical;
+
+    // index of this position among the positions of the physical node, 0 is the position of the physical node itself
+    public final int replica;
+
+    public VirtualNode(NodeInterface physical, int replica) {
+        super(physical.getName());
+        this.physical = physical;
+        this.replica = replica;
+    }
+
+    /**
+     * @param name    name of the physical node
+     * @param replica index of the position
+     * @return name that is hashed to place the position on the ring. position 0 uses the name of the node, so it has
+     * the same id as the node without virtual nodes
+     */
+    public static String replicaName(String name, int replica) {
+        return replica == 0 ? name : name + "#" + replica;
+    }
+
+    /**
+     * the keys are stored in the physical node
+     */
+    @Override
+    public void addData(Object data) {
+        physical.addData(data);
+    }
+
+    /**
+     * a position fails together with its physical node
+     */
+    @Override
+    public boolean isAlive() {
+        return physical.isAlive();
+    }
+
+    @Override
+    public void print() {
+        System.out.print("Virtual node : " + replicaName(getName(), replica));
+        System.out.print("\tIndex: " + getLongId());
+        if (routingTable != null) {
+            System.out.print("\t" + routingTable.toString());
+        }
+        System.out.println();
+    }
+}
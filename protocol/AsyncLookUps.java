@@ -0,0 +1,211 @@
+package protocol;
+
+import p2p.NodeInterface;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class pipelines asynchronous lookups (see Protocol.lookUpAsync()). The lookups are carried out by a
+ * LookUpService, and a window bounds how many of them are in flight at the same time: lookUp() blocks while the window
+ * is full, so a client that starts lookups faster than the service answers them is slowed down to its pace
+ * (backpressure), and tryLookUp() returns null instead of blocking. Every lookup has a timeout. When it expires the
+ * future completes with a TimeoutException and the lookup gives up its place in the window; its response is ignored
+ * if it arrives later.
+ *
+ * The futures complete on the threads of the service (eg:- the transport thread), after the place in the window has
+ * been given back. Actions that depend on them should be short and must not wait for the window with lookUp(), since
+ * the thread they block may be the one that completes the lookups; they can start the next lookup with tryLookUp().
+ */
+public class AsyncLookUps {
+    // window and timeout of ChordProtocol.lookUpAsync() when no AsyncLookUps has been set
+    public static final int DEFAULT_WINDOW = 1024;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    private final LookUpService service;
+    private final int window;
+    private final long timeoutMillis;
+    private final Semaphore permits;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final LongAdder found = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder totalHops = new LongAdder();
+
+    /**
+     * @param service       carries out the lookups
+     * @param window        number of lookups that can be in flight at the same time
+     * @param timeoutMillis time after which a lookup that has not been answered fails with a TimeoutException
+     */
+    public AsyncLookUps(LookUpService service, int window, long timeoutMillis) {
+        if (window < 1 || timeoutMillis < 1) {
+            throw new IllegalArgumentException("window and timeout must be positive: " + window + ", " + timeoutMillis);
+        }
+        this.service = service;
+        this.window = window;
+        this.timeoutMillis = timeoutMillis;
+        this.permits = new Semaphore(window);
+    }
+
+    /**
+     * This method starts a lookup. If the window is full, it waits until a lookup in flight has completed.
+     *
+     * @param origin   node the lookup starts from
+     * @param keyIndex index of the key
+     * @return future that completes with the response, with null if the lookup has failed, or exceptionally with a
+     * TimeoutException. if the calling thread is interrupted while waiting, the future fails with the
+     * InterruptedException
+     */
+    public CompletableFuture<LookUpResponse> lookUp(NodeInterface origin, long keyIndex) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        return start(origin, keyIndex);
+    }
+
+    /**
+     * This method starts a lookup if the window is not full.
+     *
+     * @param origin   node the lookup starts from
+     * @param keyIndex index of the key
+     * @return future like lookUp(), or null if the window is full
+     */
+    public CompletableFuture<LookUpResponse> tryLookUp(NodeInterface origin, long keyIndex) {
+        return permits.tryAcquire() ? start(origin, keyIndex) : null;
+    }
+
+    private CompletableFuture<LookUpResponse> start(NodeInterface origin, long keyIndex) {
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        CompletableFuture<LookUpResponse> result = new CompletableFuture<>();
+        result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        // the client gets a dependent future, so its actions run after the place in the window is free
+        CompletableFuture<LookUpResponse> client = result.whenComplete(this::complete);
+        try {
+            service.lookUp(origin, keyIndex, result);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return client;
+    }
+
+    // counts a completed lookup and gives back its place in the window
+    private void complete(LookUpResponse response, Throwable error) {
+        if (error instanceof TimeoutException) {
+            timedOut.increment();
+        } else if (response == null) {
+            failed.increment();
+        } else {
+            found.increment();
+            totalHops.add(response.peers_looked_up.size());
+        }
+        inFlight.decrementAndGet();
+        permits.release();
+    }
+
+    /**
+     * This method waits until all lookups that have been started are completed.
+     *
+     * @param timeoutMillis how long to wait at most
+     * @return true if no lookup is in flight any more
+     */
+    public boolean awaitCompletion(long timeoutMillis) throws InterruptedException {
+        if (!permits.tryAcquire(window, timeoutMillis, TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+        permits.release(window);
+        return true;
+    }
+
+    /**
+     * @return number of lookups that can be in flight at the same time
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * @return time in milliseconds after which a lookup fails with a TimeoutException
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @return number of lookups in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return largest number of lookups that have been in flight at the same time
+     */
+    public int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    /**
+     * @return number of lookups that have found the node that stores the key
+     */
+    public long getFound() {
+        return found.sum();
+    }
+
+    /**
+     * @return number of lookups that have been answered without the node that stores the key, or have failed with an
+     * error other than a timeout
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return number of lookups that have not been answered in time
+     */
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    /**
+     * @return average hop count of the lookups that have found the node that stores the key
+     */
+    public double getAverageHops() {
+        long lookups = found.sum();
+        return lookups == 0 ? 0 : (double) totalHops.sum() / lookups;
+    }
+
+    /**
+     * @param runTime wall clock time of the lookups in nanoseconds
+     * @return summary of the completed lookups as output lines
+     */
+    public List<String> report(long runTime) {
+        return report("async", runTime);
+    }
+
+    /**
+     * @param name    name of the lookups at the start of the lines (eg:- "actor")
+     * @param runTime wall clock time of the lookups in nanoseconds
+     * @return summary of the completed lookups as output lines
+     */
+    public List<String> report(String name, long runTime) {
+        long completed = getFound() + getFailed() + getTimedOut();
+        List<String> lines = new ArrayList<>();
+        lines.add("\n" + name + " lookups: " + getFound() + "\tfailed: " + getFailed() + "\ttimed out: " +
+                getTimedOut() + "\twindow: " + window + "\tmax in flight: " + getMaxInFlight());
+        lines.add(String.format("%s average hop count: %s\tlookups per second: %.0f", name, getAverageHops(),
+                runTime == 0 ? 0 : completed * 1e9 / runTime));
+        return lines;
+    }
+}
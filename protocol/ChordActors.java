@@ -0,0 +1,385 @@
+package protocol;
+
+import p2p.ActorHandler;
+import p2p.ActorRuntime;
+import p2p.Message;
+import p2p.NodeInterface;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class runs the nodes of a chord ring as actors on the actor runtime (see ActorRuntime). Every node handles its
+ * own messages on its own thread and only reads or writes its own state; the client only sends the first message.
+ *      LOOKUP          forwarded with ChordProtocol.nextHop() until it reaches the node that stores the key, like in
+ *                      LookUpSimulation. the owner sends a RESULT with the route to the origin, which completes the
+ *                      future of the lookup
+ *      JOIN            a new node asks a node of the ring for its place. the request is forwarded like a lookup for
+ *                      the id of the new node, and its successor splices it into the ring with ChordProtocol.join()
+ *      LEAVE           the node leaves the ring with ChordProtocol.leave()
+ *      STABILIZE       the node skips failed successors with its successor list, asks its successor for its
+ *                      predecessor (GET_PREDECESSOR, PREDECESSOR) and takes it as successor if it lies between them.
+ *                      then it notifies its successor (NOTIFY), which takes the node as predecessor if it is closer
+ *                      than the one it has
+ *
+ * join() and leave() change the ring index and repair the fingers of other nodes, so they run exclusively
+ * (ActorRuntime.exclusive()) while the other actors wait. As a LookUpService the actors carry out the lookups of an
+ * AsyncLookUps pipeline.
+ */
+public class ChordActors implements ActorHandler, LookUpService, Closeable {
+    // message types
+    public static final int LOOKUP = 0;
+    public static final int RESULT = 1;
+    public static final int JOIN = 2;
+    public static final int LEAVE = 3;
+    public static final int STABILIZE = 4;
+    public static final int GET_PREDECESSOR = 5;
+    public static final int PREDECESSOR = 6;
+    public static final int NOTIFY = 7;
+
+    // state of a lookup or a join, carried by its messages
+    private static final class Request {
+        final long keyIndex;
+        final NodeInterface origin;
+        // node the client has started the lookup from. with virtual nodes it is the physical node of the origin, which
+        // stores the keys of all its positions
+        NodeInterface entry;
+        final CompletableFuture<LookUpResponse> result;
+        // the node that joins and the number of fingers its join has written, for a JOIN
+        final NodeInterface joining;
+        final CompletableFuture<Integer> joined;
+        final ArrayList<NodeInterface> route = new ArrayList<>();
+        NodeInterface owner;
+
+        Request(long keyIndex, NodeInterface origin, CompletableFuture<LookUpResponse> result,
+                NodeInterface joining, CompletableFuture<Integer> joined) {
+            this.keyIndex = keyIndex;
+            this.origin = origin;
+            this.result = result;
+            this.joining = joining;
+            this.joined = joined;
+        }
+    }
+
+    // a stabilization round, done when every node has notified its successor
+    private static final class Round {
+        final AtomicInteger remaining;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Round(int nodes) {
+            this.remaining = new AtomicInteger(nodes);
+            if (nodes == 0) done.complete(null);
+        }
+
+        void nodeDone() {
+            if (remaining.decrementAndGet() == 0) done.complete(null);
+        }
+    }
+
+    // answer to GET_PREDECESSOR
+    private static final class Predecessor {
+        final Round round;
+        final NodeInterface node;
+
+        Predecessor(Round round, NodeInterface node) {
+            this.round = round;
+            this.node = node;
+        }
+    }
+
+    private final ChordProtocol protocol;
+    private final ActorRuntime runtime;
+    private final long mask;
+
+    // links that the stabilization rounds have changed
+    private final LongAdder successorsChanged = new LongAdder();
+    private final LongAdder predecessorsChanged = new LongAdder();
+
+    /**
+     * This method gives every node of the ring a mailbox.
+     *
+     * @param protocol       protocol whose overlay network and finger tables have been built
+     * @param virtualThreads true to run the nodes on virtual threads if the JVM supports them
+     * @param parallelism    number of platform threads otherwise
+     */
+    public ChordActors(ChordProtocol protocol, boolean virtualThreads, int parallelism) {
+        this.protocol = protocol;
+        this.mask = (1L << protocol.m) - 1;
+        this.runtime = new ActorRuntime(this, virtualThreads, parallelism);
+        for (NodeInterface node : protocol.ringIndex.getNodes()) {
+            runtime.register(node);
+        }
+    }
+
+    /**
+     * @return the runtime the nodes run on
+     */
+    public ActorRuntime getRuntime() {
+        return runtime;
+    }
+
+    /**
+     * This method starts a lookup at the origin node. It can be called on any thread. With virtual nodes the mailboxes
+     * belong to the ring positions, so a physical origin starts the lookup at its position 0 (see RingIndex.ordinalOf())
+     * and the result is sent back to that position.
+     *
+     * @param origin   node the lookup starts from
+     * @param keyIndex index of the key
+     * @param result   completed on the thread of the origin with the response, or with null if the lookup has failed
+     */
+    @Override
+    public void lookUp(NodeInterface origin, long keyIndex, CompletableFuture<LookUpResponse> result) {
+        int ordinal = protocol.ringIndex.ordinalOf(origin);
+        NodeInterface start = ordinal < 0 ? origin : protocol.ringIndex.getNode(ordinal);
+        Request request = new Request(keyIndex, start, result, null, null);
+        request.entry = origin;
+        if (!runtime.send(new Message(LOOKUP, start, start, request))) {
+            result.completeExceptionally(new IllegalArgumentException(origin.getName() + " is not in the ring"));
+        }
+    }
+
+    /**
+     * This method lets a new node join the ring through a node that is already in it.
+     *
+     * @param bootstrap node of the ring the join request is sent to
+     * @param node      the new node
+     * @return future that completes with the number of fingers the join has written (see ChordProtocol.join())
+     */
+    public CompletableFuture<Integer> join(NodeInterface bootstrap, NodeInterface node) {
+        CompletableFuture<Integer> joined = new CompletableFuture<>();
+        Request request = new Request(protocol.ch.hashLong(node.getName()), node, null, node, joined);
+        if (!runtime.send(new Message(JOIN, node, bootstrap, request))) {
+            joined.completeExceptionally(new IllegalArgumentException(bootstrap.getName() + " is not in the ring"));
+        }
+        return joined;
+    }
+
+    /**
+     * This method lets a node leave the ring.
+     *
+     * @param node the node
+     * @return future that completes with the number of fingers that have been repaired (see ChordProtocol.leave())
+     */
+    public CompletableFuture<Integer> leave(NodeInterface node) {
+        CompletableFuture<Integer> left = new CompletableFuture<>();
+        if (!runtime.send(new Message(LEAVE, node, node, left))) {
+            left.completeExceptionally(new IllegalArgumentException(node.getName() + " is not in the ring"));
+        }
+        return left;
+    }
+
+    /**
+     * This method starts a stabilization round on every node of the ring.
+     *
+     * @return future that completes when every node that is alive has notified its successor
+     */
+    public CompletableFuture<Void> stabilize() {
+        NodeInterface[] nodes = protocol.ringIndex.getNodes();
+        Round round = new Round(nodes.length);
+        for (NodeInterface node : nodes) {
+            if (!runtime.send(new Message(STABILIZE, node, node, round))) {
+                round.nodeDone();
+            }
+        }
+        return round.done;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void receive(Message message, ActorRuntime runtime) {
+        NodeInterface node = message.to;
+        switch (message.type) {
+            case LOOKUP:
+            case JOIN:
+                forward(node, message.type, (Request) message.payload);
+                break;
+            case RESULT:
+                complete((Request) message.payload);
+                break;
+            case LEAVE:
+                leave(node, (CompletableFuture<Integer>) message.payload);
+                break;
+            case STABILIZE:
+                stabilize(node, (Round) message.payload);
+                break;
+            case GET_PREDECESSOR: {
+                Round round = (Round) message.payload;
+                send(PREDECESSOR, node, message.from, new Predecessor(round, node.getPredecessor()), round);
+                break;
+            }
+            case PREDECESSOR:
+                adoptSuccessor(node, message.from, (Predecessor) message.payload);
+                break;
+            case NOTIFY:
+                notified(node, message.from);
+                ((Round) message.payload).nodeDone();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown message type " + message.type);
+        }
+    }
+
+    // one routing step of a lookup or a join, the same as in LookUpSimulation.handle()
+    private void forward(NodeInterface node, int type, Request request) {
+        if (!node.isAlive()) {
+            // a failed node does not answer, the lookup times out
+            return;
+        }
+        // like lookUp(), the origin checks the keys of the node the lookup has been started from
+        NodeInterface holder = request.entry != null && node == request.origin && request.route.isEmpty()
+                ? request.entry : node;
+        NodeInterface previous = request.route.isEmpty() ? null : request.route.get(request.route.size() - 1);
+        if (protocol.isResponsible(holder, request.keyIndex)
+                || protocol.answersFromReplica(previous, node, request.keyIndex)) {
+            if (type == JOIN) {
+                splice(request);
+            } else {
+                request.owner = node;
+                runtime.send(new Message(RESULT, node, request.origin, request));
+            }
+            return;
+        }
+        NodeInterface next = protocol.nextHop(node, request.keyIndex);
+        if (next == null || next.equals(node)) {
+            // same as lookUp(): the route cannot continue
+            if (type == JOIN) {
+                request.joined.completeExceptionally(new IllegalStateException("no successor found for " +
+                        request.joining.getName()));
+            } else {
+                runtime.send(new Message(RESULT, node, request.origin, request));
+            }
+            return;
+        }
+        request.route.add(node);
+        runtime.send(new Message(type, node, next, request));
+    }
+
+    // the successor of the new node has been found
+    private void splice(Request request) {
+        runtime.exclusive(() -> {
+            try {
+                int touched = protocol.join(request.joining);
+                runtime.register(request.joining);
+                request.joined.complete(touched);
+            } catch (RuntimeException e) {
+                request.joined.completeExceptionally(e);
+            }
+        });
+    }
+
+    private void leave(NodeInterface node, CompletableFuture<Integer> left) {
+        runtime.exclusive(() -> {
+            try {
+                int touched = protocol.leave(node.getName());
+                runtime.unregister(node);
+                left.complete(touched);
+            } catch (RuntimeException e) {
+                left.completeExceptionally(e);
+            }
+        });
+    }
+
+    // completes a lookup at its origin
+    private void complete(Request request) {
+        if (request.owner == null) {
+            request.result.complete(null);
+            return;
+        }
+        LinkedHashSet<String> names = new LinkedHashSet<>();
+        for (NodeInterface node : request.route) {
+            names.add(node.getName());
+        }
+        request.result.complete(new LookUpResponse(names, request.keyIndex, request.owner.getName()));
+    }
+
+    // the first step of stabilization: skip failed successors and ask the successor for its predecessor
+    private void stabilize(NodeInterface node, Round round) {
+        NodeInterface successor = node.isAlive() ? firstAliveSuccessor(node) : null;
+        if (successor == null) {
+            round.nodeDone();
+            return;
+        }
+        if (successor != node.getSuccessor()) {
+            node.setSuccessor(successor);
+            successorsChanged.increment();
+        }
+        send(GET_PREDECESSOR, node, successor, round, round);
+    }
+
+    private NodeInterface firstAliveSuccessor(NodeInterface node) {
+        NodeInterface successor = node.getSuccessor();
+        if (successor != null && successor.isAlive()) {
+            return successor;
+        }
+        for (NodeInterface next : node.getSuccessorList()) {
+            if (next != null && next.isAlive()) {
+                return next;
+            }
+        }
+        return null;
+    }
+
+    // the predecessor of the successor becomes the successor if it lies between the node and its successor
+    private void adoptSuccessor(NodeInterface node, NodeInterface successor, Predecessor answer) {
+        NodeInterface candidate = answer.node;
+        if (candidate != null && candidate != node && candidate.isAlive()
+                && between(node.getLongId(), candidate.getLongId(), successor.getLongId())) {
+            node.setSuccessor(candidate);
+            successorsChanged.increment();
+            successor = candidate;
+        }
+        send(NOTIFY, node, successor, answer.round, answer.round);
+    }
+
+    // a node that believes it is the predecessor of this node
+    private void notified(NodeInterface node, NodeInterface candidate) {
+        NodeInterface predecessor = node.getPredecessor();
+        if (candidate == node || candidate == predecessor) {
+            return;
+        }
+        if (predecessor == null || !predecessor.isAlive()
+                || between(predecessor.getLongId(), candidate.getLongId(), node.getLongId())) {
+            node.setPredecessor(candidate);
+            predecessorsChanged.increment();
+        }
+    }
+
+    // sends a message of a stabilization round. if the node has no mailbox, the sender is done with the round
+    private void send(int type, NodeInterface from, NodeInterface to, Object payload, Round round) {
+        if (!runtime.send(new Message(type, from, to, payload))) {
+            round.nodeDone();
+        }
+    }
+
+    // true if id lies strictly between from and to, going clockwise around the ring
+    private boolean between(long from, long id, long to) {
+        long offset = (id - from) & mask;
+        return offset != 0 && Long.compareUnsigned(offset, (to - from) & mask) < 0;
+    }
+
+    /**
+     * @return number of successor links that the stabilization rounds have changed
+     */
+    public long getSuccessorsChanged() {
+        return successorsChanged.sum();
+    }
+
+    /**
+     * @return number of predecessor links that the stabilization rounds have changed
+     */
+    public long getPredecessorsChanged() {
+        return predecessorsChanged.sum();
+    }
+
+    /**
+     * stops the threads of the nodes
+     */
+    @Override
+    public void close() {
+        runtime.close();
+    }
+}
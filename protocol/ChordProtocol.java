@@ -1,13 +1,26 @@
 package protocol;
 
 import crypto.ConsistentHashing;
+import crypto.HashAlgorithm;
+import fingertable.CompactFingerTable;
 import fingertable.FingerTable;
 import fingertable.FingerTableEntry;
 import fingertable.Interval;
+import fingertable.LongFingerTable;
+import fingertable.NodeSlots;
+import fingertable.OffHeapFingerStore;
+import fingertable.OffHeapFingerTable;
+import fingertable.RoutingTable;
+import p2p.KeyStore;
 import p2p.NetworkInterface;
 import p2p.NodeInterface;
+import p2p.VirtualNode;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /**
  * This class implements the chord protocol. The protocol is tested using the custom-built simulator.
@@ -22,20 +35,73 @@ public class ChordProtocol implements Protocol {
     // consistent hashing object
     public ConsistentHashing ch;
 
+    // hash function used by the consistent hashing
+    public HashAlgorithm hashAlgorithm;
+
     // key indexes. tuples of (<key name>, <key index>)
-    public HashMap<String, Integer> keyIndexes;
+    public HashMap<String, Long> keyIndexes;
+
+    // sorted ids of the nodes in the ring. the position of a node in the index is its ordinal in the ring
+    public RingIndex ringIndex;
+
+    // slots of the nodes. the compact finger tables point to their successors through these slots
+    public NodeSlots slots;
+
+    // number of nodes from which buildFingerTable() builds the tables of different nodes in parallel
+    public static final int PARALLEL_FINGER_THRESHOLD = 4096;
+
+    // when true the finger tables are stored as CompactFingerTable (primitive arrays), otherwise as FingerTable
+    public boolean compactFingerTable = true;
+
+    // number of entries (r) in the successor list of each node
+    public int successorListSize = 3;
+
+    // routing metrics of the lookups and timings of the build phases, not collected when null
+    public LookUpMetrics metrics;
+
+    // location caches of the nodes, lookups only use the fingers when null
+    public LocationCaches locationCaches;
+
+    // number of ring positions (v) of every node. with more than one, the ring is built of virtual nodes
+    public int virtualNodes = 1;
+
+    // store of the finger tables outside the heap. when set, buildFingerTable() builds OffHeapFingerTables
+    public OffHeapFingerStore fingerStore;
+
+    // number of successors (r) the keys of every node are copied to, 0 keeps the keys only at their owner
+    public int replicas = 0;
+
+    // when true lookups route around failed nodes, otherwise a lookup fails at the first failed node on its route
+    public boolean routeAroundFailures = false;
+
+    // pipeline of the asynchronous lookups. created on the first lookUpAsync() when none has been set
+    private volatile AsyncLookUps asyncLookUps;
 
     public ChordProtocol(int m) {
+        this(m, HashAlgorithm.MD5);
+    }
+
+    public ChordProtocol(int m, HashAlgorithm hashAlgorithm) {
         this.m = m;
+        this.hashAlgorithm = hashAlgorithm;
         setHashFunction();
-        this.keyIndexes = new HashMap<String, Integer>();
+        this.keyIndexes = new HashMap<String, Long>();
     }
 
     /**
      * sets the hash function
      */
     public void setHashFunction(){
-        this.ch = new ConsistentHashing(this.m);
+        this.ch = new ConsistentHashing(this.m, this.hashAlgorithm);
+    }
+
+    /**
+     * sets the hash function used by the consistent hashing. It must be called before the overlay network is built.
+     * @param hashAlgorithm the hash function (eg:- MD5, MURMUR3, XXHASH64)
+     */
+    public void setHashFunction(HashAlgorithm hashAlgorithm){
+        this.hashAlgorithm = hashAlgorithm;
+        setHashFunction();
     }
 
     /**
@@ -50,10 +116,115 @@ public class ChordProtocol implements Protocol {
      * sets the key indexes. Those key indexes can be used to  test the lookup operation.
      * @param keyIndexes - indexes of keys
      */
-    public void setKeys(HashMap<String, Integer> keyIndexes){
+    public void setKeys(HashMap<String, Long> keyIndexes){
         this.keyIndexes = keyIndexes;
     }
 
+    /**
+     * selects the finger table implementation used by buildFingerTable()
+     * @param compactFingerTable true for CompactFingerTable, false for the list based FingerTable
+     */
+    public void setCompactFingerTable(boolean compactFingerTable) {
+        this.compactFingerTable = compactFingerTable;
+    }
+
+    /**
+     * sets the length of the successor lists built by buildOverlayNetwork()
+     * @param successorListSize number of successors (r) each node keeps
+     */
+    public void setSuccessorListSize(int successorListSize) {
+        this.successorListSize = successorListSize;
+    }
+
+    /**
+     * sets the metrics the lookups and the build phases are recorded in
+     * @param metrics the metrics, or null to stop collecting them
+     */
+    public void setMetrics(LookUpMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * sets the number of ring positions of every node. It must be called before the overlay network is built.
+     * @param virtualNodes number of virtual nodes (v) per node, 1 places every node once
+     */
+    public void setVirtualNodes(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("number of virtual nodes must be at least 1: " + virtualNodes);
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * keeps the finger tables built by buildFingerTable() in a store outside the heap, one row per node slot
+     * @param fingerStore the store, or null for finger tables on the heap
+     */
+    public void setFingerStore(OffHeapFingerStore fingerStore) {
+        if (fingerStore != null && fingerStore.getFingers() != m) {
+            throw new IllegalArgumentException("the store has " + fingerStore.getFingers() + " fingers per row, m = " + m);
+        }
+        this.fingerStore = fingerStore;
+    }
+
+    /**
+     * sets the number of successors the keys of every node are copied to by replicateKeys(). The successor lists are
+     * made at least r + 1 long: when the owner of a key has failed, the detour of a lookup starts at the predecessor
+     * of the owner, whose list has to hold the owner and all r nodes with its replicas.
+     * @param replicas number of replicas (r) of every key, 0 for no replication
+     */
+    public void setReplicas(int replicas) {
+        if (replicas < 0) {
+            throw new IllegalArgumentException("number of replicas must not be negative: " + replicas);
+        }
+        this.replicas = replicas;
+        if (replicas > 0) {
+            this.successorListSize = Math.max(successorListSize, replicas + 1);
+        }
+    }
+
+    /**
+     * selects how lookups treat failed nodes (see NodeInterface.isAlive())
+     * @param routeAroundFailures true to route around failed nodes with the lower fingers and the successor list and
+     *                            to answer from replicas, false to fail at the first failed node
+     */
+    public void setRouteAroundFailures(boolean routeAroundFailures) {
+        this.routeAroundFailures = routeAroundFailures;
+    }
+
+    /**
+     * sets the location caches that lookups use to jump straight to the owner of a key they have seen before
+     * @param locationCaches the caches, or null to route with the fingers only
+     */
+    public void setLocationCaches(LocationCaches locationCaches) {
+        this.locationCaches = locationCaches;
+    }
+
+    /**
+     * sets the pipeline that lookUpAsync() starts its lookups on
+     * @param asyncLookUps the pipeline with its service, window and timeout
+     */
+    public void setAsyncLookUps(AsyncLookUps asyncLookUps) {
+        this.asyncLookUps = asyncLookUps;
+    }
+
+    /**
+     * @return the pipeline of lookUpAsync(). if none has been set, lookups run on the common fork join pool with
+     * the default window and timeout of AsyncLookUps
+     */
+    public AsyncLookUps getAsyncLookUps() {
+        AsyncLookUps pipeline = asyncLookUps;
+        if (pipeline == null) {
+            synchronized (this) {
+                if (asyncLookUps == null) {
+                    asyncLookUps = new AsyncLookUps(lookUpService(ForkJoinPool.commonPool()),
+                            AsyncLookUps.DEFAULT_WINDOW, AsyncLookUps.DEFAULT_TIMEOUT_MILLIS);
+                }
+                pipeline = asyncLookUps;
+            }
+        }
+        return pipeline;
+    }
+
     /**
      *
      * @return the network object
@@ -77,34 +248,227 @@ public class ChordProtocol implements Protocol {
      *    for each node find the next
      *    using modulo to ensure that the ring "wraps around",
      *    ie that the last node connects back to the first node
+     * 5. links: each node gets direct successor and predecessor links and a successor list of the next r nodes
+     * 6. key ranges: each node is told the range of ids it is responsible for (predecessor id, node id]
+     * With virtual nodes the ring is built of the virtual positions instead (see buildVirtualOverlayNetwork()).
      */
     public void buildOverlayNetwork() {
+        long startTime = System.nanoTime();
+        if (virtualNodes > 1) {
+            buildVirtualOverlayNetwork();
+            invalidateCaches();
+            recordPhase("buildOverlayNetwork", startTime);
+            return;
+        }
         LinkedHashMap<String, NodeInterface> topology = this.network.getTopology();
 
         for (Map.Entry<String, NodeInterface> entry : topology.entrySet()) {
             String nodeName = entry.getKey();
-            int nodeIndex = ch.hash(nodeName); // consistent hashing
+            long nodeIndex = ch.hashLong(nodeName); // consistent hashing
             NodeInterface node = entry.getValue();
-            node.setId(nodeIndex);
+            node.setLongId(nodeIndex);
         }
 
         // sort nodes by id to ensure ring topology
         List<Map.Entry<String, NodeInterface>> sortedNodes = new ArrayList<>(topology.entrySet());
-        sortedNodes.sort(Comparator.comparingInt(entry -> entry.getValue().getId()));
+        sortedNodes.sort(Comparator.comparingLong(entry -> entry.getValue().getLongId()));
 
+        NodeInterface[] ring = new NodeInterface[sortedNodes.size()];
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = sortedNodes.get(i).getValue();
+        }
+        placeNodes(ring);
+        invalidateCaches();
+        recordPhase("buildOverlayNetwork", startTime);
+    }
+
+    /**
+     * places the nodes on the ring in the given order. The nodes must already have their ids.
+     *     1) the topology is replaced with the nodes in ring order
+     *     2) the ring index and the node slots are built
+     *     3) every node gets its successor as neighbour, its links and its key range
+     * @param ring nodes sorted by id
+     */
+    private void placeNodes(NodeInterface[] ring) {
         // clear and replace topology with sorted nodes
+        LinkedHashMap<String, NodeInterface> topology = this.network.getTopology();
         topology.clear();
-        for (Map.Entry<String, NodeInterface> entry : sortedNodes) {
-            topology.put(entry.getKey(), entry.getValue());
+        for (NodeInterface node : ring) {
+            topology.put(node.getName(), node);
         }
 
         // add neighbour to peer node
-        int nodeCount = sortedNodes.size();
+        int nodeCount = ring.length;
+        long[] ids = new long[nodeCount];
         for (int i = 0; i < nodeCount; i++) {
-            NodeInterface currentNode = sortedNodes.get(i).getValue();
-            NodeInterface nextNode = sortedNodes.get((i + 1) % nodeCount).getValue(); // ensure ring topology by wrapping around
+            ids[i] = ring[i].getLongId();
+        }
+        this.ringIndex = new RingIndex(ids, ring);
+        this.slots = new NodeSlots(ring);
+        for (int i = 0; i < nodeCount; i++) {
+            NodeInterface currentNode = ring[i];
+            NodeInterface nextNode = ring[(i + 1) % nodeCount]; // ensure ring topology by wrapping around
             currentNode.addNeighbor(nextNode.getName(), nextNode);
         }
+        for (int i = 0; i < nodeCount; i++) {
+            linkNode(i);
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            setKeyRange(i);
+        }
+    }
+
+    /**
+     * This method restores the overlay network and the finger tables from a snapshot (see OverlaySnapshot) instead of
+     * building them. The nodes are placed on the ring in the saved order with the saved ids, and the finger tables
+     * point to the saved successors, so no name is hashed, nothing is sorted and no finger is searched for.
+     *
+     * @param ring    nodes in ring order
+     * @param ids     ids of the nodes in ring order
+     * @param fingers ring ordinals of the finger successors, m per node (row i holds the fingers of node i)
+     */
+    public void restoreOverlayNetwork(NodeInterface[] ring, long[] ids, int[] fingers) {
+        requireSinglePositions();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < ring.length; i++) {
+            ring[i].setLongId(ids[i]);
+        }
+        placeNodes(ring);
+        if (fingerStore != null) {
+            fingerStore.ensureRows(slots.capacity());
+        }
+        if (ring.length >= PARALLEL_FINGER_THRESHOLD) {
+            IntStream.range(0, ring.length).parallel().forEach(ordinal -> buildFingerTable(ordinal, fingers));
+        } else {
+            for (int ordinal = 0; ordinal < ring.length; ordinal++) {
+                buildFingerTable(ordinal, fingers);
+            }
+        }
+        invalidateCaches();
+        recordPhase("restoreOverlayNetwork", startTime);
+    }
+
+    /**
+     * Builds the ring of virtual nodes. Every node gets v positions: position r is a VirtualNode with the id
+     * hash(VirtualNode.replicaName(name, r)), so position 0 has the id the node would have without virtual nodes.
+     * The positions are linked and get their key ranges like the nodes of the normal ring, and the node itself keeps
+     * the id of position 0. The nodes of the network are sorted by that id, like in the normal ring.
+     *
+     * The positions are sorted with a stable sort in the order of the topology, which is the order
+     * RingIndex.build(nodes, ch, v) uses, so positions that share an id resolve to the same owner as the key
+     * assignment.
+     */
+    private void buildVirtualOverlayNetwork() {
+        LinkedHashMap<String, NodeInterface> topology = this.network.getTopology();
+        NodeInterface[] physical = topology.values().toArray(new NodeInterface[0]);
+        int v = virtualNodes;
+        long[] ids = new long[physical.length * v];
+        NodeInterface[] positions = new NodeInterface[ids.length];
+        for (int i = 0; i < physical.length; i++) {
+            for (int r = 0; r < v; r++) {
+                VirtualNode position = new VirtualNode(physical[i], r);
+                position.setLongId(ch.hashLong(VirtualNode.replicaName(physical[i].getName(), r)));
+                positions[i * v + r] = position;
+                ids[i * v + r] = position.getLongId();
+            }
+            physical[i].setLongId(ids[i * v]);
+        }
+        this.ringIndex = RingIndex.sorted(ids, positions);
+        this.slots = new NodeSlots(ringIndex.getNodes());
+
+        List<NodeInterface> sortedNodes = new ArrayList<>(topology.values());
+        sortedNodes.sort(Comparator.comparingLong(NodeInterface::getLongId));
+        topology.clear();
+        for (NodeInterface node : sortedNodes) {
+            topology.put(node.getName(), node);
+        }
+
+        int positionCount = ringIndex.size();
+        for (int i = 0; i < positionCount; i++) {
+            NodeInterface next = ringIndex.getNode((i + 1) % positionCount);
+            ringIndex.getNode(i).addNeighbor(next.getName(), next);
+        }
+        for (int i = 0; i < positionCount; i++) {
+            linkNode(i);
+        }
+        for (int i = 0; i < positionCount; i++) {
+            setKeyRange(i);
+        }
+    }
+
+    /**
+     * With virtual nodes a node routes lookups that start at it with the finger table of its position 0.
+     */
+    private void shareRoutingTables() {
+        for (int i = 0; i < ringIndex.size(); i++) {
+            NodeInterface position = ringIndex.getNode(i);
+            if (position instanceof VirtualNode && ((VirtualNode) position).replica == 0) {
+                ((VirtualNode) position).physical.setRoutingTable(position.getRoutingTable());
+            }
+        }
+    }
+
+    // the owners of the keys may have changed, so the cached locations are dropped
+    private void invalidateCaches() {
+        if (locationCaches != null) {
+            locationCaches.invalidate();
+        }
+    }
+
+    // adds the time since startTime to the timing of the phase
+    private void recordPhase(String phase, long startTime) {
+        if (metrics != null) {
+            metrics.recordPhase(phase, System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Sets the successor, predecessor and successor list of a node from the sorted ring. The successor list holds
+     * the next r nodes (at most nodeCount - 1, so a node never lists itself unless it is alone in the ring).
+     * @param ordinal position of the node in the ring
+     */
+    private void linkNode(int ordinal) {
+        int nodeCount = ringIndex.size();
+        int listSize = Math.max(1, Math.min(successorListSize, nodeCount - 1));
+        NodeInterface node = ringIndex.getNode(ordinal);
+        node.setSuccessor(ringIndex.getNode((ordinal + 1) % nodeCount));
+        node.setPredecessor(ringIndex.getNode((ordinal - 1 + nodeCount) % nodeCount));
+
+        NodeInterface[] successors = new NodeInterface[listSize];
+        for (int j = 0; j < listSize; j++) {
+            successors[j] = ringIndex.getNode((ordinal + 1 + j) % nodeCount);
+        }
+        node.setSuccessorList(successors);
+    }
+
+    /**
+     * Sets the range of ids a node is responsible for in its key store: (predecessor id, node id]. The lookup uses
+     * the range to decide whether it has reached the node that holds the key, so it does not need to search the keys.
+     * If several nodes share the same id, the first of them in the ring owns the range and the others own nothing.
+     * A node without any other id on the ring owns the whole ring.
+     * @param ordinal position of the node in the ring
+     */
+    private void setKeyRange(int ordinal) {
+        NodeInterface node = ringIndex.getNode(ordinal);
+        if (!(node.getData() instanceof KeyStore)) {
+            return;
+        }
+        long mask = (1L << m) - 1;
+        long nodeId = node.getLongId();
+        long predecessorId = node.getPredecessor().getLongId();
+        ((KeyStore) node.getData()).setRange(predecessorId, rangeLength(ordinal, predecessorId, nodeId), mask);
+    }
+
+    /**
+     * @return number of ids (unsigned) in the range (predecessorId, nodeId] that the node at the ordinal owns
+     */
+    private long rangeLength(int ordinal, long predecessorId, long nodeId) {
+        long mask = (1L << m) - 1;
+        if (ordinal > 0 && predecessorId == nodeId) {
+            return 0; // collision, the previous node with the same id owns the range
+        }
+        long length = (nodeId - predecessorId) & mask;
+        return length == 0 ? mask + 1 : length; // only one id on the ring, the node owns everything
     }
 
     /**
@@ -119,43 +483,336 @@ public class ChordProtocol implements Protocol {
      *     3) node - first node in the ring that is responsible for indexes in the interval
      */
     public void buildFingerTable() {
+        buildFingerTable(ringIndex.size() >= PARALLEL_FINGER_THRESHOLD ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**
+     * This method builds the finger tables like buildFingerTable(), using the given pool to build the tables of
+     * different nodes in parallel. Every finger is resolved with a binary search over the sorted ring index, so the
+     * whole build takes O(N * m * log N).
+     *
+     * @param pool pool used to build the tables in parallel, or null to build them sequentially
+     */
+    public void buildFingerTable(ForkJoinPool pool) {
         System.out.println("\tBuilding the finger tables...");
-        List<NodeInterface> nodes = new ArrayList<>(this.network.getTopology().values());
-
-        // build finger table
-        for (NodeInterface node : nodes) {
-            int nodeId = node.getId();
-            FingerTable fingerTable = new FingerTable(m);
-
-            for (int i = 1; i <= m; i++) {
-                // calculate interval: (start, end)
-                // handle wrap-around case for the last entry
-                int start = (nodeId + (1 << (i - 1))) % (1 << m); // calculate starting value for entry
-                int end = (i == m) ? nodeId : ((nodeId-1) + (1 << i)) % (1 << m);
-
-                Interval interval = new Interval(start, end);
-                NodeInterface successor = findSuccessor(start, node.getSuccessor(), nodeId, m); // find successor node for starting value
-
-                if (successor != null) {
-                    FingerTableEntry entry = new FingerTableEntry(start, interval, successor);
-                    fingerTable.addEntry(entry); // add entry to finger table
-                    //System.out.println("adding entry: " + entry.toString() + " for successor " + successor.getId());
-                }
+        long startTime = System.nanoTime();
+        int nodeCount = ringIndex.size();
+        if (fingerStore != null) {
+            fingerStore.ensureRows(slots.capacity());
+        }
+
+        if (pool == null) {
+            for (int ordinal = 0; ordinal < nodeCount; ordinal++) {
+                buildFingerTable(ordinal);
             }
-            // set finger table for current node
-            node.setRoutingTable(fingerTable);
+        } else {
+            // the parallel stream runs its tasks in the pool it is submitted to
+            pool.submit(() -> IntStream.range(0, nodeCount).parallel().forEach(this::buildFingerTable)).join();
         }
+        if (virtualNodes > 1) {
+            shareRoutingTables();
+        }
+        recordPhase("buildFingerTable", startTime);
+    }
+
+    /**
+     * builds the finger table of one node and sets it as the routing table of the node
+     * @param ordinal position of the node in the ring
+     */
+    private void buildFingerTable(int ordinal) {
+        buildFingerTable(ordinal, null);
     }
 
-    private NodeInterface findSuccessor(int start, NodeInterface candidate, int nodeId, int m) {
-        int newStart = start <= nodeId ? (int) (start + Math.pow(2, m)) : start;
-        int candidateId = candidate.getId() <= nodeId ? (int) (candidate.getId() + Math.pow(2, m)) : candidate.getId();
+    /**
+     * builds the finger table of one node with the given successors
+     * @param ordinal position of the node in the ring
+     * @param fingers ring ordinals of the finger successors of all nodes (m per node), or null to find them in the
+     *                ring index
+     */
+    private void buildFingerTable(int ordinal, int[] fingers) {
+        long mask = (1L << m) - 1;
+        NodeInterface node = ringIndex.getNode(ordinal);
+        long nodeId = node.getLongId();
+        RoutingTable table = newFingerTable(nodeId, ringIndex.getSlot(ordinal));
+
+        for (int i = 1; i <= m; i++) {
+            // calculate interval: (start, end)
+            // handle wrap-around case for the last entry
+            long start = (nodeId + (1L << (i - 1))) & mask; // calculate starting value for entry
+            long end = (i == m) ? nodeId : ((nodeId - 1) + (1L << i)) & mask;
+
+            // find successor node for starting value: the first node with an id >= start
+            int successor = fingers == null ? ringIndex.successorOrdinal(start) : fingers[ordinal * m + i - 1];
 
-        while (candidateId < newStart) {
-            candidate = candidate.getSuccessor();
-            candidateId = candidate.getId() <= nodeId ? (int) (candidate.getId() + Math.pow(2, m)) : candidate.getId();
+            if (table instanceof OffHeapFingerTable) {
+                // start and end follow from the node id, only the successor is stored
+                ((OffHeapFingerTable) table).setSuccessorSlot(i - 1, ringIndex.getSlot(successor));
+            } else if (table instanceof CompactFingerTable) {
+                ((CompactFingerTable) table).addEntry((int) start, (int) end, ringIndex.getSlot(successor));
+            } else if (table instanceof LongFingerTable) {
+                ((LongFingerTable) table).addEntry(start, end, ringIndex.getSlot(successor));
+            } else {
+                FingerTableEntry entry = new FingerTableEntry(start, new Interval(start, end), ringIndex.getNode(successor));
+                ((FingerTable) table).addEntry(entry); // add entry to finger table
+            }
+        }
+        // set finger table for current node
+        node.setRoutingTable(table);
+    }
+
+    /**
+     * creates an empty finger table for a node. the compact tables store ints when the identifier fits in 31 bits and
+     * longs otherwise. with a finger store, the table is a view of the row of the node's slot.
+     */
+    private RoutingTable newFingerTable(long nodeId, int slot) {
+        if (fingerStore != null) {
+            return new OffHeapFingerTable(nodeId, slot, fingerStore, slots);
+        }
+        if (!compactFingerTable) {
+            return new FingerTable(m);
+        }
+        return m <= 31 ? new CompactFingerTable((int) nodeId, m, slots) : new LongFingerTable(nodeId, m, slots);
+    }
+
+    /**
+     * This method adds a node to a ring that has already been built, without rebuilding the overlay or the finger
+     * tables of the other nodes.
+     *     1) the node gets its id, is added to the network and spliced into the ring between its predecessor and
+     *        successor. the links of the nodes around it are updated.
+     *     2) the keys in the range (predecessor id, node id] are handed over from the successor to the new node.
+     *     3) the finger table of the new node is built, and only the fingers of other nodes whose start now falls in
+     *        the range of the new node are pointed to it.
+     * The ith finger of a node q changes only if q + 2^(i-1) is in (predecessor id, node id], so for every i the
+     * nodes to repair are found with a binary search and lie next to each other in the ring.
+     *
+     * @param node the node that joins the ring
+     * @return number of fingers that have been written (the m fingers of the new node and the repaired fingers)
+     */
+    public int join(NodeInterface node) {
+        requireSinglePositions();
+        long startTime = System.nanoTime();
+        if (ringIndex == null) {
+            // joining an empty ring
+            ringIndex = new RingIndex(new long[0], new NodeInterface[0]);
+            slots = new NodeSlots(new NodeInterface[0]);
+        }
+        long nodeId = ch.hashLong(node.getName());
+        node.setLongId(nodeId);
+        network.addNode(node.getName(), node);
+
+        int slot = slots.add(node);
+        int ordinal = ringIndex.insert(nodeId, node, slot);
+        int nodeCount = ringIndex.size();
+
+        // update the links of the new node, its successor and the nodes that list it as one of their successors
+        for (int j = -Math.min(successorListSize, nodeCount - 1); j <= 1; j++) {
+            linkNode((ordinal + j + nodeCount) % nodeCount);
+        }
+        NodeInterface successor = node.getSuccessor();
+        NodeInterface predecessor = node.getPredecessor();
+        if (successor != node) {
+            predecessor.removeNeighbor(successor.getName());
+            predecessor.addNeighbor(node.getName(), node);
+            node.addNeighbor(successor.getName(), successor);
+        }
+
+        // hand over the keys of the new range from the successor
+        setKeyRange(ordinal);
+        setKeyRange((ordinal + 1) % nodeCount);
+        if (node.getData() instanceof KeyStore && successor.getData() instanceof KeyStore && successor != node) {
+            KeyStore keys = (KeyStore) node.getData();
+            long length = rangeLength(ordinal, predecessor.getLongId(), nodeId);
+            ((KeyStore) successor.getData()).moveRange(keys, predecessor.getLongId(), length, (1L << m) - 1);
+        }
+
+        // finger table of the new node, then repair the fingers that now resolve to it
+        if (fingerStore != null) {
+            fingerStore.ensureRows(slots.capacity());
+        }
+        buildFingerTable(ordinal);
+        int touched = m;
+        if (successor != node) {
+            touched += repairFingers(predecessor.getLongId(), rangeLength(ordinal, predecessor.getLongId(), nodeId), node, slot);
+        }
+        refreshReplicasFrom(ordinal);
+        invalidateCaches();
+        recordPhase("join", startTime);
+        return touched;
+    }
+
+    /**
+     * This method removes a node from the ring without rebuilding the overlay or the finger tables of the other
+     * nodes. The keys of the node are handed over to its successor, the links of the nodes around it are updated,
+     * and the fingers that pointed to the node are pointed to its successor.
+     *
+     * @param name name of the node that leaves the ring
+     * @return number of fingers that have been repaired, or -1 if the node is not in the ring
+     */
+    public int leave(String name) {
+        requireSinglePositions();
+        long startTime = System.nanoTime();
+        NodeInterface node = network.getNode(name);
+        int ordinal = node == null ? -1 : ringIndex.ordinalOf(node);
+        if (ordinal < 0) {
+            return -1;
+        }
+        int nodeCount = ringIndex.size();
+        NodeInterface predecessor = node.getPredecessor();
+        NodeInterface successor = node.getSuccessor();
+        long predecessorId = predecessor.getLongId();
+        long length = rangeLength(ordinal, predecessorId, node.getLongId());
+        int slot = ringIndex.getSlot(ordinal);
+
+        ringIndex.remove(ordinal);
+        network.removeNode(name);
+        nodeCount--;
+        if (nodeCount == 0) {
+            slots.remove(slot);
+            invalidateCaches();
+            recordPhase("leave", startTime);
+            return 0;
+        }
+
+        // update the links of the successor and the nodes that listed the node as one of their successors
+        int successorOrdinal = ordinal % nodeCount;
+        for (int j = -Math.min(successorListSize, nodeCount - 1); j <= 0; j++) {
+            linkNode((successorOrdinal + j + nodeCount) % nodeCount);
+        }
+        predecessor.removeNeighbor(name);
+        if (predecessor != successor) {
+            predecessor.addNeighbor(successor.getName(), successor);
+        }
+
+        // hand over the keys and the range to the successor
+        setKeyRange(successorOrdinal);
+        if (node.getData() instanceof KeyStore && successor.getData() instanceof KeyStore) {
+            KeyStore keys = (KeyStore) node.getData();
+            keys.moveRange((KeyStore) successor.getData(), predecessorId, length, (1L << m) - 1);
+        }
+
+        int touched = repairFingers(predecessorId, length, successor, ringIndex.getSlot(successorOrdinal));
+        refreshReplicasFrom(successorOrdinal);
+        slots.remove(slot);
+        invalidateCaches();
+        recordPhase("leave", startTime);
+        return touched;
+    }
+
+    // join and leave move one position of the ring, while snapshots and replicas work on one position per node, so
+    // they are not supported with virtual nodes
+    private void requireSinglePositions() {
+        if (virtualNodes > 1) {
+            throw new IllegalStateException("join, leave, snapshots and replication are not supported with virtual " +
+                    "nodes (v = " + virtualNodes + ")");
+        }
+    }
+
+    /**
+     * This method copies the keys of every node to its r successors (see setReplicas()). The replicas of a node are
+     * the keys of the r nodes before it in the ring, so a key can still be found at the first successor of its owner
+     * that has not failed. Join and leave update the replicas of the nodes around them.
+     */
+    public void replicateKeys() {
+        requireSinglePositions();
+        long startTime = System.nanoTime();
+        for (int ordinal = 0; ordinal < ringIndex.size(); ordinal++) {
+            refreshReplicas(ordinal);
+        }
+        recordPhase("replicateKeys", startTime);
+    }
+
+    // rebuilds the replicas of the r + 2 nodes from the ordinal on, which covers every node whose r predecessors
+    // or their keys have changed by a join or leave at the ordinal
+    private void refreshReplicasFrom(int ordinal) {
+        if (replicas == 0) return;
+        int nodeCount = ringIndex.size();
+        for (int j = 0; j < Math.min(replicas + 2, nodeCount); j++) {
+            refreshReplicas((ordinal + j) % nodeCount);
+        }
+    }
+
+    // replaces the replicas of a node with the keys of its r predecessors
+    private void refreshReplicas(int ordinal) {
+        NodeInterface node = ringIndex.getNode(ordinal);
+        if (!(node.getReplicas() instanceof KeyStore)) return;
+        KeyStore store = (KeyStore) node.getReplicas();
+        store.clear();
+        int nodeCount = ringIndex.size();
+        for (int j = 1; j <= Math.min(replicas, nodeCount - 1); j++) {
+            Object keys = ringIndex.getNode((ordinal - j + nodeCount) % nodeCount).getData();
+            if (keys instanceof KeyStore) {
+                store.addAll((KeyStore) keys);
+            }
+        }
+    }
+
+    /**
+     * @return ring ordinals of the finger successors of all nodes, m per node (row i holds the fingers of node i)
+     */
+    public int[] getFingerOrdinals() {
+        requireSinglePositions();
+        int nodeCount = ringIndex.size();
+        int[] fingers = new int[nodeCount * m];
+        for (int ordinal = 0; ordinal < nodeCount; ordinal++) {
+            RoutingTable table = (RoutingTable) ringIndex.getNode(ordinal).getRoutingTable();
+            for (int i = 0; i < m; i++) {
+                fingers[ordinal * m + i] = ringIndex.ordinalOf(table.getSuccessor(i));
+            }
+        }
+        return fingers;
+    }
+
+    /**
+     * Points every finger whose start is in the range (rangeStart, rangeStart + length] to the given node. For the ith
+     * finger these are the nodes with ids in (rangeStart - 2^(i-1), rangeStart - 2^(i-1) + length], which are found
+     * with a binary search and then walked in ring order.
+     *
+     * @param rangeStart start of the range (exclusive)
+     * @param length     number of ids in the range
+     * @param target     node the fingers should point to
+     * @param targetSlot slot of the node
+     * @return number of fingers that have been repaired
+     */
+    private int repairFingers(long rangeStart, long length, NodeInterface target, int targetSlot) {
+        if (length == 0) {
+            return 0;
+        }
+        long mask = (1L << m) - 1;
+        int nodeCount = ringIndex.size();
+        int touched = 0;
+        for (int i = 1; i <= m; i++) {
+            long low = (rangeStart - (1L << (i - 1))) & mask;
+            int ordinal = ringIndex.successorOrdinal((low + 1) & mask);
+            for (int visited = 0; visited < nodeCount; visited++) {
+                NodeInterface node = ringIndex.getNode(ordinal);
+                if (Long.compareUnsigned((node.getLongId() - low - 1) & mask, length) >= 0) {
+                    break;
+                }
+                if (node != target) {
+                    setFinger(node, i - 1, target, targetSlot);
+                    touched++;
+                }
+                ordinal = (ordinal + 1) % nodeCount;
+            }
+        }
+        return touched;
+    }
+
+    /**
+     * points the ith finger (0 based) of the node to the target node
+     */
+    private void setFinger(NodeInterface node, int i, NodeInterface target, int targetSlot) {
+        Object table = node.getRoutingTable();
+        if (table instanceof OffHeapFingerTable) {
+            ((OffHeapFingerTable) table).setSuccessorSlot(i, targetSlot);
+        } else if (table instanceof CompactFingerTable) {
+            ((CompactFingerTable) table).setSuccessorSlot(i, targetSlot);
+        } else if (table instanceof LongFingerTable) {
+            ((LongFingerTable) table).setSuccessorSlot(i, targetSlot);
+        } else if (table instanceof FingerTable) {
+            FingerTableEntry entry = ((FingerTable) table).getEntries().get(i);
+            ((FingerTable) table).setEntry(i, new FingerTableEntry(entry.start(), entry.interval(), target));
         }
-        return candidate;
     }
 
     /**
@@ -174,48 +831,472 @@ public class ChordProtocol implements Protocol {
      * @return names of nodes that have been searched and the final node that contains the key
      */
     public LookUpResponse lookUp(int keyIndex) {
-        NodeInterface currentNode = network.getTopology().get("Node 1");
-        LinkedHashSet<String> route = new LinkedHashSet<>();
-        System.out.println("Looking up EntrySet value " + keyIndex);
+        return lookUp((long) keyIndex);
+    }
+
+    /**
+     * This method performs the lookup operation for a key index of up to 63 bits. The key index is kept as a primitive
+     * long on the whole lookup path.
+     *
+     * @param keyIndex index of the key
+     * @return names of nodes that have been searched and the final node that contains the key
+     */
+    public LookUpResponse lookUp(long keyIndex) {
+        return lookUp(getDefaultOrigin(), keyIndex);
+    }
+
+    /**
+     * @return node the lookups start from when no origin is given: "Node 1", or the first node of the ring if it has
+     * left
+     */
+    public NodeInterface getDefaultOrigin() {
+        NodeInterface origin = network.getTopology().get("Node 1");
+        if (origin == null) {
+            // the usual starting node has left the ring
+            origin = ringIndex.getNode(0);
+        }
+        return origin;
+    }
+
+    /**
+     * This method performs the lookup operation like lookUp(long), starting from the given node. The lookup follows
+     * the finger tables from the origin, so the route and the hop count depend on where the request enters the ring.
+     *
+     * @param origin   node the lookup starts from
+     * @param keyIndex index of the key
+     * @return names of nodes that have been searched and the final node that contains the key
+     */
+    public LookUpResponse lookUp(NodeInterface origin, long keyIndex) {
+        LookUpRoute result = new LookUpRoute(m + 1);
+        return lookUp(origin, keyIndex, result) ? result.toResponse() : null;
+    }
+
+    /**
+     * This method performs the lookup operation like lookUp(NodeInterface, long) without allocating: the route is
+     * written as ring ordinals into the given result, which can be reused for every lookup. Node names are only
+     * looked up when the result is printed or converted to a LookUpResponse.
+     *
+     * @param origin   node the lookup starts at
+     * @param keyIndex index of the key
+     * @param result   receives the route and the node that stores the key
+     * @return true if the node that stores the key has been found
+     */
+    public boolean lookUp(NodeInterface origin, long keyIndex, LookUpRoute result) {
+        NodeInterface currentNode = origin;
+        // ring ordinal of the current node, carried from hop to hop
+        int ordinal = ringIndex.ordinalOf(origin);
+        result.reset(ringIndex, keyIndex);
+
+        LookUpMetrics metrics = this.metrics;
+        LocationCaches caches = this.locationCaches;
+        boolean jumped = false;
 
         while (true) {
-            // check if current node or its successor contains the key
-            LookUpResponse response = getResponseForNode(route, keyIndex, currentNode);
-            if (response != null) return response;
+            // check if current node contains the key
+            if (isResponsible(currentNode, keyIndex)) {
+                return found(result, currentNode, ordinal, metrics, caches);
+            }
+
+            // a cached owner is used at most once per lookup, so a stale entry cannot send the lookup in a circle.
+            // after the jump the lookup continues with the fingers if the node does not own the key. find() only returns
+            // an owner that is alive and not the current node, so it only counts the jumps as hits
+            if (caches != null) {
+                NodeInterface cachedOwner = jumped ? null : caches.find(currentNode, keyIndex);
+                if (cachedOwner != null) {
+                    if (metrics != null) metrics.recordHop(currentNode, -1);
+                    result.add(ordinal);
+                    currentNode = cachedOwner;
+                    ordinal = ordinalOfNext(cachedOwner);
+                    jumped = true;
+                    continue;
+                }
+            }
 
             // traverse finger table to find next appropriate node
-            FingerTable fingerTable = (FingerTable) currentNode.getRoutingTable();
-            NodeInterface nextNode = findNextNode(fingerTable, keyIndex);
+            RoutingTable fingerTable = (RoutingTable) currentNode.getRoutingTable();
+            int finger = fingerTable.fingerIndex(keyIndex);
+            if (metrics != null) metrics.recordFingerTableRead();
+            NodeInterface nextNode = finger < 0 ? null : fingerTable.getSuccessor(finger);
+
+            // a failed next node does not answer: the lookup times out, unless it routes around the node
+            if (nextNode != null && !nextNode.isAlive()) {
+                nextNode = routeAroundFailures ? nextAliveNode(currentNode, fingerTable, finger, keyIndex) : null;
+                if (nextNode == null) return notFound(metrics);
+                // the detour has passed the failed owner and ends at a replica of the key
+                if (answersFromReplica(currentNode, nextNode, keyIndex)) {
+                    if (metrics != null) metrics.recordHop(currentNode, finger);
+                    result.add(ordinal);
+                    return found(result, nextNode, ordinalOfNext(nextNode), metrics, caches);
+                }
+            }
 
             // check if lookup wraps around to start of ring
             if (nextNode == null || nextNode.equals(currentNode)) break;
 
-            route.add(currentNode.getName());
+            if (metrics != null) metrics.recordHop(currentNode, finger);
+            result.add(ordinal);
             currentNode = nextNode;
+            ordinal = ordinalOfNext(nextNode);
         }
-        return getResponseForNode(route, keyIndex, currentNode);
+        return isResponsible(currentNode, keyIndex) ? found(result, currentNode, ordinal, metrics, caches)
+                : notFound(metrics);
+    }
+
+    // ring ordinal of the next node of a route. the binary search of successorOrdinal() finds the first node with the
+    // id of the node, which is the node itself unless other nodes share its id
+    private int ordinalOfNext(NodeInterface node) {
+        int ordinal = ringIndex.successorOrdinal(node.getLongId());
+        return ordinal >= 0 && ringIndex.getNode(ordinal) == node ? ordinal : ringIndex.ordinalOf(node);
+    }
+
+    /**
+     * This method starts a lookup from the default origin without waiting for it (see lookUpAsync(NodeInterface,
+     * long)).
+     *
+     * @param keyIndex index of the key
+     * @return future that completes with the response, with null if the lookup has failed, or exceptionally with a
+     * TimeoutException
+     */
+    public CompletableFuture<LookUpResponse> lookUpAsync(long keyIndex) {
+        return lookUpAsync(getDefaultOrigin(), keyIndex);
     }
 
-    private LookUpResponse getResponseForNode(LinkedHashSet<String> route, int keyIndex, NodeInterface node) {
-        LookUpResponse response = new LookUpResponse(route, keyIndex, node.getName());
-        LinkedHashSet<Integer> dataItems = (LinkedHashSet<Integer>) node.getData();
-        for (Integer data : dataItems) {
-            if (data == keyIndex) {
-                //System.out.println(response.toString());
-                return response;
+    /**
+     * This method starts a lookup on the pipeline of getAsyncLookUps() and returns without waiting for it. It blocks
+     * while the window of the pipeline is full.
+     *
+     * @param origin   node the lookup starts from
+     * @param keyIndex index of the key
+     * @return future that completes with the response, with null if the lookup has failed, or exceptionally with a
+     * TimeoutException
+     */
+    public CompletableFuture<LookUpResponse> lookUpAsync(NodeInterface origin, long keyIndex) {
+        return getAsyncLookUps().lookUp(origin, keyIndex);
+    }
+
+    /**
+     * This method runs lookUp(NodeInterface, long) on the threads of an executor. Lookups only read the finger
+     * tables, so any number of them can run at the same time.
+     *
+     * @param executor runs the lookups
+     * @return service for an AsyncLookUps pipeline
+     */
+    public LookUpService lookUpService(Executor executor) {
+        return (origin, keyIndex, result) -> executor.execute(() -> {
+            if (result.isDone()) {
+                // timed out while it was queued
+                return;
+            }
+            try {
+                result.complete(lookUp(origin, keyIndex));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * This method looks up a batch of keys from the default origin (see lookUpAll(NodeInterface, long[])).
+     *
+     * @param keyIndexes indexes of the keys
+     * @return the result of each key at the position of the key, or null where the lookup has failed
+     */
+    public LookUpResponse[] lookUpAll(int[] keyIndexes) {
+        long[] keys = new long[keyIndexes.length];
+        for (int i = 0; i < keyIndexes.length; i++) {
+            keys[i] = keyIndexes[i];
+        }
+        return lookUpAll(getDefaultOrigin(), keys);
+    }
+
+    /**
+     * This method looks up a batch of keys of up to 63 bits from the default origin.
+     *
+     * @param keyIndexes indexes of the keys
+     * @return the result of each key at the position of the key, or null where the lookup has failed
+     */
+    public LookUpResponse[] lookUpAll(long[] keyIndexes) {
+        return lookUpAll(getDefaultOrigin(), keyIndexes);
+    }
+
+    /**
+     * This method looks up a batch of keys together. The keys are sorted by their distance from the origin, so the
+     * keys that the finger table of a node sends to the same finger form one run. Every node searches its finger
+     * table once per run instead of once per key and forwards the whole run in one step; a run is only split at the
+     * node where its keys take different fingers. Each key gets the same route, hop count and owner as with
+     * lookUp(NodeInterface, long), and the metrics count the same hops.
+     *
+     * Location caches send every key to its own cached owner, so with caches the keys are looked up one by one.
+     *
+     * @param origin     node the lookups start at
+     * @param keyIndexes indexes of the keys
+     * @return the result of each key at the position of the key, or null where the lookup has failed
+     */
+    public LookUpResponse[] lookUpAll(NodeInterface origin, long[] keyIndexes) {
+        LookUpResponse[] responses = new LookUpResponse[keyIndexes.length];
+        if (locationCaches != null) {
+            for (int i = 0; i < keyIndexes.length; i++) {
+                responses[i] = lookUp(origin, keyIndexes[i]);
+            }
+            return responses;
+        }
+        int[] order = sortByDistance(origin.getLongId(), keyIndexes);
+        routeBatch(origin, keyIndexes, order, 0, order.length, new ArrayList<>(m + 1), responses, metrics);
+        return responses;
+    }
+
+    // returns the positions of the keys ordered by their distance from the node id, going clockwise from the node.
+    // the distance and the position are packed in one long when they fit, like the ids in RingIndex.sorted()
+    private int[] sortByDistance(long nodeId, long[] keyIndexes) {
+        long mask = (1L << m) - 1;
+        int[] order = new int[keyIndexes.length];
+        int indexBits = 64 - Long.numberOfLeadingZeros(Math.max(1, keyIndexes.length - 1));
+        if (m + indexBits <= 63) {
+            long[] packed = new long[keyIndexes.length];
+            for (int i = 0; i < keyIndexes.length; i++) {
+                packed[i] = (((keyIndexes[i] - nodeId - 1) & mask) << indexBits) | i;
+            }
+            Arrays.sort(packed);
+            long indexMask = (1L << indexBits) - 1;
+            for (int i = 0; i < packed.length; i++) {
+                order[i] = (int) (packed[i] & indexMask);
+            }
+        } else {
+            Integer[] positions = new Integer[keyIndexes.length];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = i;
+            }
+            Arrays.sort(positions, Comparator.comparingLong(i -> (keyIndexes[i] - nodeId - 1) & mask));
+            for (int i = 0; i < positions.length; i++) {
+                order[i] = positions[i];
+            }
+        }
+        return order;
+    }
+
+    /**
+     * This method routes the keys order[from .. to) that have reached a node. The keys the node is responsible for
+     * are answered, the others are split into runs of consecutive keys that are covered by the same finger. The
+     * finger table is only searched for the first key of a run: the ith finger covers the distances [2^i, 2^(i+1))
+     * from the node, so the following keys belong to the same run as long as the highest bit of their distance is i.
+     *
+     * @param route nodes that have forwarded the keys to this node
+     */
+    private void routeBatch(NodeInterface node, long[] keys, int[] order, int from, int to,
+                            ArrayList<NodeInterface> route, LookUpResponse[] responses, LookUpMetrics metrics) {
+        // the keys that are not answered here are moved to the front of the range, in the same order
+        int pending = from;
+        NodeInterface previous = route.isEmpty() ? null : route.get(route.size() - 1);
+        for (int i = from; i < to; i++) {
+            if (isResponsible(node, keys[order[i]]) || answersFromReplica(previous, node, keys[order[i]])) {
+                responses[order[i]] = respond(route, keys[order[i]], node, metrics);
+            } else {
+                order[pending++] = order[i];
+            }
+        }
+        if (pending == from) {
+            return;
+        }
+
+        RoutingTable fingerTable = (RoutingTable) node.getRoutingTable();
+        long nodeId = node.getLongId();
+        route.add(node);
+        for (int start = from; start < pending; ) {
+            int finger = fingerTable.fingerIndex(keys[order[start]]);
+            if (metrics != null) metrics.recordFingerTableRead();
+            int end = start + 1;
+            if (finger >= 0 && coveringFinger(nodeId, keys[order[start]]) == finger) {
+                while (end < pending && coveringFinger(nodeId, keys[order[end]]) == finger) end++;
+            }
+            forwardRun(node, fingerTable, finger, keys, order, start, end, route, responses, metrics);
+            start = end;
+        }
+        route.remove(route.size() - 1);
+    }
+
+    // index of the finger whose interval holds the key: the highest set bit of the distance from the node
+    private int coveringFinger(long nodeId, long keyIndex) {
+        long offset = (keyIndex - nodeId) & ((1L << m) - 1);
+        return offset == 0 ? m - 1 : 63 - Long.numberOfLeadingZeros(offset);
+    }
+
+    // forwards a run of keys to the successor of their finger. if it has failed, every key takes the detour of
+    // nextAliveNode(), and consecutive keys with the same detour are forwarded together
+    private void forwardRun(NodeInterface node, RoutingTable fingerTable, int finger, long[] keys, int[] order,
+                            int from, int to, ArrayList<NodeInterface> route, LookUpResponse[] responses,
+                            LookUpMetrics metrics) {
+        NodeInterface nextNode = finger < 0 ? null : fingerTable.getSuccessor(finger);
+        if (nextNode == null || nextNode.isAlive()) {
+            forwardKeys(node, nextNode, finger, keys, order, from, to, route, responses, metrics);
+            return;
+        }
+        if (!routeAroundFailures) {
+            for (int i = from; i < to; i++) notFound(metrics);
+            return;
+        }
+        int start = from;
+        NodeInterface detour = nextAliveNode(node, fingerTable, finger, keys[order[from]]);
+        for (int i = from + 1; i <= to; i++) {
+            NodeInterface candidate = i < to ? nextAliveNode(node, fingerTable, finger, keys[order[i]]) : null;
+            if (i == to || candidate != detour) {
+                if (detour == null) {
+                    for (int k = start; k < i; k++) notFound(metrics);
+                } else {
+                    forwardKeys(node, detour, finger, keys, order, start, i, route, responses, metrics);
+                }
+                start = i;
+                detour = candidate;
             }
         }
-        return null;
     }
 
-    private NodeInterface findNextNode(FingerTable fingerTable, int keyIndex) {
-        for (int i = 0; i < fingerTable.getEntries().size(); i++) {
-            FingerTableEntry entry = fingerTable.getEntries().get(i);
+    // sends the keys order[from .. to) from the node to the next node in one step
+    private void forwardKeys(NodeInterface node, NodeInterface nextNode, int finger, long[] keys, int[] order,
+                             int from, int to, ArrayList<NodeInterface> route, LookUpResponse[] responses,
+                             LookUpMetrics metrics) {
+        // the lookup would wrap around to the start of the ring
+        if (nextNode == null || nextNode.equals(node)) {
+            for (int i = from; i < to; i++) notFound(metrics);
+            return;
+        }
+        if (metrics != null) metrics.recordHops(node, finger, to - from);
+        routeBatch(nextNode, keys, order, from, to, route, responses, metrics);
+    }
+
+    // builds the result of a key of a batch that has reached the node that stores it. like the route of a single
+    // lookup, a node that is already on the route (by name) is not added again
+    private static LookUpResponse respond(ArrayList<NodeInterface> route, long keyIndex, NodeInterface owner,
+                                          LookUpMetrics metrics) {
+        LinkedHashSet<String> names = new LinkedHashSet<>();
+        for (NodeInterface node : route) {
+            names.add(node.getName());
+        }
+        if (metrics != null) metrics.recordLookUp(names.size());
+        return new LookUpResponse(names, keyIndex, owner.getName());
+    }
 
-            if (entry.interval().contains(keyIndex)) {
-                return entry.successor();
+    // completes a lookup at the node that stores the key. every node that forwarded the lookup caches the range of
+    // the owner, and the hop count is recorded in the metrics
+    private boolean found(LookUpRoute result, NodeInterface owner, int ordinal, LookUpMetrics metrics,
+                          LocationCaches caches) {
+        result.setOwner(ordinal);
+        if (caches != null) {
+            for (int i = 0; i < result.getHopCount(); i++) {
+                NodeInterface node = ringIndex.getNode(result.getRouteOrdinal(i));
+                if (node != owner) {
+                    caches.learn(node, owner);
+                }
+            }
+        }
+        if (metrics != null) metrics.recordLookUp(result.getHopCount());
+        return true;
+    }
+
+    // records a lookup that has not found the node that stores the key
+    private static boolean notFound(LookUpMetrics metrics) {
+        if (metrics != null) metrics.recordFailure();
+        return false;
+    }
+
+    /**
+     * This method checks whether a node is responsible for a key. A KeyStore decides it from the id range of the node
+     * (or a binary search if the range is unknown), other data is scanned. A replica of the key does not make a node
+     * responsible, see answersFromReplica().
+     *
+     * @param node     the node
+     * @param keyIndex index of the key
+     * @return true if the node stores the key
+     */
+    public boolean isResponsible(NodeInterface node, long keyIndex) {
+        Object dataItems = node.getData();
+        if (dataItems instanceof KeyStore) {
+            return ((KeyStore) dataItems).owns(keyIndex);
+        }
+        for (Object data : (Collection<?>) dataItems) {
+            if (((Number) data).longValue() == keyIndex) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method checks whether a lookup that routes around failures ends at a node with its replica of the key.
+     * nextAliveNode() only forwards a lookup past the key when the owner has failed, so a node that lies past the key
+     * seen from the node that has forwarded the lookup answers with its replica. The fingers never lead past the
+     * owner, so a replica does not answer while the owner is alive, not even at the origin.
+     *
+     * @param from     node that has forwarded the lookup, or null at the origin
+     * @param node     node the lookup has reached
+     * @param keyIndex index of the key
+     * @return true if the node answers the lookup with its replica of the key
+     */
+    public boolean answersFromReplica(NodeInterface from, NodeInterface node, long keyIndex) {
+        return from != null && from != node && isPastKey(from, node, keyIndex) && holdsReplica(node, keyIndex);
+    }
+
+    // true if the candidate lies at or past the key, seen from the node. a candidate at the key that does not own it
+    // shares its id with the owner
+    private boolean isPastKey(NodeInterface node, NodeInterface candidate, long keyIndex) {
+        long mask = (1L << m) - 1;
+        long keyDistance = (keyIndex - node.getLongId()) & mask;
+        return ((candidate.getLongId() - node.getLongId()) & mask) >= keyDistance;
+    }
+
+    // true if lookups route around failures and the node holds a replica of the key
+    private boolean holdsReplica(NodeInterface node, long keyIndex) {
+        return routeAroundFailures && replicas > 0 && node.getReplicas() instanceof KeyStore
+                && ((KeyStore) node.getReplicas()).contains(keyIndex);
+    }
+
+    /**
+     * This method returns the node a lookup for the key is forwarded to from the given node. It is the single routing
+     * step of lookUp(), so lookups that are driven by messages take the same route.
+     *
+     * @param node     node that does not store the key
+     * @param keyIndex index of the key
+     * @return next node on the route, or null if the finger table has no entry for the key
+     */
+    public NodeInterface nextHop(NodeInterface node, long keyIndex) {
+        RoutingTable fingerTable = (RoutingTable) node.getRoutingTable();
+        NodeInterface nextNode = findNextNode(fingerTable, keyIndex);
+        if (routeAroundFailures && nextNode != null && !nextNode.isAlive()) {
+            return nextAliveNode(node, fingerTable, fingerTable.fingerIndex(keyIndex), keyIndex);
+        }
+        return nextNode;
+    }
+
+    /**
+     * This method finds the node a lookup is forwarded to when the successor of the finger that covers the key has
+     * failed. The successors of the lower fingers lie between the node and the owner of the key, so the first of them
+     * that is alive still brings the lookup closer to the key. If they have all failed, the lookup goes to the first
+     * node of the successor list that is alive. If that node lies past the key, it is only used when it holds a
+     * replica of the key, otherwise the key is lost and the lookup would only go around the ring.
+     *
+     * @param node        node that forwards the lookup
+     * @param fingerTable finger table of the node
+     * @param finger      finger that covers the key
+     * @param keyIndex    index of the key
+     * @return next node on the route, or null if all the candidates have failed or the key is lost
+     */
+    private NodeInterface nextAliveNode(NodeInterface node, RoutingTable fingerTable, int finger, long keyIndex) {
+        for (int i = finger - 1; i >= 0; i--) {
+            NodeInterface candidate = fingerTable.getSuccessor(i);
+            if (candidate != node && candidate.isAlive()) {
+                return candidate;
+            }
+        }
+        for (NodeInterface candidate : node.getSuccessorList()) {
+            if (candidate != node && candidate.isAlive()) {
+                boolean lost = isPastKey(node, candidate, keyIndex) && !isResponsible(candidate, keyIndex)
+                        && !holdsReplica(candidate, keyIndex);
+                return lost ? null : candidate;
             }
         }
         return null;
     }
+
+    private NodeInterface findNextNode(RoutingTable fingerTable, long keyIndex) {
+        return fingerTable.findSuccessor(keyIndex);
+    }
 }
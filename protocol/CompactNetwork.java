@@ -0,0 +1,340 @@
+package protocol;
+
+import crypto.ConsistentHashing;
+import p2p.NetworkInterface;
+import p2p.Node;
+import p2p.NodeInterface;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * This class is a compact chord ring for very large networks. Instead of a Node object per peer, the ring is kept in
+ * flat primitive arrays indexed by the ordinal of the node in the ring:
+ *      ids          - sorted node ids
+ *      numbers      - number i of the node name "Node i", the names are only built for output
+ *      fingers      - m finger successors per node, as ordinals (row i holds the fingers of node i)
+ *      keyOffsets   - keys of node i are keys[keyOffsets[i] .. keyOffsets[i + 1])
+ * The successor of node i is node i + 1 (mod N), so it does not need to be stored.
+ *
+ * Lookups run directly on the arrays. The finger of a node that covers a key is found without a search: the ith
+ * finger starts at id + 2^i, so the finger is the highest set bit of (key - id) mod 2^m.
+ *
+ * The NetworkInterface methods build Node objects from the arrays on every call, so they are only meant for the
+ * output of small rings. Nodes cannot be added or removed.
+ */
+public class CompactNetwork implements NetworkInterface {
+    // length of the identifiers
+    public final int m;
+
+    private final long mask;
+    private final int size;
+    private final long[] ids;
+    private final int[] numbers;
+    private final int[] fingers;
+
+    private long[] keys = new long[0];
+    private int[] keyOffsets;
+
+    /**
+     * This method builds the ring of the nodes "Node 1" to "Node nodeCount": it hashes the names, sorts the ids and
+     * builds the finger tables. The names are hashed and the fingers are built in parallel.
+     *
+     * @param nodeCount number of nodes
+     * @param ch        consistent hashing used to calculate the node ids
+     * @return the ring
+     */
+    public static CompactNetwork build(int nodeCount, ConsistentHashing ch) {
+        long[] hashes = new long[nodeCount];
+        IntStream.range(0, nodeCount).parallel().forEach(i -> hashes[i] = ch.hashLong("Node " + (i + 1)));
+        return new CompactNetwork(hashes, ch.m);
+    }
+
+    /**
+     * @param hashes id of "Node i" at position i - 1
+     * @param m      length of the identifiers
+     */
+    public CompactNetwork(long[] hashes, int m) {
+        if ((long) hashes.length * m > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("the fingers of " + hashes.length + " nodes with m = " + m +
+                    " do not fit in one array");
+        }
+        this.m = m;
+        this.mask = (1L << m) - 1;
+        this.size = hashes.length;
+        this.ids = new long[size];
+        this.numbers = new int[size];
+        sortByIdAndNumber(hashes);
+        this.fingers = new int[size * m];
+        IntStream.range(0, size).parallel().forEach(this::buildFingers);
+        this.keyOffsets = new int[size + 1];
+    }
+
+    // sorts the nodes by id. nodes with the same id stay in the order of their numbers, like in the RingIndex
+    private void sortByIdAndNumber(long[] hashes) {
+        int indexBits = 64 - Long.numberOfLeadingZeros(Math.max(1, size - 1));
+        if (m + indexBits <= 63) {
+            long[] packed = new long[size];
+            for (int i = 0; i < size; i++) {
+                packed[i] = (hashes[i] << indexBits) | i;
+            }
+            Arrays.parallelSort(packed);
+            long indexMask = (1L << indexBits) - 1;
+            for (int i = 0; i < size; i++) {
+                ids[i] = packed[i] >>> indexBits;
+                numbers[i] = (int) (packed[i] & indexMask) + 1;
+            }
+        } else {
+            Integer[] positions = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                positions[i] = i;
+            }
+            Arrays.parallelSort(positions, Comparator.comparingLong(i -> hashes[i]));
+            for (int i = 0; i < size; i++) {
+                ids[i] = hashes[positions[i]];
+                numbers[i] = positions[i] + 1;
+            }
+        }
+    }
+
+    // resolves the m fingers of a node: the ith finger is the first node with an id >= id + 2^i
+    private void buildFingers(int ordinal) {
+        long id = ids[ordinal];
+        for (int i = 0; i < m; i++) {
+            fingers[ordinal * m + i] = successorOrdinal((id + (1L << i)) & mask);
+        }
+    }
+
+    /**
+     * @param id index on the ring
+     * @return ordinal of the first node with an id >= the given id, wrapping around to the first node
+     */
+    public int successorOrdinal(long id) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ids[mid] < id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low == size ? 0 : low;
+    }
+
+    /**
+     * This method stores the keys at the nodes that are responsible for them. The keys are grouped by owner with a
+     * counting sort, so each node's keys are one slice of a single array.
+     *
+     * @param keyIndexes indexes of the keys
+     */
+    public void assignKeys(long[] keyIndexes) {
+        int[] owners = new int[keyIndexes.length];
+        IntStream.range(0, keyIndexes.length).parallel().forEach(i -> owners[i] = successorOrdinal(keyIndexes[i]));
+        int[] offsets = new int[size + 1];
+        for (int owner : owners) {
+            offsets[owner + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        long[] grouped = new long[keyIndexes.length];
+        int[] next = Arrays.copyOf(offsets, size);
+        for (int i = 0; i < keyIndexes.length; i++) {
+            grouped[next[owners[i]]++] = keyIndexes[i];
+        }
+        for (int i = 0; i < size; i++) {
+            Arrays.sort(grouped, offsets[i], offsets[i + 1]);
+        }
+        this.keys = grouped;
+        this.keyOffsets = offsets;
+    }
+
+    /**
+     * @param ordinal position of the node in the ring
+     * @param key     key index
+     * @return true if the key is stored at the node
+     */
+    public boolean storesKey(int ordinal, long key) {
+        return Arrays.binarySearch(keys, keyOffsets[ordinal], keyOffsets[ordinal + 1], key) >= 0;
+    }
+
+    /**
+     * Decides whether a node is responsible for a key from the range (predecessor id, node id]. Like in the ring of
+     * Node objects, the first of several nodes with the same id owns the range and a node that is alone owns the ring.
+     */
+    private boolean owns(int ordinal, long key) {
+        long id = ids[ordinal];
+        long predecessorId = ids[(ordinal - 1 + size) % size];
+        long length;
+        if (ordinal > 0 && predecessorId == id) {
+            length = 0;
+        } else {
+            length = (id - predecessorId) & mask;
+            if (length == 0) length = mask + 1;
+        }
+        return Long.compareUnsigned((key - predecessorId - 1) & mask, length) < 0;
+    }
+
+    /**
+     * This method looks up a key like ChordProtocol.lookUp(): starting at the origin, every node that is not
+     * responsible for the key forwards the lookup to the successor of the finger that covers the key.
+     *
+     * @param origin ordinal of the node the lookup starts at
+     * @param key    key index
+     * @param route  receives the ordinals of the nodes that forwarded the lookup, followed by the owner. m + 1 entries
+     *               are enough, since every hop at least halves the distance to the key
+     * @return number of nodes that forwarded the lookup (hop count), or -1 if no responsible node was found
+     */
+    public int lookUp(int origin, long key, int[] route) {
+        int current = origin;
+        int hops = 0;
+        while (!owns(current, key)) {
+            long offset = (key - ids[current]) & mask;
+            int finger = offset == 0 ? m - 1 : 63 - Long.numberOfLeadingZeros(offset);
+            int next = fingers[current * m + finger];
+            if (next == current || hops == route.length - 1) {
+                return -1;
+            }
+            route[hops++] = current;
+            current = next;
+        }
+        route[hops] = current;
+        return hops;
+    }
+
+    /**
+     * @param ordinal position of the node in the ring
+     * @return ordinal of the node that follows it in the ring
+     */
+    public int getSuccessor(int ordinal) {
+        return ordinal + 1 == size ? 0 : ordinal + 1;
+    }
+
+    /**
+     * @param ordinal position of the node in the ring
+     * @param i       index of the finger (0 based)
+     * @return ordinal of the successor of the ith finger
+     */
+    public int getFinger(int ordinal, int i) {
+        return fingers[ordinal * m + i];
+    }
+
+    /**
+     * @param ordinal position of the node in the ring
+     * @return id of the node
+     */
+    public long getId(int ordinal) {
+        return ids[ordinal];
+    }
+
+    /**
+     * @param ordinal position of the node in the ring
+     * @return name of the node, built on each call
+     */
+    public String getName(int ordinal) {
+        return "Node " + numbers[ordinal];
+    }
+
+    /**
+     * @param name name of a node, eg:- "Node 12"
+     * @return ordinal of the node, or -1 if there is no node with that name
+     */
+    public int ordinalOf(String name) {
+        if (!name.startsWith("Node ")) return -1;
+        int number;
+        try {
+            number = Integer.parseInt(name.substring("Node ".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        for (int i = 0; i < size; i++) {
+            if (numbers[i] == number) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return number of bytes held by the arrays of the ring and the keys
+     */
+    public long getMemoryBytes() {
+        return (long) ids.length * Long.BYTES + (long) numbers.length * Integer.BYTES
+                + (long) fingers.length * Integer.BYTES + (long) keyOffsets.length * Integer.BYTES
+                + (long) keys.length * Long.BYTES;
+    }
+
+    /**
+     * @return number of bytes per node held by the arrays of the ring and the keys
+     */
+    public double getBytesPerNode() {
+        return size == 0 ? 0 : (double) getMemoryBytes() / size;
+    }
+
+    /**
+     * builds a Node object with the name, id and keys of a node. The node has no routing table.
+     */
+    private Node toNode(int ordinal) {
+        Node node = new Node(getName(ordinal));
+        node.setLongId(ids[ordinal]);
+        node.data.addAll(keys, keyOffsets[ordinal], keyOffsets[ordinal + 1]);
+        return node;
+    }
+
+    /**
+     * builds Node objects for all nodes in ring order. It is expensive and only meant for small rings.
+     */
+    @Override
+    public LinkedHashMap<String, NodeInterface> getTopology() {
+        LinkedHashMap<String, NodeInterface> topology = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            Node node = toNode(i);
+            topology.put(node.getName(), node);
+        }
+        return topology;
+    }
+
+    @Override
+    public NodeInterface getNode(String name) {
+        int ordinal = ordinalOf(name);
+        return ordinal < 0 ? null : toNode(ordinal);
+    }
+
+    @Override
+    public void addNode(String name, NodeInterface node) {
+        throw new UnsupportedOperationException("the compact network has a fixed set of nodes");
+    }
+
+    @Override
+    public void removeNode(String name) {
+        throw new UnsupportedOperationException("the compact network has a fixed set of nodes");
+    }
+
+    @Override
+    public void printTopology() {
+        System.out.println("..............Printing network topology..............");
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            line.setLength(0);
+            line.append("Node : ").append(getName(i)).append("\tIndex: ").append(ids[i]).append("\tFingers: [");
+            for (int f = 0; f < m; f++) {
+                if (f > 0) line.append(", ");
+                line.append(ids[fingers[i * m + f]]);
+            }
+            line.append("]\tData : [");
+            for (int k = keyOffsets[i]; k < keyOffsets[i + 1]; k++) {
+                if (k > keyOffsets[i]) line.append(", ");
+                line.append(keys[k]);
+            }
+            System.out.println(line.append(']'));
+        }
+        System.out.println("......................................................");
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,92 @@
+package protocol;
+
+import p2p.NodeInterface;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class makes nodes of the ring fail (see NodeInterface.setAlive()). A failed node keeps its place in the ring,
+ * its links and its keys, but it does not answer, so lookups cannot be forwarded to it and its keys can only be found
+ * through their replicas. The nodes are chosen with a seeded random generator, so a failure can be repeated.
+ */
+public class FailureInjector {
+    private final Random random;
+
+    // nodes that have been made to fail and not recovered yet
+    private final List<NodeInterface> failed = new ArrayList<>();
+
+    /**
+     * @param seed seed of the random generator that chooses the nodes
+     */
+    public FailureInjector(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * This method chooses a fraction of the nodes without making them fail. The nodes are drawn without repetition
+     * with a partial Fisher-Yates shuffle.
+     *
+     * @param nodes    nodes to choose from
+     * @param fraction fraction of the nodes to choose, between 0 and 1
+     * @return the chosen nodes
+     */
+    public List<NodeInterface> choose(Collection<NodeInterface> nodes, double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("fraction of failed nodes must be between 0 and 1: " + fraction);
+        }
+        NodeInterface[] candidates = nodes.toArray(new NodeInterface[0]);
+        int count = (int) Math.round(fraction * candidates.length);
+        List<NodeInterface> chosen = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int j = i + random.nextInt(candidates.length - i);
+            NodeInterface node = candidates[j];
+            candidates[j] = candidates[i];
+            candidates[i] = node;
+            chosen.add(node);
+        }
+        return chosen;
+    }
+
+    /**
+     * makes the nodes fail
+     * @param nodes nodes that fail
+     */
+    public void fail(Collection<NodeInterface> nodes) {
+        for (NodeInterface node : nodes) {
+            node.setAlive(false);
+            failed.add(node);
+        }
+    }
+
+    /**
+     * makes a fraction of the nodes fail
+     * @param nodes    nodes to choose from
+     * @param fraction fraction of the nodes that fail, between 0 and 1
+     * @return the failed nodes
+     */
+    public List<NodeInterface> fail(Collection<NodeInterface> nodes, double fraction) {
+        List<NodeInterface> chosen = choose(nodes, fraction);
+        fail(chosen);
+        return chosen;
+    }
+
+    /**
+     * recovers all the nodes that have been made to fail
+     */
+    public void recover() {
+        for (NodeInterface node : failed) {
+            node.setAlive(true);
+        }
+        failed.clear();
+    }
+
+    /**
+     * @return number of nodes that have failed and not recovered
+     */
+    public int getFailedCount() {
+        return failed.size();
+    }
+}
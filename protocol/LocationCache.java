@@ -0,0 +1,131 @@
+package protocol;
+
+import p2p.NodeInterface;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A bounded cache of one node that maps ranges of the ring to the node that owns them. The ranges are the ranges
+ * (predecessor id, node id] of the owners, so one entry answers every key of the owner. The entries are kept in a
+ * TreeMap by the end of their range: the owner of a key is the entry with the smallest end >= key, or the first entry
+ * if the range wraps around the ring.
+ *
+ * When the cache is full an entry is evicted with the CLOCK algorithm: the hand walks over the entries and evicts the
+ * first one that has not been used since the hand last passed it.
+ *
+ * The methods are synchronized, since lookups from different threads can pass through the same node.
+ */
+public class LocationCache {
+    private static final class Entry {
+        final long start;
+        final long length;
+        final long end;
+        NodeInterface owner;
+        // set when the entry is used, cleared when the clock hand passes
+        boolean referenced;
+        // position in the clock
+        int position;
+
+        Entry(long start, long length, long end, NodeInterface owner) {
+            this.start = start;
+            this.length = length;
+            this.end = end;
+            this.owner = owner;
+        }
+    }
+
+    private final TreeMap<Long, Entry> ranges = new TreeMap<>();
+    private final Entry[] clock;
+    private final long mask;
+    private int size;
+    private int hand;
+
+    // version of the ring the entries belong to
+    long version;
+
+    /**
+     * @param capacity largest number of entries
+     * @param mask     2^m - 1
+     */
+    public LocationCache(int capacity, long mask) {
+        this.clock = new Entry[capacity];
+        this.mask = mask;
+    }
+
+    /**
+     * @param key key index
+     * @return the cached owner of the key, or null if no cached range contains the key
+     */
+    public synchronized NodeInterface find(long key) {
+        Map.Entry<Long, Entry> candidate = ranges.ceilingEntry(key);
+        if (candidate == null) {
+            candidate = ranges.firstEntry();
+            if (candidate == null) return null;
+        }
+        Entry entry = candidate.getValue();
+        if (Long.compareUnsigned((key - entry.start - 1) & mask, entry.length) >= 0) {
+            return null;
+        }
+        entry.referenced = true;
+        return entry.owner;
+    }
+
+    /**
+     * adds the range (start, start + length] of an owner, evicting an entry if the cache is full
+     * @param start  start of the range (exclusive)
+     * @param length number of ids in the range (unsigned, > 0)
+     * @param owner  node that owns the range
+     */
+    public synchronized void put(long start, long length, NodeInterface owner) {
+        long end = (start + length) & mask;
+        Entry existing = ranges.get(end);
+        if (existing != null) {
+            if (existing.start == start && existing.length == length) {
+                existing.owner = owner;
+                existing.referenced = true;
+                return;
+            }
+            // an old range with the same end, replace it in its clock position
+            Entry entry = new Entry(start, length, end, owner);
+            entry.position = existing.position;
+            clock[entry.position] = entry;
+            ranges.put(end, entry);
+            return;
+        }
+        if (clock.length == 0) return;
+
+        Entry entry = new Entry(start, length, end, owner);
+        if (size < clock.length) {
+            entry.position = size++;
+        } else {
+            while (clock[hand].referenced) {
+                clock[hand].referenced = false;
+                hand = (hand + 1) % clock.length;
+            }
+            ranges.remove(clock[hand].end);
+            entry.position = hand;
+            hand = (hand + 1) % clock.length;
+        }
+        clock[entry.position] = entry;
+        ranges.put(end, entry);
+    }
+
+    /**
+     * removes all entries
+     */
+    public synchronized void clear() {
+        ranges.clear();
+        Arrays.fill(clock, 0, size, null);
+        size = 0;
+        hand = 0;
+    }
+
+    /**
+     * @return number of cached ranges
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
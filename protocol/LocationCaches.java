@@ -0,0 +1,123 @@
+package protocol;
+
+import p2p.KeyStore;
+import p2p.NodeInterface;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class holds the location caches of the nodes and counts how often they answer a lookup. A node learns the
+ * range of the owner of a key from the lookups that pass through it, and later lookups for any key in that range jump
+ * from the node straight to the owner instead of following the fingers.
+ *
+ * The caches belong to a version of the ring. invalidate() starts a new version when nodes join or leave or the ring
+ * is rebuilt, and each cache clears itself the next time it is used, so a ring change does not have to visit every
+ * node.
+ */
+public class LocationCaches {
+    private final ConcurrentHashMap<String, LocationCache> caches = new ConcurrentHashMap<>();
+    private final int capacity;
+    private final long mask;
+    private volatile long version;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity number of ranges each node can cache
+     * @param m        length of the identifiers
+     */
+    public LocationCaches(int capacity, int m) {
+        this.capacity = capacity;
+        this.mask = (1L << m) - 1;
+    }
+
+    /**
+     * looks up the cached owner of a key in the cache of a node and counts the hit or miss. A cached owner that has
+     * failed or is the node itself cannot be jumped to, so it counts as a miss
+     * @param node node the lookup is at
+     * @param key  key index
+     * @return the cached owner, or null
+     */
+    public NodeInterface find(NodeInterface node, long key) {
+        LocationCache cache = caches.get(node.getName());
+        NodeInterface owner = null;
+        if (cache != null) {
+            synchronized (cache) {
+                if (cache.version != version) {
+                    cache.clear();
+                    cache.version = version;
+                } else {
+                    owner = cache.find(key);
+                }
+            }
+        }
+        if (owner == node || owner != null && !owner.isAlive()) {
+            owner = null;
+        }
+        if (owner == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return owner;
+    }
+
+    /**
+     * caches the range of the owner of a key at a node. Nothing is cached if the owner does not know its range.
+     * @param node  node that learns the owner
+     * @param owner node that stores the key
+     */
+    public void learn(NodeInterface node, NodeInterface owner) {
+        if (!(owner.getData() instanceof KeyStore)) return;
+        KeyStore keys = (KeyStore) owner.getData();
+        if (!keys.hasRange() || keys.getRangeLength() == 0) return;
+
+        LocationCache cache = caches.computeIfAbsent(node.getName(), name -> new LocationCache(capacity, mask));
+        synchronized (cache) {
+            if (cache.version != version) {
+                cache.clear();
+                cache.version = version;
+            }
+            cache.put(keys.getRangeStart(), keys.getRangeLength(), owner);
+        }
+    }
+
+    /**
+     * drops the cached ranges of all nodes, eg:- after a node has joined or left the ring
+     */
+    public synchronized void invalidate() {
+        version++;
+    }
+
+    /**
+     * @return number of lookups at a node that found the owner in the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of lookups at a node that did not find the owner in the cache
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return fraction of the cache lookups that were hits
+     */
+    public double getHitRate() {
+        long total = getHits() + getMisses();
+        return total == 0 ? 0 : (double) getHits() / total;
+    }
+
+    /**
+     * resets the hit and miss counts
+     */
+    public void resetCounts() {
+        hits.reset();
+        misses.reset();
+    }
+}
@@ -0,0 +1,276 @@
+package protocol;
+
+import p2p.NodeInterface;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class collects routing metrics of the lookups: a histogram of the hop counts, how many lookups have been
+ * routed through each node, how often each finger has been used and how long the build phases took. The counters are
+ * striped LongAdders, so lookups on many threads can update them without contending on a single value.
+ *
+ * The metrics are only collected when they are set on the protocol with ChordProtocol.setMetrics(). The snapshot is
+ * written as a JSON file.
+ */
+public class LookUpMetrics {
+    // hop counts from this value on are counted in the last bucket of the histogram
+    public static final int MAX_HISTOGRAM_HOPS = 64;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder totalHops = new LongAdder();
+    private final LongAdder fingerTableReads = new LongAdder();
+    private final LongAccumulator maxHops = new LongAccumulator(Math::max, 0);
+
+    // number of lookups per hop count
+    private final LongAdder[] hopHistogram = new LongAdder[MAX_HISTOGRAM_HOPS + 1];
+
+    // number of times each finger has been followed
+    private final LongAdder[] fingerUsage;
+
+    // number of lookups routed through each node, by node name
+    private final ConcurrentHashMap<String, LongAdder> routedThrough = new ConcurrentHashMap<>();
+
+    // number of runs and total time in nanoseconds of each build phase, in the order the phases first ran
+    private final Map<String, long[]> phases = new LinkedHashMap<>();
+
+    /**
+     * @param fingers number of fingers in the finger tables (m)
+     */
+    public LookUpMetrics(int fingers) {
+        this.fingerUsage = new LongAdder[fingers];
+        for (int i = 0; i < fingers; i++) {
+            fingerUsage[i] = new LongAdder();
+        }
+        for (int i = 0; i < hopHistogram.length; i++) {
+            hopHistogram[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * records that a node has forwarded a lookup
+     * @param node   node that forwards the lookup
+     * @param finger index of the finger (0 based), or -1 if the node forwarded it to a cached owner
+     */
+    public void recordHop(NodeInterface node, int finger) {
+        if (finger >= 0 && finger < fingerUsage.length) {
+            fingerUsage[finger].increment();
+        }
+        LongAdder count = routedThrough.get(node.getName());
+        if (count == null) {
+            count = routedThrough.computeIfAbsent(node.getName(), name -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    /**
+     * records that a node has forwarded several lookups of a batch in one step (see ChordProtocol.lookUpAll())
+     * @param node   node that forwards the lookups
+     * @param finger index of the finger (0 based)
+     * @param count  number of lookups that have been forwarded
+     */
+    public void recordHops(NodeInterface node, int finger, int count) {
+        if (finger >= 0 && finger < fingerUsage.length) {
+            fingerUsage[finger].add(count);
+        }
+        LongAdder routed = routedThrough.get(node.getName());
+        if (routed == null) {
+            routed = routedThrough.computeIfAbsent(node.getName(), name -> new LongAdder());
+        }
+        routed.add(count);
+    }
+
+    /**
+     * records that a node has searched its finger table for the finger that covers a key
+     */
+    public void recordFingerTableRead() {
+        fingerTableReads.increment();
+    }
+
+    /**
+     * records a lookup that has found the node responsible for the key
+     * @param hopCount number of nodes that forwarded the lookup
+     */
+    public void recordLookUp(int hopCount) {
+        lookups.increment();
+        totalHops.add(hopCount);
+        maxHops.accumulate(hopCount);
+        hopHistogram[Math.min(hopCount, MAX_HISTOGRAM_HOPS)].increment();
+    }
+
+    /**
+     * records a lookup that did not find the node responsible for the key
+     */
+    public void recordFailure() {
+        failures.increment();
+    }
+
+    /**
+     * adds the duration of a run of a build phase (eg:- buildFingerTable)
+     * @param phase name of the phase
+     * @param nanos duration in nanoseconds
+     */
+    public synchronized void recordPhase(String phase, long nanos) {
+        long[] timing = phases.computeIfAbsent(phase, name -> new long[2]);
+        timing[0]++;
+        timing[1] += nanos;
+    }
+
+    /**
+     * @return number of successful lookups
+     */
+    public long getLookUps() {
+        return lookups.sum();
+    }
+
+    /**
+     * @return number of failed lookups
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return number of times a node has searched its finger table for a key
+     */
+    public long getFingerTableReads() {
+        return fingerTableReads.sum();
+    }
+
+    /**
+     * @return largest hop count seen
+     */
+    public long getMaxHops() {
+        return maxHops.get();
+    }
+
+    /**
+     * @return average hop count of the successful lookups
+     */
+    public double getAverageHops() {
+        long count = lookups.sum();
+        return count == 0 ? 0 : (double) totalHops.sum() / count;
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return hop count at the percentile (nearest rank) of the successful lookups
+     */
+    public int getHopPercentile(double percentile) {
+        long[] counts = new long[hopHistogram.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = hopHistogram[i].sum();
+            total += counts[i];
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param name name of the node
+     * @return number of lookups routed through the node
+     */
+    public long getRoutedThrough(String name) {
+        LongAdder count = routedThrough.get(name);
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * @param i index of the finger (0 based)
+     * @return number of times the finger has been followed
+     */
+    public long getFingerUsage(int i) {
+        return fingerUsage[i].sum();
+    }
+
+    /**
+     * clears all counters and timings
+     */
+    public synchronized void reset() {
+        lookups.reset();
+        failures.reset();
+        totalHops.reset();
+        fingerTableReads.reset();
+        maxHops.reset();
+        for (LongAdder count : hopHistogram) count.reset();
+        for (LongAdder count : fingerUsage) count.reset();
+        routedThrough.clear();
+        phases.clear();
+    }
+
+    /**
+     * This method writes a snapshot of the metrics as JSON. The nodes are listed by the number of lookups routed
+     * through them, busiest first, so that routing hotspots are at the top.
+     *
+     * @param file the snapshot file
+     */
+    public synchronized void writeSnapshot(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("{\n");
+            writer.write("  \"lookups\": " + getLookUps() + ",\n");
+            writer.write("  \"failures\": " + getFailures() + ",\n");
+            writer.write("  \"fingerTableReads\": " + getFingerTableReads() + ",\n");
+            writer.write("  \"hops\": {\"mean\": " + getAverageHops() + ", \"p50\": " + getHopPercentile(50) +
+                    ", \"p99\": " + getHopPercentile(99) + ", \"max\": " + getMaxHops() + ",\n");
+            writer.write("    \"histogram\": [");
+            int last = hopHistogram.length - 1;
+            while (last > 0 && hopHistogram[last].sum() == 0) last--;
+            for (int i = 0; i <= last; i++) {
+                writer.write((i > 0 ? ", " : "") + hopHistogram[i].sum());
+            }
+            writer.write("]},\n");
+
+            writer.write("  \"fingerUsage\": [");
+            for (int i = 0; i < fingerUsage.length; i++) {
+                writer.write((i > 0 ? ", " : "") + fingerUsage[i].sum());
+            }
+            writer.write("],\n");
+
+            writer.write("  \"phases\": {");
+            boolean first = true;
+            for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+                writer.write((first ? "\n" : ",\n") + "    \"" + phase.getKey() + "\": {\"runs\": " +
+                        phase.getValue()[0] + ", \"millis\": " + phase.getValue()[1] / 1e6 + "}");
+                first = false;
+            }
+            writer.write(first ? "},\n" : "\n  },\n");
+
+            List<Map.Entry<String, Long>> nodes = new ArrayList<>(routedThrough.size());
+            for (Map.Entry<String, LongAdder> node : routedThrough.entrySet()) {
+                nodes.add(Map.entry(node.getKey(), node.getValue().sum()));
+            }
+            nodes.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+            writer.write("  \"routedThrough\": {");
+            first = true;
+            for (Map.Entry<String, Long> node : nodes) {
+                writer.write((first ? "\n" : ",\n") + "    \"" + escape(node.getKey()) + "\": " + node.getValue());
+                first = false;
+            }
+            writer.write(first ? "}\n" : "\n  }\n");
+            writer.write("}\n");
+        }
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -8,24 +8,23 @@ import java.util.LinkedHashSet;
  */
 public class LookUpResponse {
     public LinkedHashSet<String> peers_looked_up;
-    public int node_index;
+    public long node_index;
     public String node_name;
 
-    public LookUpResponse(LinkedHashSet<String> peers_looked_up, int node_index,String node_name) {
+    public LookUpResponse(LinkedHashSet<String> peers_looked_up, long node_index,String node_name) {
         this.peers_looked_up = peers_looked_up;
         this.node_index = node_index;
         this.node_name = node_name;
     }
 
     public String toString() {
-        String result = "";
-        result = result.concat("peers : ");
-        for(String peer: peers_looked_up){
-            result = result.concat(peer + "\t");
+        StringBuilder result = new StringBuilder("peers : ");
+        for (String peer : peers_looked_up) {
+            result.append(peer).append('\t');
         }
-        result=result.concat("\t hop count : " + peers_looked_up.size());
-        result = result.concat("\t node index : " + node_index);
-        result = result.concat("\t node name : " + node_name);
-        return  result;
+        result.append("\t hop count : ").append(peers_looked_up.size());
+        result.append("\t node index : ").append(node_index);
+        result.append("\t node name : ").append(node_name);
+        return result.toString();
     }
 }
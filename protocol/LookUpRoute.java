@@ -0,0 +1,196 @@
+package protocol;
+
+import p2p.NodeInterface;
+import p2p.VirtualNode;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+/**
+ * This class is a reusable result of a lookup (see ChordProtocol.lookUp(NodeInterface, long, LookUpRoute)). The route
+ * is kept as the ring ordinals of the nodes that forwarded the lookup, in an int buffer that is only replaced when a
+ * route is longer than the buffer, so a lookup into the same object does not allocate once the buffer is large
+ * enough. The node names are only looked up when the result is printed or converted to a LookUpResponse.
+ *
+ * With virtual nodes a lookup can pass several positions of the same physical node. The route keeps every position
+ * while the lookup runs, and they are merged into the first position of their physical node once, when the route is
+ * read, so the hop count and the names count each physical node once like the set of names in LookUpResponse.
+ *
+ * The ordinals refer to the ring at the time of the lookup, so the result should be read before nodes join or leave.
+ */
+public class LookUpRoute {
+    // ring ordinals of the nodes that forwarded the lookup. only the first 'size' entries are used
+    private int[] route;
+    private int size;
+    // ring ordinal of the node that stores the key, -1 if the lookup has failed
+    private int owner = -1;
+    private long keyIndex;
+    private RingIndex ring;
+    // true once the positions of virtual nodes on the route have been merged
+    private boolean merged;
+
+    /**
+     * @param capacity number of hops the route buffer holds before it grows. m + 1 is enough for lookups that only
+     *                 follow the fingers
+     */
+    public LookUpRoute(int capacity) {
+        this(new int[Math.max(1, capacity)]);
+    }
+
+    /**
+     * @param buffer buffer the ordinals of the route are written to
+     */
+    public LookUpRoute(int[] buffer) {
+        this.route = buffer.length == 0 ? new int[1] : buffer;
+    }
+
+    // starts a new lookup
+    void reset(RingIndex ring, long keyIndex) {
+        this.ring = ring;
+        this.keyIndex = keyIndex;
+        this.size = 0;
+        this.owner = -1;
+        this.merged = false;
+    }
+
+    // adds a node that forwarded the lookup. a position that is already on the route is not added again
+    void add(int ordinal) {
+        for (int i = 0; i < size; i++) {
+            if (route[i] == ordinal) {
+                return;
+            }
+        }
+        if (size == route.length) {
+            route = Arrays.copyOf(route, size * 2);
+        }
+        route[size++] = ordinal;
+    }
+
+    // merges the positions of each virtual node into the first of them. positions of nodes without virtual nodes are
+    // unique, so only virtual positions are compared, by their physical node
+    private void merge() {
+        if (merged) {
+            return;
+        }
+        merged = true;
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            NodeInterface node = ring.getNode(route[i]);
+            if (node instanceof VirtualNode && isMerged(((VirtualNode) node).physical, kept)) {
+                continue;
+            }
+            route[kept++] = route[i];
+        }
+        size = kept;
+    }
+
+    // true if one of the first 'kept' positions of the route belongs to the physical node
+    private boolean isMerged(NodeInterface physical, int kept) {
+        for (int j = 0; j < kept; j++) {
+            NodeInterface node = ring.getNode(route[j]);
+            if (node instanceof VirtualNode && ((VirtualNode) node).physical == physical) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // sets the node that stores the key
+    void setOwner(int ordinal) {
+        this.owner = ordinal;
+    }
+
+    /**
+     * @return true if the lookup has found the node that stores the key
+     */
+    public boolean isFound() {
+        return owner >= 0;
+    }
+
+    /**
+     * @return index of the key that has been looked up
+     */
+    public long getKeyIndex() {
+        return keyIndex;
+    }
+
+    /**
+     * @return number of nodes that forwarded the lookup
+     */
+    public int getHopCount() {
+        merge();
+        return size;
+    }
+
+    /**
+     * @param i position on the route (0 is the origin)
+     * @return ring ordinal of the ith node that forwarded the lookup
+     */
+    public int getRouteOrdinal(int i) {
+        merge();
+        return route[i];
+    }
+
+    /**
+     * @param i position on the route (0 is the origin)
+     * @return name of the ith node that forwarded the lookup
+     */
+    public String getRouteName(int i) {
+        merge();
+        return ring.getNode(route[i]).getName();
+    }
+
+    /**
+     * @return ring ordinal of the node that stores the key, or -1 if the lookup has failed
+     */
+    public int getOwnerOrdinal() {
+        return owner;
+    }
+
+    /**
+     * @return node that stores the key, or null if the lookup has failed
+     */
+    public NodeInterface getOwner() {
+        return owner < 0 ? null : ring.getNode(owner);
+    }
+
+    /**
+     * @return name of the node that stores the key, or null if the lookup has failed
+     */
+    public String getOwnerName() {
+        return owner < 0 ? null : ring.getNode(owner).getName();
+    }
+
+    /**
+     * @return the result as a LookUpResponse, or null if the lookup has failed
+     */
+    public LookUpResponse toResponse() {
+        if (owner < 0) {
+            return null;
+        }
+        merge();
+        LinkedHashSet<String> names = new LinkedHashSet<>();
+        for (int i = 0; i < size; i++) {
+            names.add(getRouteName(i));
+        }
+        return new LookUpResponse(names, keyIndex, getOwnerName());
+    }
+
+    /**
+     * prints the result in the format of LookUpResponse
+     */
+    @Override
+    public String toString() {
+        if (owner < 0) {
+            return "key index : " + keyIndex + "\t lookup failed";
+        }
+        merge();
+        StringBuilder builder = new StringBuilder("peers : ");
+        for (int i = 0; i < size; i++) {
+            builder.append(getRouteName(i)).append('\t');
+        }
+        return builder.append("\t hop count : ").append(size)
+                .append("\t node index : ").append(keyIndex)
+                .append("\t node name : ").append(getOwnerName()).toString();
+    }
+}
@@ -0,0 +1,22 @@
+package protocol;
+
+import p2p.NodeInterface;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Carries out the lookups that AsyncLookUps has started. A service runs a lookup somewhere else than on the calling
+ * thread, eg:- on the workers of an executor (ChordProtocol.lookUpService()) or as messages between the peers of the
+ * loopback transport (LoopbackLookUps), and completes the future when the lookup is done.
+ */
+public interface LookUpService {
+
+    /**
+     * starts a lookup and returns without waiting for it
+     * @param origin   node the lookup starts from
+     * @param keyIndex index of the key
+     * @param result   completed with the response, with null if the lookup has failed, or exceptionally if the
+     *                 lookup could not be carried out. it may already be completed by a timeout
+     */
+    void lookUp(NodeInterface origin, long keyIndex, CompletableFuture<LookUpResponse> result);
+}
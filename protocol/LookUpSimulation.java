@@ -0,0 +1,161 @@
+package protocol;
+
+import p2p.EventScheduler;
+import p2p.LatencyModel;
+import p2p.Message;
+import p2p.MessageHandler;
+import p2p.NodeInterface;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class runs chord lookups as message exchanges between the nodes on the discrete event scheduler. A lookup
+ * starts at its origin node, which forwards a lookup message along the route that ChordProtocol.lookUp() would take.
+ * The node that stores the key sends a response back to the origin, and the lookup latency is the virtual time from
+ * the start of the lookup until the response arrives.
+ *
+ * The finger tables are only read, so the simulation can run on the protocol after buildFingerTable().
+ */
+public class LookUpSimulation implements MessageHandler {
+    // message types
+    public static final int LOOKUP = 0;
+    public static final int RESPONSE = 1;
+
+    // state of a single lookup, carried by its messages
+    private static final class Request {
+        final int index;
+        final long keyIndex;
+        final NodeInterface origin;
+        final double startTime;
+        int hops;
+
+        Request(int index, long keyIndex, NodeInterface origin, double startTime) {
+            this.index = index;
+            this.keyIndex = keyIndex;
+            this.origin = origin;
+            this.startTime = startTime;
+        }
+    }
+
+    private final ChordProtocol protocol;
+
+    private final EventScheduler scheduler;
+
+    // latency of each completed lookup in milliseconds, in the order the lookups have been started
+    private double[] latencies = new double[16];
+
+    private int started;
+
+    private int completed;
+
+    // hop counts of the completed lookups and the number of failed lookups
+    public final LookUpStatistics statistics = new LookUpStatistics();
+
+    // wall clock time the last run() took, in nanoseconds
+    private long runTime;
+
+    public LookUpSimulation(ChordProtocol protocol, LatencyModel latencyModel, long seed) {
+        this.protocol = protocol;
+        this.scheduler = new EventScheduler(latencyModel, this, seed);
+    }
+
+    /**
+     * @return the scheduler that delivers the messages of the lookups
+     */
+    public EventScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * This method starts a lookup at the given virtual time. The lookup is carried out when run() is called.
+     *
+     * @param origin    node that starts the lookup
+     * @param keyIndex  index of the key
+     * @param startTime virtual time in milliseconds at which the lookup starts
+     */
+    public void lookUp(NodeInterface origin, long keyIndex, double startTime) {
+        Request request = new Request(started++, keyIndex, origin, startTime);
+        scheduler.sendAt(startTime, new Message(LOOKUP, origin, origin, request));
+    }
+
+    /**
+     * This method delivers the messages of all started lookups.
+     */
+    public void run() {
+        long start = System.nanoTime();
+        scheduler.run();
+        runTime += System.nanoTime() - start;
+    }
+
+    @Override
+    public void handle(Message message, EventScheduler scheduler) {
+        Request request = (Request) message.payload;
+        NodeInterface node = message.to;
+        if (message.type == RESPONSE) {
+            complete(request, scheduler.now());
+            return;
+        }
+        if (!node.isAlive()) {
+            // a failed node does not answer, the lookup times out
+            statistics.recordFailure();
+            return;
+        }
+        if (protocol.isResponsible(node, request.keyIndex)
+                || protocol.answersFromReplica(message.from, node, request.keyIndex)) {
+            scheduler.send(new Message(RESPONSE, node, request.origin, request));
+            return;
+        }
+        NodeInterface next = protocol.nextHop(node, request.keyIndex);
+        if (next == null || next.equals(node)) {
+            // same as lookUp(): the route cannot continue
+            statistics.recordFailure();
+            return;
+        }
+        request.hops++;
+        scheduler.send(new Message(LOOKUP, node, next, request));
+    }
+
+    private void complete(Request request, double time) {
+        if (completed == latencies.length) {
+            latencies = Arrays.copyOf(latencies, latencies.length * 2);
+        }
+        latencies[completed++] = time - request.startTime;
+        statistics.record(request.hops);
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return latency of the completed lookups at the percentile in milliseconds (nearest rank)
+     */
+    public double getLatencyPercentile(double percentile) {
+        if (completed == 0) return 0;
+        double[] sorted = Arrays.copyOf(latencies, completed);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * completed);
+        return sorted[Math.max(0, Math.min(completed, rank) - 1)];
+    }
+
+    /**
+     * @return messages delivered per second of wall clock time spent in run()
+     */
+    public double getMessagesPerSecond() {
+        return runTime == 0 ? 0 : scheduler.messagesDelivered * 1e9 / runTime;
+    }
+
+    /**
+     * @return summary of the simulated lookups as output lines
+     */
+    public List<String> report() {
+        List<String> lines = new ArrayList<>();
+        lines.add("\nsimulated lookups: " + completed + "\tfailed: " + statistics.failures);
+        lines.add("simulated average hop count: " + statistics.getAverageHops());
+        lines.add(String.format("lookup latency (ms): p50 %.3f\tp90 %.3f\tp99 %.3f\tmax %.3f",
+                getLatencyPercentile(50), getLatencyPercentile(90), getLatencyPercentile(99),
+                getLatencyPercentile(100)));
+        lines.add(String.format("virtual time (ms): %.3f\tmessages: %d\tmessages per second (wall clock): %.0f",
+                scheduler.now(), scheduler.messagesDelivered, getMessagesPerSecond()));
+        return lines;
+    }
+}
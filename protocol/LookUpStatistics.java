@@ -0,0 +1,54 @@
+package protocol;
+
+/**
+ * This class collects the statistics of a set of lookups: number of lookups, failed lookups and the hop counts.
+ * It is not thread safe. When lookups run on several threads, each thread keeps its own statistics and they are
+ * merged at the end with merge().
+ */
+public class LookUpStatistics {
+    // number of successful lookups
+    public long lookups;
+    // number of lookups that did not return the node that stores the key
+    public long failures;
+    // sum of the hop counts of the successful lookups
+    public long totalHops;
+    // largest hop count seen
+    public int maxHops;
+
+    /**
+     * records a successful lookup
+     * @param hopCount number of nodes whose finger table has been checked
+     */
+    public void record(int hopCount) {
+        lookups++;
+        totalHops += hopCount;
+        if (hopCount > maxHops) {
+            maxHops = hopCount;
+        }
+    }
+
+    /**
+     * records a failed lookup
+     */
+    public void recordFailure() {
+        failures++;
+    }
+
+    /**
+     * adds the statistics of another thread to these statistics
+     * @param other statistics to add
+     */
+    public void merge(LookUpStatistics other) {
+        lookups += other.lookups;
+        failures += other.failures;
+        totalHops += other.totalHops;
+        maxHops = Math.max(maxHops, other.maxHops);
+    }
+
+    /**
+     * @return average hop count of the successful lookups
+     */
+    public double getAverageHops() {
+        return lookups == 0 ? 0 : (double) totalHops / lookups;
+    }
+}
@@ -0,0 +1,350 @@
+package protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class streams the lookup results to a file. Every result is encoded straight into a large direct buffer, which
+ * is written to the file channel when it is full, so the results do not have to be kept in memory and the file is not
+ * flushed after every line.
+ *
+ * The binary format starts with the int MAGIC and the int VERSION, followed by records that start with a type byte:
+ *      LOOKUP:  key name, key index (long), node name, node index (long), hop count (int), hop count route names
+ *      FAILURE: key name, key index (long)
+ *      LINE:    text
+ * Strings are written as an unsigned short length followed by the UTF-8 bytes. Numbers are big endian.
+ */
+public class LookUpWriter implements Closeable {
+    public static final int MAGIC = 0x43484C4B;
+    public static final int VERSION = 1;
+
+    // record types of the binary format
+    public static final byte LOOKUP = 1;
+    public static final byte FAILURE = 2;
+    public static final byte LINE = 3;
+
+    // size of the write buffer
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private final OutputFormat format;
+
+    // digits of the number that is being written, filled from the end
+    private final byte[] digits = new byte[20];
+
+    /**
+     * opens the file for writing. An existing file is cleared.
+     * @param file   the output file
+     * @param format format of the output
+     */
+    public LookUpWriter(Path file, OutputFormat format) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.format = format;
+        if (format == OutputFormat.BINARY) {
+            ensure(8);
+            buffer.putInt(MAGIC).putInt(VERSION);
+        } else if (format == OutputFormat.CSV) {
+            putAscii("key,key_index,node,node_index,hop_count,route\n");
+        }
+    }
+
+    /**
+     * This method formats a lookup result in the text format of the assignment.
+     *
+     * @param keyName  name of the key
+     * @param keyIndex index of the key
+     * @param response response of the lookup
+     * @return the output line
+     */
+    public static String format(String keyName, long keyIndex, LookUpResponse response) {
+        return keyName + ": " + keyIndex +
+                "\t" + response.node_name + ": " + response.node_index +
+                "\thop count: " + response.peers_looked_up.size() +
+                "\troute: " + response.peers_looked_up.toString();
+    }
+
+    /**
+     * writes the result of a lookup
+     * @param keyName  name of the key
+     * @param keyIndex index of the key
+     * @param response response of the lookup
+     */
+    public void write(String keyName, long keyIndex, LookUpResponse response) throws IOException {
+        switch (format) {
+            case BINARY:
+                ensure(1);
+                buffer.put(LOOKUP);
+                putString(keyName);
+                ensure(8);
+                buffer.putLong(keyIndex);
+                putString(response.node_name);
+                ensure(12);
+                buffer.putLong(response.node_index).putInt(response.peers_looked_up.size());
+                for (String peer : response.peers_looked_up) {
+                    putString(peer);
+                }
+                break;
+            case CSV:
+                putCsv(keyName);
+                putAscii(",");
+                putLong(keyIndex);
+                putAscii(",");
+                putCsv(response.node_name);
+                putAscii(",");
+                putLong(response.node_index);
+                putAscii(",");
+                putLong(response.peers_looked_up.size());
+                putAscii(",");
+                boolean first = true;
+                for (String peer : response.peers_looked_up) {
+                    if (!first) putAscii(";");
+                    putCsv(peer);
+                    first = false;
+                }
+                putAscii("\n");
+                break;
+            default:
+                // same as format(), without building the line
+                putText(keyName);
+                putAscii(": ");
+                putLong(keyIndex);
+                putAscii("\t");
+                putText(response.node_name);
+                putAscii(": ");
+                putLong(response.node_index);
+                putAscii("\thop count: ");
+                putLong(response.peers_looked_up.size());
+                putAscii("\troute: [");
+                first = true;
+                for (String peer : response.peers_looked_up) {
+                    if (!first) putAscii(", ");
+                    putText(peer);
+                    first = false;
+                }
+                putAscii("]\n");
+        }
+    }
+
+    /**
+     * writes the result of a lookup like write(String, long, LookUpResponse), reading the names of the nodes straight
+     * from the ring instead of from a response object
+     * @param keyName name of the key
+     * @param route   result of the lookup, which must have found the node that stores the key
+     */
+    public void write(String keyName, LookUpRoute route) throws IOException {
+        long keyIndex = route.getKeyIndex();
+        int hops = route.getHopCount();
+        switch (format) {
+            case BINARY:
+                ensure(1);
+                buffer.put(LOOKUP);
+                putString(keyName);
+                ensure(8);
+                buffer.putLong(keyIndex);
+                putString(route.getOwnerName());
+                ensure(12);
+                buffer.putLong(keyIndex).putInt(hops);
+                for (int i = 0; i < hops; i++) {
+                    putString(route.getRouteName(i));
+                }
+                break;
+            case CSV:
+                putCsv(keyName);
+                putAscii(",");
+                putLong(keyIndex);
+                putAscii(",");
+                putCsv(route.getOwnerName());
+                putAscii(",");
+                putLong(keyIndex);
+                putAscii(",");
+                putLong(hops);
+                putAscii(",");
+                for (int i = 0; i < hops; i++) {
+                    if (i > 0) putAscii(";");
+                    putCsv(route.getRouteName(i));
+                }
+                putAscii("\n");
+                break;
+            default:
+                putText(keyName);
+                putAscii(": ");
+                putLong(keyIndex);
+                putAscii("\t");
+                putText(route.getOwnerName());
+                putAscii(": ");
+                putLong(keyIndex);
+                putAscii("\thop count: ");
+                putLong(hops);
+                putAscii("\troute: [");
+                for (int i = 0; i < hops; i++) {
+                    if (i > 0) putAscii(", ");
+                    putText(route.getRouteName(i));
+                }
+                putAscii("]\n");
+        }
+    }
+
+    /**
+     * writes a lookup that did not find the node that stores the key
+     * @param keyName  name of the key
+     * @param keyIndex index of the key
+     */
+    public void writeFailure(String keyName, long keyIndex) throws IOException {
+        switch (format) {
+            case BINARY:
+                ensure(1);
+                buffer.put(FAILURE);
+                putString(keyName);
+                ensure(8);
+                buffer.putLong(keyIndex);
+                break;
+            case CSV:
+                putCsv(keyName);
+                putAscii(",");
+                putLong(keyIndex);
+                putAscii(",,,,\n");
+                break;
+            default:
+                putText(keyName);
+                putAscii(": ");
+                putLong(keyIndex);
+                putAscii("\tlookup failed\n");
+        }
+    }
+
+    /**
+     * writes a line of text, eg:- the average hop count. In the CSV format the line is written as a comment that
+     * starts with '#'.
+     * @param line the line
+     */
+    public void writeLine(String line) throws IOException {
+        switch (format) {
+            case BINARY:
+                ensure(1);
+                buffer.put(LINE);
+                putString(line);
+                break;
+            case CSV:
+                for (String part : line.split("\n")) {
+                    if (part.isEmpty()) continue;
+                    putAscii("# ");
+                    putText(part);
+                    putAscii("\n");
+                }
+                break;
+            default:
+                putText(line);
+                putAscii("\n");
+        }
+    }
+
+    /**
+     * writes the buffered output to the file
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    // makes room for the given number of bytes in the buffer
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    // writes a string that only contains ASCII characters
+    private void putAscii(String text) throws IOException {
+        if (text.length() > buffer.capacity()) {
+            putBytes(text.getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        ensure(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+
+    // writes a string in UTF-8. ASCII strings, like the generated key and node names, are copied char by char
+    private void putText(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                putBytes(text.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+        }
+        putAscii(text);
+    }
+
+    private void putBytes(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.capacity()) {
+            flush();
+            channel.write(ByteBuffer.wrap(bytes));
+            return;
+        }
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    // writes a CSV field, quoted if it contains a separator or a quote
+    private void putCsv(String text) throws IOException {
+        if (text.indexOf(',') < 0 && text.indexOf(';') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0) {
+            putText(text);
+            return;
+        }
+        putAscii("\"");
+        putText(text.replace("\"", "\"\""));
+        putAscii("\"");
+    }
+
+    // writes a length prefixed UTF-8 string of the binary format
+    private void putString(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("string is too long for the binary format: " + bytes.length + " bytes");
+        }
+        ensure(2);
+        buffer.putShort((short) bytes.length);
+        putBytes(bytes);
+    }
+
+    // writes the decimal digits of a number without creating a string
+    private void putLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            putAscii(Long.toString(value));
+            return;
+        }
+        ensure(digits.length + 1);
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int position = digits.length;
+        do {
+            digits[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        buffer.put(digits, position, digits.length - position);
+    }
+}
@@ -0,0 +1,194 @@
+package protocol;
+
+import p2p.LoopbackTransport;
+import p2p.PeerHandler;
+import p2p.PeerMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class measures chord lookups over the loopback transport (see LoopbackLookUps). runLookUps() looks up keys
+ * from random local peers and keeps a fixed number of lookups in flight, so the peers are busy all the time and the
+ * result is the throughput of the sockets. runCalls() sends GET_FINGER requests one at a time to random peers, which
+ * gives the latency of a single remote call without any queueing.
+ *
+ * The results arrive on the transport thread, which also starts the next lookups; the calling thread only waits for
+ * the end of the run.
+ */
+public class LoopbackBenchmark implements PeerHandler {
+    private final LoopbackLookUps lookUps;
+    private final LoopbackTransport transport;
+    private final RingIndex ring;
+    private final ChordProtocol protocol;
+    private final int fingers;
+    private final Random random;
+
+    // hop counts of the successful lookups and the number of failed lookups
+    public final LookUpStatistics statistics = new LookUpStatistics();
+
+    private long[] keys;
+    private long[] startTimes;
+    // latencies in milliseconds of the successful lookups and of the calls
+    private double[] latencies = new double[0];
+    private double[] callLatencies = new double[0];
+    private int window;
+    private int started;
+    private int completed;
+    private int calls;
+    private int callsDone;
+    private long callStart;
+    private CountDownLatch done;
+    // wall clock time of the last runLookUps() in nanoseconds
+    private long runTime;
+
+    /**
+     * @param lookUps  peers the lookups run on. the benchmark becomes their client
+     * @param protocol protocol the peers run, used to check the owners
+     * @param seed     seed of the random origins and call targets
+     */
+    public LoopbackBenchmark(LoopbackLookUps lookUps, ChordProtocol protocol, long seed) {
+        this.lookUps = lookUps;
+        this.transport = lookUps.getTransport();
+        this.protocol = protocol;
+        this.ring = protocol.ringIndex;
+        this.fingers = protocol.m;
+        this.random = new Random(seed);
+        lookUps.setClient(this);
+    }
+
+    /**
+     * This method looks up every key once and waits until all results have arrived.
+     *
+     * @param keys          indexes of the keys
+     * @param window        number of lookups that are in flight at the same time
+     * @param timeoutMillis how long to wait for the results
+     * @return true if all results have arrived in time
+     */
+    public boolean runLookUps(long[] keys, int window, long timeoutMillis) throws InterruptedException {
+        this.keys = keys;
+        this.window = Math.max(1, window);
+        this.startTimes = new long[keys.length];
+        this.latencies = new double[keys.length];
+        this.started = 0;
+        this.completed = 0;
+        CountDownLatch finished = new CountDownLatch(keys.length == 0 ? 0 : 1);
+        this.done = finished;
+        long start = System.nanoTime();
+        transport.execute(() -> {
+            for (int i = 0; i < this.window; i++) {
+                startLookUp();
+            }
+        });
+        boolean inTime = finished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        runTime = System.nanoTime() - start;
+        return inTime;
+    }
+
+    /**
+     * This method sends GET_FINGER requests to random peers, one at a time, and waits until all answers have arrived.
+     *
+     * @param count         number of requests
+     * @param timeoutMillis how long to wait for the answers
+     * @return true if all answers have arrived in time
+     */
+    public boolean runCalls(int count, long timeoutMillis) throws InterruptedException {
+        this.calls = count;
+        this.callsDone = 0;
+        this.callLatencies = new double[count];
+        CountDownLatch finished = new CountDownLatch(count == 0 ? 0 : 1);
+        this.done = finished;
+        if (count > 0) {
+            transport.execute(this::startCall);
+        }
+        return finished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private int localPeer() {
+        return transport.getFirstLocal() + random.nextInt(transport.getLocalCount());
+    }
+
+    private void startLookUp() {
+        if (started == keys.length) {
+            return;
+        }
+        int i = started++;
+        startTimes[i] = System.nanoTime();
+        lookUps.lookUp(localPeer(), keys[i], i);
+    }
+
+    private void startCall() {
+        callStart = System.nanoTime();
+        lookUps.getFinger(localPeer(), random.nextInt(transport.getPeerCount()), random.nextInt(fingers), callsDone);
+    }
+
+    @Override
+    public void receive(int peer, PeerMessage message, LoopbackTransport transport) {
+        long now = System.nanoTime();
+        if (message.type == PeerMessage.LOOKUP_RESULT) {
+            int i = (int) message.requestId;
+            if (message.peer >= 0 && protocol.isResponsible(ring.getNode(message.peer), message.key)) {
+                latencies[(int) statistics.lookups] = (now - startTimes[i]) / 1e6;
+                statistics.record(message.hops);
+            } else {
+                statistics.recordFailure();
+            }
+            if (++completed == keys.length) {
+                done.countDown();
+            } else {
+                startLookUp();
+            }
+        } else if (message.type == PeerMessage.FINGER) {
+            callLatencies[callsDone++] = (now - callStart) / 1e6;
+            if (callsDone == calls) {
+                done.countDown();
+            } else {
+                startCall();
+            }
+        }
+    }
+
+    /**
+     * @return lookups completed per second of wall clock time in the last runLookUps()
+     */
+    public double getLookUpsPerSecond() {
+        return runTime == 0 ? 0 : completed * 1e9 / runTime;
+    }
+
+    // value at the percentile (nearest rank) of the first count values
+    private static double percentile(double[] values, int count, double percentile) {
+        if (count == 0) return 0;
+        double[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return sorted[Math.max(0, Math.min(count, rank) - 1)];
+    }
+
+    /**
+     * @return summary of the lookups and calls as output lines
+     */
+    public List<String> report() {
+        int found = (int) statistics.lookups;
+        double lookUpLatency = percentile(latencies, found, 50);
+        List<String> lines = new ArrayList<>();
+        lines.add("\nloopback peers: " + transport.getPeerCount() + "\tlocal: " + transport.getLocalCount());
+        lines.add("loopback lookups: " + found + "\tfailed: " + statistics.failures + "\tin flight: " + window);
+        lines.add("loopback average hop count: " + statistics.getAverageHops());
+        lines.add(String.format("loopback lookups per second: %.0f\tlookup latency (ms): p50 %.3f\tp99 %.3f",
+                getLookUpsPerSecond(), lookUpLatency, percentile(latencies, found, 99)));
+        // a lookup of h hops is h + 2 messages: to the origin, h forwards and the result
+        lines.add(String.format("loopback call latency (ms): p50 %.3f\tp90 %.3f\tp99 %.3f\tper message of a lookup %.3f",
+                percentile(callLatencies, callsDone, 50), percentile(callLatencies, callsDone, 90),
+                percentile(callLatencies, callsDone, 99), lookUpLatency / (statistics.getAverageHops() + 2)));
+        lines.add("loopback messages: " + transport.getMessagesSent() + "\tbytes: " + transport.getBytesSent() +
+                "\twrite calls: " + transport.getWriteCalls() + "\tdirect buffers: " +
+                transport.getBuffersAllocated() + "\tdropped: " + transport.getMessagesDropped() +
+                "\trejected frames: " + transport.getFramesRejected() + "\thandler errors: " +
+                transport.getHandlerErrors());
+        return lines;
+    }
+}
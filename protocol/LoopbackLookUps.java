@@ -0,0 +1,251 @@
+package protocol;
+
+import fingertable.RoutingTable;
+import p2p.LoopbackTransport;
+import p2p.NodeInterface;
+import p2p.PeerHandler;
+import p2p.PeerMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class runs the nodes of a chord ring as peers on the loopback transport. Each node of the ring is a peer that
+ * listens on its own localhost port, and the peer of ring ordinal i answers for ringIndex.getNode(i). A lookup is a
+ * LOOKUP message that every peer forwards to the next node of ChordProtocol.nextHop() until it reaches the owner of
+ * the key, which sends the LOOKUP_RESULT back to the origin. FIND_SUCCESSOR and GET_FINGER are single requests that
+ * a peer answers from its own finger table.
+ *
+ * The answers that arrive at the local peers (LOOKUP_RESULT, SUCCESSOR and FINGER) are passed to the client. As a
+ * LookUpService the peers also carry out the lookups of an AsyncLookUps pipeline: those lookups have negative request
+ * ids, and their results complete the futures instead of going to the client. The finger tables are only read, so the
+ * peers can run on the protocol after buildFingerTable().
+ */
+public class LoopbackLookUps implements PeerHandler, LookUpService, Closeable {
+    private final ChordProtocol protocol;
+    private final RingIndex ring;
+    private final LoopbackTransport transport;
+    // message the requests of this process are encoded from
+    private final PeerMessage outgoing = new PeerMessage();
+    private PeerHandler client;
+    // futures of the asynchronous lookups by request id
+    private final ConcurrentHashMap<Long, CompletableFuture<LookUpResponse>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextAsyncId = new AtomicLong(-1);
+
+    /**
+     * This method opens the sockets of all nodes of the ring in this process.
+     *
+     * @param protocol protocol whose overlay network and finger tables have been built
+     */
+    public LoopbackLookUps(ChordProtocol protocol) throws IOException {
+        this(protocol, 0, 0, protocol.ringIndex.size());
+    }
+
+    /**
+     * This method opens the sockets of the local nodes. The other processes have to build the same ring.
+     *
+     * @param protocol   protocol whose overlay network and finger tables have been built
+     * @param basePort   node i listens on basePort + i, 0 lets the system choose the ports if all nodes are local
+     * @param firstLocal ring ordinal of the first node hosted by this process
+     * @param localCount number of nodes hosted by this process
+     */
+    public LoopbackLookUps(ChordProtocol protocol, int basePort, int firstLocal, int localCount) throws IOException {
+        this.protocol = protocol;
+        this.ring = protocol.ringIndex;
+        this.transport = new LoopbackTransport(ring.size(), basePort, firstLocal, localCount, this);
+    }
+
+    /**
+     * @param client receives the answers that arrive at the local peers, on the transport thread
+     */
+    public void setClient(PeerHandler client) {
+        this.client = client;
+    }
+
+    /**
+     * starts the transport. with peers in other processes it waits until they accept connections
+     * @param timeoutMillis how long to wait for the other processes
+     */
+    public void start(long timeoutMillis) throws IOException {
+        transport.awaitPeers(timeoutMillis);
+        transport.start();
+    }
+
+    /**
+     * @return the transport the peers run on
+     */
+    public LoopbackTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * This method starts a lookup at a local peer. The client receives a LOOKUP_RESULT with the request id, the
+     * ring ordinal of the owner (-1 if the lookup has failed) and the hop count.
+     *
+     * @param origin    ring ordinal of the local peer the lookup starts at
+     * @param keyIndex  index of the key
+     * @param requestId id that is copied into the result
+     */
+    public void lookUp(int origin, long keyIndex, long requestId) {
+        requireLocal(origin);
+        if (!transport.inTransportThread()) {
+            transport.execute(() -> lookUp(origin, keyIndex, requestId));
+            return;
+        }
+        transport.send(origin, outgoing.set(PeerMessage.LOOKUP, requestId, origin, keyIndex, 0, 0));
+    }
+
+    /**
+     * This method starts a lookup for an AsyncLookUps pipeline. It can be called on any thread.
+     *
+     * @param origin   local node the lookup starts at
+     * @param keyIndex index of the key
+     * @param result   completed on the transport thread with the route and the owner, or with null if the lookup
+     *                 has failed
+     */
+    @Override
+    public void lookUp(NodeInterface origin, long keyIndex, CompletableFuture<LookUpResponse> result) {
+        int ordinal = ring.ordinalOf(origin);
+        requireLocal(ordinal);
+        long requestId = nextAsyncId.getAndDecrement();
+        pending.put(requestId, result);
+        // a lookup that has timed out gives up its entry, its result is ignored when it arrives
+        result.whenComplete((response, error) -> pending.remove(requestId));
+        lookUp(ordinal, keyIndex, requestId);
+    }
+
+    /**
+     * This method asks a peer for the successor of one of its fingers. The client receives a FINGER with the ring
+     * ordinal of the successor.
+     *
+     * @param from      ring ordinal of the local peer that asks and receives the answer
+     * @param peer      ring ordinal of the peer that is asked
+     * @param finger    index of the finger (0 based)
+     * @param requestId id that is copied into the answer
+     */
+    public void getFinger(int from, int peer, int finger, long requestId) {
+        requireLocal(from);
+        if (!transport.inTransportThread()) {
+            transport.execute(() -> getFinger(from, peer, finger, requestId));
+            return;
+        }
+        transport.send(peer, outgoing.set(PeerMessage.GET_FINGER, requestId, from, 0, 0, finger));
+    }
+
+    /**
+     * This method asks a peer for the next node on the route to an id. The client receives a SUCCESSOR with the ring
+     * ordinal of the node and index 1 if that node stores the id (its owner, or a replica when the owner has failed),
+     * so the node is found by asking the answered nodes until index is 1 (an iterative lookup).
+     *
+     * @param from      ring ordinal of the local peer that asks and receives the answer
+     * @param peer      ring ordinal of the peer that is asked
+     * @param id        index on the ring (eg:- key index)
+     * @param requestId id that is copied into the answer
+     */
+    public void findSuccessor(int from, int peer, long id, long requestId) {
+        requireLocal(from);
+        if (!transport.inTransportThread()) {
+            transport.execute(() -> findSuccessor(from, peer, id, requestId));
+            return;
+        }
+        transport.send(peer, outgoing.set(PeerMessage.FIND_SUCCESSOR, requestId, from, id, 0, 0));
+    }
+
+    private void requireLocal(int peer) {
+        if (!transport.isLocal(peer)) {
+            throw new IllegalArgumentException("peer " + peer + " is not hosted by this process");
+        }
+    }
+
+    @Override
+    public void receive(int peer, PeerMessage message, LoopbackTransport transport) {
+        NodeInterface node = ring.getNode(peer);
+        int from = message.peer;
+        switch (message.type) {
+            case PeerMessage.LOOKUP:
+                forward(peer, node, message, transport);
+                break;
+            case PeerMessage.FIND_SUCCESSOR: {
+                boolean owns = protocol.isResponsible(node, message.key);
+                NodeInterface next = owns ? node : protocol.nextHop(node, message.key);
+                // a detour past a failed owner ends at a replica of the id
+                boolean stores = owns || next != null && protocol.answersFromReplica(node, next, message.key);
+                int answer = next == null ? -1 : ring.ordinalOf(next);
+                transport.send(from, message.set(PeerMessage.SUCCESSOR, message.requestId, answer, 0, 0,
+                        stores ? 1 : 0));
+                break;
+            }
+            case PeerMessage.GET_FINGER: {
+                RoutingTable fingerTable = (RoutingTable) node.getRoutingTable();
+                int answer = message.index < fingerTable.size()
+                        ? ring.ordinalOf(fingerTable.getSuccessor(message.index)) : -1;
+                transport.send(from, message.set(PeerMessage.FINGER, message.requestId, answer, 0, 0, message.index));
+                break;
+            }
+            case PeerMessage.LOOKUP_RESULT:
+                if (message.requestId < 0) {
+                    complete(message);
+                } else if (client != null) {
+                    // the client's own lookup
+                    client.receive(peer, message, transport);
+                }
+                break;
+            default:
+                if (client != null) client.receive(peer, message, transport);
+        }
+    }
+
+    // completes the future of an asynchronous lookup with the route of the result
+    private void complete(PeerMessage message) {
+        CompletableFuture<LookUpResponse> result = pending.get(message.requestId);
+        if (result == null) {
+            return;
+        }
+        if (message.peer < 0) {
+            result.complete(null);
+            return;
+        }
+        LookUpRoute route = new LookUpRoute(message.hops);
+        route.reset(ring, message.key);
+        for (int i = 0; i < message.hops; i++) {
+            route.add(message.route[i]);
+        }
+        route.setOwner(message.peer);
+        result.complete(route.toResponse());
+    }
+
+    // one routing step of a lookup, the same as in LookUpSimulation.handle()
+    private void forward(int peer, NodeInterface node, PeerMessage message, LoopbackTransport transport) {
+        if (!node.isAlive()) {
+            // a failed node does not answer, the lookup times out
+            return;
+        }
+        int origin = message.peer;
+        NodeInterface previous = message.hops == 0 ? null : ring.getNode(message.route[message.hops - 1]);
+        if (protocol.isResponsible(node, message.key) || protocol.answersFromReplica(previous, node, message.key)) {
+            transport.send(origin, message.set(PeerMessage.LOOKUP_RESULT, message.requestId, peer, message.key,
+                    message.hops, 0));
+            return;
+        }
+        NodeInterface next = protocol.nextHop(node, message.key);
+        if (next == null || next.equals(node) || message.hops == PeerMessage.MAX_ROUTE) {
+            // same as lookUp(): the route cannot continue, or is longer than a frame holds
+            transport.send(origin, message.set(PeerMessage.LOOKUP_RESULT, message.requestId, -1, message.key,
+                    message.hops, 0));
+            return;
+        }
+        message.route[message.hops++] = peer;
+        transport.send(ring.ordinalOf(next), message);
+    }
+
+    /**
+     * stops the transport and closes the sockets
+     */
+    @Override
+    public void close() throws IOException {
+        transport.close();
+    }
+}
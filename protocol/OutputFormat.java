@@ -0,0 +1,27 @@
+package protocol;
+
+/**
+ * The formats in which the lookup results can be written. TEXT is the default and is the format of the assignment.
+ * CSV has one row per lookup, and BINARY is a compact record format for very large runs.
+ */
+public enum OutputFormat {
+    TEXT(".txt"),
+    CSV(".csv"),
+    BINARY(".bin");
+
+    // extension of the output file
+    public final String extension;
+
+    OutputFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * parses the name of the format, eg:- "text", "csv", "binary"
+     * @param name name of the format (case insensitive)
+     * @return the format
+     */
+    public static OutputFormat parse(String name) {
+        return OutputFormat.valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,249 @@
+package protocol;
+
+import crypto.HashAlgorithm;
+import p2p.NodeInterface;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * This class is a snapshot of a built chord ring: the nodes in ring order with their ids, the finger successors of
+ * every node and the node every key is placed at. Restoring the snapshot gives the same ring as building it, without
+ * hashing the node and key names, sorting the ring or searching for the fingers.
+ *
+ * The file starts with the int MAGIC and the int VERSION, followed by
+ *      header:  m (int), hash function name, node count (int), key count (int)
+ *      nodes:   node count times name, id (long), in ring order
+ *      fingers: node count times m ring ordinals (int) of the finger successors
+ *      keys:    key count times name, key index (long), ring ordinal of the owner (int)
+ * Strings are written as an unsigned short length followed by the UTF-8 bytes. Numbers are big endian. The file is
+ * written and read sequentially through one direct buffer.
+ */
+public class OverlaySnapshot {
+    public static final int MAGIC = 0x43484C53;
+    public static final int VERSION = 1;
+
+    // size of the read and write buffer
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // length of the identifiers
+    public final int m;
+    // hash function the ids were calculated with
+    public final HashAlgorithm hashAlgorithm;
+    // names and ids of the nodes in ring order
+    public final String[] nodeNames;
+    public final long[] nodeIds;
+    // ring ordinals of the finger successors, m per node
+    public final int[] fingers;
+    // names, indexes and owner ordinals of the keys, in the order of the simulator's key indexes
+    public final String[] keyNames;
+    public final long[] keyIndexes;
+    public final int[] keyOwners;
+
+    public OverlaySnapshot(int m, HashAlgorithm hashAlgorithm, String[] nodeNames, long[] nodeIds, int[] fingers,
+                           String[] keyNames, long[] keyIndexes, int[] keyOwners) {
+        this.m = m;
+        this.hashAlgorithm = hashAlgorithm;
+        this.nodeNames = nodeNames;
+        this.nodeIds = nodeIds;
+        this.fingers = fingers;
+        this.keyNames = keyNames;
+        this.keyIndexes = keyIndexes;
+        this.keyOwners = keyOwners;
+    }
+
+    /**
+     * This method takes a snapshot of a protocol whose overlay network and finger tables have been built.
+     *
+     * @param protocol the protocol
+     * @param keys     names and indexes of the keys
+     * @return the snapshot
+     */
+    public static OverlaySnapshot of(ChordProtocol protocol, Map<String, Long> keys) {
+        int[] fingers = protocol.getFingerOrdinals();
+        RingIndex ring = protocol.ringIndex;
+        String[] nodeNames = new String[ring.size()];
+        long[] nodeIds = new long[ring.size()];
+        for (int i = 0; i < ring.size(); i++) {
+            NodeInterface node = ring.getNode(i);
+            nodeNames[i] = node.getName();
+            nodeIds[i] = node.getLongId();
+        }
+        String[] keyNames = new String[keys.size()];
+        long[] keyIndexes = new long[keys.size()];
+        int[] keyOwners = new int[keys.size()];
+        int k = 0;
+        for (Map.Entry<String, Long> entry : keys.entrySet()) {
+            keyNames[k] = entry.getKey();
+            keyIndexes[k] = entry.getValue();
+            keyOwners[k] = ring.successorOrdinal(keyIndexes[k]);
+            k++;
+        }
+        return new OverlaySnapshot(protocol.m, protocol.hashAlgorithm, nodeNames, nodeIds, fingers,
+                keyNames, keyIndexes, keyOwners);
+    }
+
+    /**
+     * writes the snapshot to a file. An existing file is replaced.
+     * @param file the snapshot file
+     */
+    public void write(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel);
+            out.ensure(12);
+            out.buffer.putInt(MAGIC).putInt(VERSION).putInt(m);
+            out.putString(hashAlgorithm.name());
+            out.ensure(8);
+            out.buffer.putInt(nodeNames.length).putInt(keyNames.length);
+            for (int i = 0; i < nodeNames.length; i++) {
+                out.putString(nodeNames[i]);
+                out.ensure(8);
+                out.buffer.putLong(nodeIds[i]);
+            }
+            // the fingers are copied in blocks as large as the buffer
+            for (int written = 0; written < fingers.length; ) {
+                out.ensure(Integer.BYTES);
+                int count = Math.min(out.buffer.remaining() / Integer.BYTES, fingers.length - written);
+                out.buffer.asIntBuffer().put(fingers, written, count);
+                out.buffer.position(out.buffer.position() + count * Integer.BYTES);
+                written += count;
+            }
+            for (int k = 0; k < keyNames.length; k++) {
+                out.putString(keyNames[k]);
+                out.ensure(12);
+                out.buffer.putLong(keyIndexes[k]).putInt(keyOwners[k]);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * reads a snapshot from a file
+     * @param file the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file cannot be read, is not a snapshot or has another version
+     */
+    public static OverlaySnapshot read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Input in = new Input(channel);
+            in.require(8);
+            int magic = in.buffer.getInt();
+            int version = in.buffer.getInt();
+            if (magic != MAGIC) {
+                throw new IOException(file + " is not a snapshot of a chord ring");
+            }
+            if (version != VERSION) {
+                throw new IOException(file + " has snapshot version " + version + ", expected " + VERSION);
+            }
+            in.require(4);
+            int m = in.buffer.getInt();
+            HashAlgorithm hashAlgorithm = HashAlgorithm.parse(in.getString());
+            in.require(8);
+            int nodeCount = in.buffer.getInt();
+            int keyCount = in.buffer.getInt();
+
+            String[] nodeNames = new String[nodeCount];
+            long[] nodeIds = new long[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                nodeNames[i] = in.getString();
+                in.require(8);
+                nodeIds[i] = in.buffer.getLong();
+            }
+            int[] fingers = new int[nodeCount * m];
+            for (int read = 0; read < fingers.length; ) {
+                in.require(Integer.BYTES);
+                int count = Math.min(in.buffer.remaining() / Integer.BYTES, fingers.length - read);
+                in.buffer.asIntBuffer().get(fingers, read, count);
+                in.buffer.position(in.buffer.position() + count * Integer.BYTES);
+                read += count;
+            }
+            String[] keyNames = new String[keyCount];
+            long[] keyIndexes = new long[keyCount];
+            int[] keyOwners = new int[keyCount];
+            for (int k = 0; k < keyCount; k++) {
+                keyNames[k] = in.getString();
+                in.require(12);
+                keyIndexes[k] = in.buffer.getLong();
+                keyOwners[k] = in.buffer.getInt();
+            }
+            return new OverlaySnapshot(m, hashAlgorithm, nodeNames, nodeIds, fingers, keyNames, keyIndexes, keyOwners);
+        }
+    }
+
+    // buffered sequential writes to a file channel
+    private static class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        // makes room for the given number of bytes in the buffer
+        void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        // writes a length prefixed UTF-8 string
+        void putString(String text) throws IOException {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IllegalArgumentException("string is too long for the snapshot: " + bytes.length + " bytes");
+            }
+            ensure(2 + bytes.length);
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+    }
+
+    // buffered sequential reads from a file channel
+    private static class Input {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Input(FileChannel channel) {
+            this.channel = channel;
+            buffer.limit(0);
+        }
+
+        // reads from the file until the buffer holds at least the given number of bytes
+        void require(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("the snapshot ends early");
+                }
+            }
+            buffer.flip();
+        }
+
+        // reads a length prefixed UTF-8 string
+        String getString() throws IOException {
+            require(2);
+            int length = buffer.getShort() & 0xFFFF;
+            require(length);
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package protocol;
 
 import p2p.NetworkInterface;
+import p2p.NodeInterface;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
 
 public interface Protocol {
 
@@ -21,7 +23,7 @@ public interface Protocol {
      * sets the key indexes. Those key indexes can be used to  test the lookup operation.
      * @param keyIndexes - indexes of keys
      */
-    public void setKeys(HashMap<String, Integer> keyIndexes);
+    public void setKeys(HashMap<String, Long> keyIndexes);
 
     /**
      * This method builds the overlay network.  It assumes the network object has already been set. It generates indexes
@@ -56,4 +58,42 @@ public interface Protocol {
      * @return names of nodes that have been searched and the final node that contains the key
      */
     public LookUpResponse lookUp(int keyIndex);
+
+    /**
+     * This method performs the lookup operation for a key index of up to 63 bits (m > 31).
+     *
+     * @param keyIndex index of the key
+     * @return names of nodes that have been searched and the final node that contains the key
+     */
+    public LookUpResponse lookUp(long keyIndex);
+
+    /**
+     * This method performs the lookup operation starting from the given node instead of the usual starting node.
+     *
+     * @param origin   node the lookup starts from
+     * @param keyIndex index of the key
+     * @return names of nodes that have been searched and the final node that contains the key
+     */
+    public LookUpResponse lookUp(NodeInterface origin, long keyIndex);
+
+    /**
+     * This method starts the lookup operation like lookUp(long) and returns without waiting for it, so a client can
+     * have many lookups outstanding. The number of lookups in flight is bounded by a window: the call blocks while the
+     * window is full, and every lookup has a timeout (see AsyncLookUps).
+     *
+     * @param keyIndex index of the key
+     * @return future that completes with the response, with null if the lookup has failed, or exceptionally with a
+     * TimeoutException
+     */
+    public CompletableFuture<LookUpResponse> lookUpAsync(long keyIndex);
+
+    /**
+     * This method starts the lookup operation like lookUpAsync(long), starting from the given node.
+     *
+     * @param origin   node the lookup starts from
+     * @param keyIndex index of the key
+     * @return future that completes with the response, with null if the lookup has failed, or exceptionally with a
+     * TimeoutException
+     */
+    public CompletableFuture<LookUpResponse> lookUpAsync(NodeInterface origin, long keyIndex);
 }
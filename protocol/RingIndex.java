@@ -0,0 +1,277 @@
+package protocol;
+
+import crypto.ConsistentHashing;
+import p2p.NodeInterface;
+import p2p.VirtualNode;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Sorted index of the nodes on the consistent hash ring.
+ *
+ * The ids of the nodes are kept in ascending order in a primitive array, and the node objects are kept in a parallel
+ * array so that the position (ordinal) of an id in the ring also gives the node. The node responsible for an index is
+ * the first node whose id is greater than or equal to the index, which is found with a binary search. If the index is
+ * larger than the biggest node id, the ring wraps around to the first node.
+ *
+ * Nodes with the same id keep the order in which they were given, so the first node of the network wins a collision.
+ * Ids are stored as longs so that the index also works for identifiers longer than 31 bits.
+ *
+ * Each position also stores the slot of the node (see fingertable.NodeSlots). Nodes can be inserted and removed for
+ * joins and leaves, which shifts the ordinals of the following nodes but keeps their slots.
+ */
+public class RingIndex {
+    // ids of the nodes in ascending order. only the first 'size' entries are used
+    private long[] ids;
+    // nodes in the same order as the ids
+    private NodeInterface[] nodes;
+    // slots of the nodes in the same order as the ids
+    private int[] slots;
+    // number of nodes in the ring
+    private int size;
+
+    /**
+     * creates the index from sorted arrays. the slot of each node is its position.
+     * @param ids   node ids sorted in ascending order
+     * @param nodes nodes in the same order as the ids
+     */
+    public RingIndex(long[] ids, NodeInterface[] nodes) {
+        this.ids = ids;
+        this.nodes = nodes;
+        this.size = ids.length;
+        this.slots = new int[ids.length];
+        for (int i = 0; i < size; i++) {
+            slots[i] = i;
+        }
+    }
+
+    /**
+     * Builds the index by hashing the name of every node once and sorting the ids.
+     *
+     * @param nodes nodes of the network
+     * @param ch    consistent hashing used to calculate the node ids
+     * @return the ring index
+     */
+    public static RingIndex build(Collection<NodeInterface> nodes, ConsistentHashing ch) {
+        return build(nodes, ch, 1);
+    }
+
+    /**
+     * Builds the index with v positions per node. Position r of a node is the hash of VirtualNode.replicaName(name, r),
+     * and every position refers to the node itself, so the owner of a key is found as the physical node.
+     *
+     * @param nodes        nodes of the network
+     * @param ch           consistent hashing used to calculate the ids
+     * @param virtualNodes number of positions (v) per node
+     * @return the ring index
+     */
+    public static RingIndex build(Collection<NodeInterface> nodes, ConsistentHashing ch, int virtualNodes) {
+        NodeInterface[] physical = nodes.toArray(new NodeInterface[0]);
+        long[] ids = new long[physical.length * virtualNodes];
+        NodeInterface[] input = new NodeInterface[ids.length];
+        for (int i = 0; i < physical.length; i++) {
+            for (int r = 0; r < virtualNodes; r++) {
+                ids[i * virtualNodes + r] = ch.hashLong(VirtualNode.replicaName(physical[i].getName(), r));
+                input[i * virtualNodes + r] = physical[i];
+            }
+        }
+        return sorted(ids, input);
+    }
+
+    /**
+     * Builds the index from nodes which already have their id set (eg:- after buildOverlayNetwork).
+     *
+     * @param nodes nodes of the network
+     * @return the ring index
+     */
+    public static RingIndex fromIds(Collection<NodeInterface> nodes) {
+        NodeInterface[] input = nodes.toArray(new NodeInterface[0]);
+        long[] ids = new long[input.length];
+        for (int i = 0; i < input.length; i++) {
+            ids[i] = input[i].getLongId();
+        }
+        return sorted(ids, input);
+    }
+
+    /**
+     * sorts the ids together with the nodes. when the ids fit in 31 bits, the id and the original position are packed
+     * in one long so that a primitive sort keeps the order of nodes that share the same id. longer ids are sorted
+     * through their positions with a stable sort.
+     */
+    static RingIndex sorted(long[] ids, NodeInterface[] input) {
+        long[] sortedIds = new long[ids.length];
+        NodeInterface[] sortedNodes = new NodeInterface[ids.length];
+
+        boolean fitsInInt = true;
+        for (long id : ids) {
+            fitsInInt &= id >= 0 && id <= Integer.MAX_VALUE;
+        }
+
+        if (fitsInInt) {
+            long[] packed = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                packed[i] = (ids[i] << 32) | i;
+            }
+            Arrays.sort(packed);
+            for (int i = 0; i < packed.length; i++) {
+                sortedIds[i] = packed[i] >>> 32;
+                sortedNodes[i] = input[(int) packed[i]];
+            }
+        } else {
+            Integer[] positions = new Integer[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                positions[i] = i;
+            }
+            Arrays.sort(positions, Comparator.comparingLong(i -> ids[i]));
+            for (int i = 0; i < positions.length; i++) {
+                sortedIds[i] = ids[positions[i]];
+                sortedNodes[i] = input[positions[i]];
+            }
+        }
+        return new RingIndex(sortedIds, sortedNodes);
+    }
+
+    /**
+     * @return number of nodes in the ring
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param ordinal position of the node in the ring
+     * @return id of the node
+     */
+    public long getId(int ordinal) {
+        return ids[ordinal];
+    }
+
+    /**
+     * @param ordinal position of the node in the ring
+     * @return node object
+     */
+    public NodeInterface getNode(int ordinal) {
+        return nodes[ordinal];
+    }
+
+    /**
+     * @param ordinal position of the node in the ring
+     * @return slot of the node
+     */
+    public int getSlot(int ordinal) {
+        return slots[ordinal];
+    }
+
+    /**
+     * @return a copy of the nodes sorted by id
+     */
+    public NodeInterface[] getNodes() {
+        return Arrays.copyOf(nodes, size);
+    }
+
+    /**
+     * Finds the position of the node that is responsible for the index: the first node with an id greater than or
+     * equal to the index, or the first node of the ring if the index is bigger than all the node ids.
+     *
+     * @param index index on the ring (eg:- key index)
+     * @return ordinal of the responsible node, or -1 if the ring is empty
+     */
+    public int successorOrdinal(long index) {
+        if (size == 0) {
+            return -1;
+        }
+        int low = lowerBound(index);
+        return low == size ? 0 : low;
+    }
+
+    /**
+     * @param index index on the ring (eg:- key index)
+     * @return the node responsible for the index, or null if the ring is empty
+     */
+    public NodeInterface findSuccessor(long index) {
+        int ordinal = successorOrdinal(index);
+        return ordinal < 0 ? null : nodes[ordinal];
+    }
+
+    /**
+     * @param node node object. with virtual nodes a physical node is found at its position 0, which has its id
+     * @return position of the node in the ring, or -1 if it is not in the ring
+     */
+    public int ordinalOf(NodeInterface node) {
+        for (int i = lowerBound(node.getLongId()); i < size && ids[i] == node.getLongId(); i++) {
+            if (nodes[i] == node || nodes[i] instanceof VirtualNode && ((VirtualNode) nodes[i]).physical == node) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * inserts a node into the ring. the node is placed after the nodes that already have the same id.
+     * @param id   id of the node
+     * @param node node object
+     * @param slot slot of the node
+     * @return position of the node in the ring
+     */
+    public int insert(long id, NodeInterface node, int slot) {
+        int position = upperBound(id);
+        if (size == ids.length) {
+            int capacity = Math.max(4, size * 2);
+            ids = Arrays.copyOf(ids, capacity);
+            nodes = Arrays.copyOf(nodes, capacity);
+            slots = Arrays.copyOf(slots, capacity);
+        }
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        System.arraycopy(nodes, position, nodes, position + 1, size - position);
+        System.arraycopy(slots, position, slots, position + 1, size - position);
+        ids[position] = id;
+        nodes[position] = node;
+        slots[position] = slot;
+        size++;
+        return position;
+    }
+
+    /**
+     * removes the node at the given position from the ring
+     * @param ordinal position of the node in the ring
+     */
+    public void remove(int ordinal) {
+        System.arraycopy(ids, ordinal + 1, ids, ordinal, size - ordinal - 1);
+        System.arraycopy(nodes, ordinal + 1, nodes, ordinal, size - ordinal - 1);
+        System.arraycopy(slots, ordinal + 1, slots, ordinal, size - ordinal - 1);
+        size--;
+        nodes[size] = null;
+    }
+
+    // first position with an id >= index (size if there is none)
+    private int lowerBound(long index) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ids[mid] < index) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // first position with an id > index (size if there is none)
+    private int upperBound(long index) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ids[mid] <= index) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
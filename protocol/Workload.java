@@ -0,0 +1,240 @@
+package protocol;
+
+import p2p.NodeInterface;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * This class generates a stream of lookup requests over a set of keys. Each request picks a key from one of the
+ * distributions below and an origin node, either a fixed node or a random node of the ring.
+ *      UNIFORM: every key is equally likely
+ *      ZIPF:    the kth key is requested with a probability proportional to 1 / k^s
+ *      HOTSPOT: a fraction of the requests go to a small fraction of the keys (the first keys), the rest are uniform
+ * The requests are generated one at a time from a seeded random generator, so the same seed gives the same workload
+ * and the memory does not grow with the number of requests.
+ */
+public class Workload implements Iterator<Workload.Request> {
+    public enum Distribution {
+        UNIFORM,
+        ZIPF,
+        HOTSPOT
+    }
+
+    /**
+     * a single lookup request
+     */
+    public static final class Request {
+        public final String keyName;
+        public final long keyIndex;
+        public final NodeInterface origin;
+
+        public Request(String keyName, long keyIndex, NodeInterface origin) {
+            this.keyName = keyName;
+            this.keyIndex = keyIndex;
+            this.origin = origin;
+        }
+    }
+
+    private final String[] keyNames;
+    private final long[] keyIndexes;
+    private final long requestCount;
+    private final Random random;
+
+    private Distribution distribution = Distribution.UNIFORM;
+    private ZipfSampler zipf;
+    // hotspot: number of hot keys and fraction of the requests that go to them
+    private int hotKeys;
+    private double hotRequests;
+
+    // origins are picked at random from these nodes, unless a fixed origin is set
+    private NodeInterface[] origins;
+    private NodeInterface fixedOrigin;
+
+    private long generated;
+
+    /**
+     * creates a uniform workload. The origins must be set with setOrigins() or setOrigin().
+     * @param keyNames     names of the keys
+     * @param keyIndexes   indexes of the keys, in the same order as the names
+     * @param requestCount number of requests to generate
+     * @param seed         seed of the random generator
+     */
+    public Workload(String[] keyNames, long[] keyIndexes, long requestCount, long seed) {
+        if (keyNames.length == 0 || keyNames.length != keyIndexes.length) {
+            throw new IllegalArgumentException("the workload needs the same number (> 0) of key names and indexes");
+        }
+        this.keyNames = keyNames;
+        this.keyIndexes = keyIndexes;
+        this.requestCount = requestCount;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * every key is equally likely
+     */
+    public void setUniform() {
+        this.distribution = Distribution.UNIFORM;
+    }
+
+    /**
+     * @param exponent exponent s of the distribution (> 0), larger values concentrate the requests on fewer keys
+     */
+    public void setZipf(double exponent) {
+        if (exponent <= 0) {
+            throw new IllegalArgumentException("zipf exponent must be > 0: " + exponent);
+        }
+        this.distribution = Distribution.ZIPF;
+        this.zipf = new ZipfSampler(keyNames.length, exponent);
+    }
+
+    /**
+     * @param keyFraction     fraction of the keys that are hot, eg:- 0.01
+     * @param requestFraction fraction of the requests that go to the hot keys, eg:- 0.9
+     */
+    public void setHotspot(double keyFraction, double requestFraction) {
+        this.distribution = Distribution.HOTSPOT;
+        this.hotKeys = Math.max(1, (int) Math.round(keyFraction * keyNames.length));
+        this.hotRequests = requestFraction;
+    }
+
+    /**
+     * sets the distribution from a string: "uniform", "zipf:<s>" or "hotspot:<key fraction>:<request fraction>"
+     * @param spec description of the distribution
+     */
+    public void setDistribution(String spec) {
+        String[] parts = spec.trim().toLowerCase().split(":");
+        switch (parts[0]) {
+            case "uniform":
+                setUniform();
+                break;
+            case "zipf":
+                setZipf(parts.length > 1 ? Double.parseDouble(parts[1]) : 1.0);
+                break;
+            case "hotspot":
+                setHotspot(parts.length > 1 ? Double.parseDouble(parts[1]) : 0.01,
+                        parts.length > 2 ? Double.parseDouble(parts[2]) : 0.9);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown key distribution: " + spec);
+        }
+    }
+
+    /**
+     * @param origins nodes the origin of each request is picked from at random
+     */
+    public void setOrigins(NodeInterface[] origins) {
+        this.origins = origins;
+        this.fixedOrigin = null;
+    }
+
+    /**
+     * @param origin node every request starts from
+     */
+    public void setOrigin(NodeInterface origin) {
+        this.fixedOrigin = origin;
+    }
+
+    /**
+     * @return the distribution of the keys
+     */
+    public Distribution getDistribution() {
+        return distribution;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return generated < requestCount;
+    }
+
+    @Override
+    public Request next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        generated++;
+        int key = nextKey();
+        NodeInterface origin = fixedOrigin != null ? fixedOrigin : origins[random.nextInt(origins.length)];
+        return new Request(keyNames[key], keyIndexes[key], origin);
+    }
+
+    // position of the next requested key
+    private int nextKey() {
+        switch (distribution) {
+            case ZIPF:
+                return zipf.sample(random) - 1;
+            case HOTSPOT:
+                if (random.nextDouble() < hotRequests) {
+                    return random.nextInt(hotKeys);
+                }
+                return random.nextInt(keyNames.length);
+            default:
+                return random.nextInt(keyNames.length);
+        }
+    }
+
+    /**
+     * Samples ranks 1..n of a Zipf distribution with the rejection-inversion method of Hoermann and Derflinger, which
+     * needs constant time and memory for any number of keys (no table of cumulative probabilities).
+     */
+    private static final class ZipfSampler {
+        private final int n;
+        private final double exponent;
+        private final double hIntegralX1;
+        private final double hIntegralN;
+        private final double s;
+
+        ZipfSampler(int n, double exponent) {
+            this.n = n;
+            this.exponent = exponent;
+            this.hIntegralX1 = hIntegral(1.5) - 1;
+            this.hIntegralN = hIntegral(n + 0.5);
+            this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        int sample(Random random) {
+            while (true) {
+                double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+                double x = hIntegralInverse(u);
+                int k = (int) (x + 0.5);
+                if (k < 1) {
+                    k = 1;
+                } else if (k > n) {
+                    k = n;
+                }
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return helper2((1 - exponent) * logX) * logX;
+        }
+
+        private double h(double x) {
+            return Math.exp(-exponent * Math.log(x));
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = x * (1 - exponent);
+            if (t < -1) {
+                // limited by the precision of the doubles
+                t = -1;
+            }
+            return Math.exp(helper1(t) * x);
+        }
+
+        // log(1 + x) / x, accurate for small x
+        private static double helper1(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+        }
+
+        // (exp(x) - 1) / x, accurate for small x
+        private static double helper2(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+        }
+    }
+}